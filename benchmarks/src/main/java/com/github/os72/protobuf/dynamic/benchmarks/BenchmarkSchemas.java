@@ -0,0 +1,84 @@
+/*
+ * Copyright 2015 protobuf-dynamic developers
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.os72.protobuf.dynamic.benchmarks;
+
+import com.github.os72.protobuf.dynamic.PersonSchema;
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
+
+/**
+ * BenchmarkSchemas - schema descriptors used by the benchmarks
+ */
+final class BenchmarkSchemas
+{
+	/**
+	 * Returns the serialized descriptor of PersonSchema.proto (one file, a few types)
+	 */
+	static byte[] personSchemaDesc() {
+		return FileDescriptorSet.newBuilder().addFile(PersonSchema.getDescriptor().toProto()).build().toByteArray();
+	}
+
+	/**
+	 * Returns a serialized descriptor of fileCount files in 10 packages, file_i.proto imports file_(i-1).proto,
+	 * each file has msgCount messages with a few scalar fields and a reference to a message of the imported file
+	 */
+	static byte[] chainSchemaDesc(int fileCount, int msgCount) {
+		FileDescriptorSet.Builder fileDescSetBuilder = FileDescriptorSet.newBuilder();
+		for (int i = 0; i < fileCount; i++) {
+			FileDescriptorProto.Builder fdProtoBuilder = FileDescriptorProto.newBuilder()
+					.setName("file_" + i + ".proto")
+					.setPackage(packageName(i));
+			if (i > 0) fdProtoBuilder.addDependency("file_" + (i - 1) + ".proto");
+			for (int j = 0; j < msgCount; j++) {
+				DescriptorProto.Builder msgTypeBuilder = DescriptorProto.newBuilder().setName(msgTypeName(i, j))
+						.addField(newField("id", 1, FieldDescriptorProto.Type.TYPE_INT64, null))
+						.addField(newField("name", 2, FieldDescriptorProto.Type.TYPE_STRING, null))
+						.addField(newField("value", 3, FieldDescriptorProto.Type.TYPE_DOUBLE, null));
+				if (i > 0) {
+					String prevTypeName = "." + packageName(i - 1) + "." + msgTypeName(i - 1, j);
+					msgTypeBuilder.addField(newField("prev", 4, FieldDescriptorProto.Type.TYPE_MESSAGE, prevTypeName));
+				}
+				fdProtoBuilder.addMessageType(msgTypeBuilder);
+			}
+			fileDescSetBuilder.addFile(fdProtoBuilder);
+		}
+		return fileDescSetBuilder.build().toByteArray();
+	}
+
+	static String packageName(int fileIdx) {
+		return "pkg_" + (fileIdx % 10);
+	}
+
+	static String msgTypeName(int fileIdx, int msgIdx) {
+		return "Msg_" + fileIdx + "_" + msgIdx;
+	}
+
+	private static FieldDescriptorProto.Builder newField(String name, int num, FieldDescriptorProto.Type type, String typeName) {
+		FieldDescriptorProto.Builder fieldBuilder = FieldDescriptorProto.newBuilder()
+				.setName(name)
+				.setNumber(num)
+				.setLabel(FieldDescriptorProto.Label.LABEL_OPTIONAL)
+				.setType(type);
+		if (typeName != null) fieldBuilder.setTypeName(typeName);
+		return fieldBuilder;
+	}
+
+	private BenchmarkSchemas() {
+	}
+}
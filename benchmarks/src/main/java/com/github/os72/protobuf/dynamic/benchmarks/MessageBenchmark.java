@@ -0,0 +1,178 @@
+/*
+ * Copyright 2015 protobuf-dynamic developers
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.os72.protobuf.dynamic.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.os72.protobuf.dynamic.CompiledMessage;
+import com.github.os72.protobuf.dynamic.CompiledMessageType;
+import com.github.os72.protobuf.dynamic.DynamicSchema;
+import com.github.os72.protobuf.dynamic.JsonCodec;
+import com.github.os72.protobuf.dynamic.MessageAccessor;
+import com.github.os72.protobuf.dynamic.PersonSchema;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.DynamicMessage;
+
+/**
+ * MessageBenchmark - dynamic and compiled message build, serialize and parse, compared with the generated PersonSchema.Person;
+ * JSON encode and parse with JsonCodec
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBenchmark
+{
+	@Setup
+	public void setup() throws Exception {
+		DynamicSchema schema = DynamicSchema.parseFrom(BenchmarkSchemas.personSchemaDesc());
+		mMsgDesc = schema.getMessageDescriptor("Person");
+		mIdField = mMsgDesc.findFieldByName("id");
+		mNameField = mMsgDesc.findFieldByName("name");
+		mEmailField = mMsgDesc.findFieldByName("email");
+		mAccessor = schema.getMessageAccessor("Person");
+		mIdHandle = mAccessor.getFieldHandle("id");
+		mNameHandle = mAccessor.getFieldHandle("name");
+		mEmailHandle = mAccessor.getFieldHandle("email");
+		mCompiledType = schema.getCompiledMessageType("Person");
+		mDynamicMsg = buildDynamic();
+		mGeneratedMsg = buildGenerated();
+		mMsgBuf = mGeneratedMsg.toByteArray();
+		mCompiledMsg = buildCompiled();
+		mReusedMsg = mCompiledType.newMessage();
+		mJsonCodec = schema.getJsonCodec("Person");
+		mJsonOutput = new JsonCodec.Output();
+		mJsonBuf = mJsonCodec.toJsonBytes(mDynamicMsg);
+	}
+
+	@Benchmark
+	public DynamicMessage buildDynamic() {
+		return DynamicMessage.newBuilder(mMsgDesc)
+				.setField(mIdField, 1)
+				.setField(mNameField, "Alan Turing")
+				.setField(mEmailField, "at@sis.gov.uk")
+				.build();
+	}
+
+	@Benchmark
+	public DynamicMessage buildDynamicAccessor() {
+		DynamicMessage.Builder msgBuilder = mAccessor.newBuilder();
+		mAccessor.set(msgBuilder, mIdHandle, 1);
+		mAccessor.set(msgBuilder, mNameHandle, "Alan Turing");
+		mAccessor.set(msgBuilder, mEmailHandle, "at@sis.gov.uk");
+		return msgBuilder.build();
+	}
+
+	@Benchmark
+	public CompiledMessage buildCompiled() {
+		return mCompiledType.newMessage()
+				.setInt(mIdHandle, 1)
+				.setString(mNameHandle, "Alan Turing")
+				.setString(mEmailHandle, "at@sis.gov.uk");
+	}
+
+	@Benchmark
+	public byte[] buildSerializeCompiledReused() {
+		return mReusedMsg.clear()
+				.setInt(mIdHandle, 1)
+				.setString(mNameHandle, "Alan Turing")
+				.setString(mEmailHandle, "at@sis.gov.uk")
+				.toByteArray();
+	}
+
+	@Benchmark
+	public PersonSchema.Person buildGenerated() {
+		return PersonSchema.Person.newBuilder()
+				.setId(1)
+				.setName("Alan Turing")
+				.setEmail("at@sis.gov.uk")
+				.build();
+	}
+
+	@Benchmark
+	public byte[] serializeDynamic() {
+		return mDynamicMsg.toByteArray();
+	}
+
+	@Benchmark
+	public byte[] serializeCompiled() {
+		return mCompiledMsg.toByteArray();
+	}
+
+	@Benchmark
+	public byte[] serializeGenerated() {
+		return mGeneratedMsg.toByteArray();
+	}
+
+	@Benchmark
+	public DynamicMessage parseDynamic() throws Exception {
+		return DynamicMessage.parseFrom(mMsgDesc, mMsgBuf);
+	}
+
+	@Benchmark
+	public CompiledMessage parseCompiled() throws Exception {
+		return mCompiledType.parseFrom(mMsgBuf);
+	}
+
+	@Benchmark
+	public PersonSchema.Person parseGenerated() throws Exception {
+		return PersonSchema.Person.parseFrom(mMsgBuf);
+	}
+
+	@Benchmark
+	public int encodeJson() {
+		mJsonCodec.encode(mDynamicMsg, mJsonOutput.reset());
+		return mJsonOutput.size();
+	}
+
+	@Benchmark
+	public DynamicMessage parseJson() throws Exception {
+		return mJsonCodec.parse(mJsonBuf);
+	}
+
+	private Descriptor mMsgDesc;
+	private FieldDescriptor mIdField;
+	private FieldDescriptor mNameField;
+	private FieldDescriptor mEmailField;
+	private MessageAccessor mAccessor;
+	private int mIdHandle;
+	private int mNameHandle;
+	private int mEmailHandle;
+	private CompiledMessageType mCompiledType;
+	private DynamicMessage mDynamicMsg;
+	private CompiledMessage mCompiledMsg;
+	private CompiledMessage mReusedMsg;
+	private PersonSchema.Person mGeneratedMsg;
+	private byte[] mMsgBuf;
+	private JsonCodec mJsonCodec;
+	private JsonCodec.Output mJsonOutput;
+	private byte[] mJsonBuf;
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2015 protobuf-dynamic developers
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.os72.protobuf.dynamic.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.os72.protobuf.dynamic.DynamicSchema;
+import com.github.os72.protobuf.dynamic.MessageDefinition;
+
+/**
+ * SchemaBuildBenchmark - DynamicSchema.Builder.build() with many message definitions
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SchemaBuildBenchmark
+{
+	@Param({ "10", "1000" })
+	public int msgCount;
+
+	@Setup
+	public void setup() {
+		mMsgDefList = new ArrayList<MessageDefinition>();
+		for (int i = 0; i < msgCount; i++) {
+			MessageDefinition.Builder msgDefBuilder = MessageDefinition.newBuilder("Msg_" + i)
+					.addField("required", "int64", "id", 1)
+					.addField("optional", "string", "name", 2)
+					.addField("optional", "double", "value", 3)
+					.addField("repeated", "int32", "values", 4);
+			if (i > 0) msgDefBuilder.addField("optional", "Msg_" + (i - 1), "prev", 5);
+			mMsgDefList.add(msgDefBuilder.build());
+		}
+	}
+
+	@Benchmark
+	public DynamicSchema build() throws Exception {
+		DynamicSchema.Builder schemaBuilder = DynamicSchema.newBuilder().setName("Build.proto").setPackage("build");
+		for (MessageDefinition msgDef : mMsgDefList) schemaBuilder.addMessageDefinition(msgDef);
+		return schemaBuilder.build();
+	}
+
+	private List<MessageDefinition> mMsgDefList;
+}
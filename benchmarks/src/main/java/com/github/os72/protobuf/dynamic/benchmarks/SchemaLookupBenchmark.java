@@ -0,0 +1,91 @@
+/*
+ * Copyright 2015 protobuf-dynamic developers
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.os72.protobuf.dynamic.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.os72.protobuf.dynamic.DynamicSchema;
+import com.google.protobuf.Descriptors.Descriptor;
+
+/**
+ * SchemaLookupBenchmark - message type lookups by short name, full name and handle (1000 types)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SchemaLookupBenchmark
+{
+	@Setup
+	public void setup() throws Exception {
+		mSchema = DynamicSchema.parseFrom(BenchmarkSchemas.chainSchemaDesc(100, 10));
+		for (int i = 0; i < LOOKUP_COUNT; i++) {
+			int fileIdx = (i * 7) % 100;
+			int msgIdx = i % 10;
+			mShortNames[i] = BenchmarkSchemas.msgTypeName(fileIdx, msgIdx);
+			mFullNames[i] = BenchmarkSchemas.packageName(fileIdx) + "." + mShortNames[i];
+			mMissingNames[i] = mFullNames[i] + "_missing";
+			mHandles[i] = mSchema.resolveMessageType(mFullNames[i]);
+		}
+	}
+
+	@Benchmark
+	public Descriptor lookupShortName() {
+		return mSchema.getMessageDescriptor(mShortNames[next()]);
+	}
+
+	@Benchmark
+	public Descriptor lookupFullName() {
+		return mSchema.getMessageDescriptor(mFullNames[next()]);
+	}
+
+	@Benchmark
+	public Descriptor lookupMissing() {
+		return mSchema.getMessageDescriptor(mMissingNames[next()]);
+	}
+
+	@Benchmark
+	public Descriptor lookupHandle() {
+		return mSchema.getMessageDescriptor(mHandles[next()]);
+	}
+
+	private int next() {
+		return mIdx++ & (LOOKUP_COUNT - 1);
+	}
+
+	private static final int LOOKUP_COUNT = 1024; // power of 2
+
+	private DynamicSchema mSchema;
+	private final String[] mShortNames = new String[LOOKUP_COUNT];
+	private final String[] mFullNames = new String[LOOKUP_COUNT];
+	private final String[] mMissingNames = new String[LOOKUP_COUNT];
+	private final int[] mHandles = new int[LOOKUP_COUNT];
+	private int mIdx;
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2015 protobuf-dynamic developers
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.os72.protobuf.dynamic.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.os72.protobuf.dynamic.DynamicSchema;
+
+/**
+ * SchemaParseBenchmark - schema parsing from serialized descriptors, small (PersonSchema.proto)
+ * and huge (3000 files, 30000 message types)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SchemaParseBenchmark
+{
+	@Param({ "small", "huge" })
+	public String size;
+
+	@Setup
+	public void setup() throws Exception {
+		mSchemaDescBuf = ("small".equals(size) ? BenchmarkSchemas.personSchemaDesc() : BenchmarkSchemas.chainSchemaDesc(3000, 10));
+		ByteArrayOutputStream snapshotOut = new ByteArrayOutputStream();
+		DynamicSchema.parseFrom(mSchemaDescBuf).writeSnapshot(snapshotOut);
+		mSnapshotBuf = snapshotOut.toByteArray();
+	}
+
+	@Benchmark
+	public DynamicSchema parseFrom() throws Exception {
+		return DynamicSchema.parseFrom(mSchemaDescBuf);
+	}
+
+	@Benchmark
+	public DynamicSchema parseFromLazy() throws Exception {
+		return DynamicSchema.parseFromLazy(mSchemaDescBuf);
+	}
+
+	@Benchmark
+	public DynamicSchema loadSnapshot() throws Exception {
+		return DynamicSchema.loadSnapshot(mSnapshotBuf);
+	}
+
+	private byte[] mSchemaDescBuf;
+	private byte[] mSnapshotBuf;
+}
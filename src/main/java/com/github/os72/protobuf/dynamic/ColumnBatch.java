@@ -0,0 +1,559 @@
+/*
+ * Copyright 2015 protobuf-dynamic developers
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.os72.protobuf.dynamic;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.github.os72.protobuf.dynamic.CompiledMessageType.CompiledField;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+
+/**
+ * ColumnBatch - decodes serialized messages of a message type into primitive columns, one row per message
+ * (not thread safe)
+ * <p>
+ * Columns are given by field paths of singular fields, nested fields flattened with dots, e.g. "customer.id".
+ * Values are decoded straight from the input into the column arrays, without building messages or boxing:
+ * int32, enum (number) and bool (0 or 1) fields into int[], int64 fields into long[], float and double fields
+ * into double[], string (UTF-8), bytes and whole message fields into offsets and bytes. A row is null in
+ * a column if the field (or an enclosing message) is not set; null rows hold 0, or no bytes.
+ * <p>
+ * The batch is reusable: {@link #clear()} keeps the column arrays, which grow as needed. The arrays returned
+ * by the column getters are the backing arrays, valid for the rows of the batch until the next row is added.
+ */
+public class ColumnBatch
+{
+	// --- public ---
+
+	public Descriptor getDescriptor() {
+		return mRoot.mType.mMsgType;
+	}
+
+	public int getRowCount() {
+		return mRowCount;
+	}
+
+	public int getColumnCount() {
+		return mColumns.size();
+	}
+
+	public List<Column> getColumns() {
+		return mColumns;
+	}
+
+	public Column getColumn(int columnIndex) {
+		return mColumns.get(columnIndex);
+	}
+
+	/**
+	 * Returns the column of the given field path
+	 * 
+	 * @param path the field path
+	 * @return the column (null if not found)
+	 */
+	public Column getColumn(String path) {
+		for (Column column : mColumns) {
+			if (column.mPath.equals(path)) return column;
+		}
+		return null;
+	}
+
+	/**
+	 * Decodes a message from the given bytes and adds it as a row
+	 * 
+	 * @param buf the serialized message
+	 * @return this
+	 * @throws InvalidProtocolBufferException (no row added)
+	 */
+	public ColumnBatch addRow(byte[] buf) throws InvalidProtocolBufferException {
+		try {
+			return addRow(CodedInputStream.newInstance(buf));
+		}
+		catch (InvalidProtocolBufferException e) {
+			throw e;
+		}
+		catch (IOException e) {
+			throw new IllegalStateException(e); // not thrown reading from a byte array
+		}
+	}
+
+	/**
+	 * Decodes a message from the remaining bytes of a byte buffer (heap, direct or memory-mapped) and adds
+	 * it as a row; the buffer position is not changed
+	 * 
+	 * @param buf the serialized message
+	 * @return this
+	 * @throws IOException (no row added)
+	 */
+	public ColumnBatch addRow(ByteBuffer buf) throws IOException {
+		return addRow(DynamicSchema.newCodedInput(buf));
+	}
+
+	/**
+	 * Decodes a message from the given input, up to the end of the input (or the current limit), and adds
+	 * it as a row
+	 * 
+	 * @param input the input
+	 * @return this
+	 * @throws IOException (no row added)
+	 */
+	public ColumnBatch addRow(CodedInputStream input) throws IOException {
+		int row = mRowCount;
+		if (row == mCapacity) grow();
+		for (Column column : mColumns) column.startRow(row);
+		parseFields(mRoot, input, row);
+		input.checkLastTagWas(0);
+		for (Column column : mColumns) column.endRow(row);
+		mRowCount++;
+		return this;
+	}
+
+	/**
+	 * Decodes a length-delimited message from the given input (see {@link com.google.protobuf.MessageLite#writeDelimitedTo})
+	 * and adds it as a row
+	 * 
+	 * @param input the input
+	 * @return false if at the end of the input (no row added)
+	 * @throws IOException
+	 */
+	public boolean addDelimitedRow(CodedInputStream input) throws IOException {
+		if (input.isAtEnd()) return false;
+		int oldLimit = input.pushLimit(input.readRawVarint32());
+		addRow(input);
+		input.popLimit(oldLimit);
+		input.resetSizeCounter(); // streams of records may exceed the size limit in total
+		return true;
+	}
+
+	/**
+	 * Removes all rows, keeps the column arrays for reuse
+	 * 
+	 * @return this
+	 */
+	public ColumnBatch clear() {
+		mRowCount = 0;
+		for (Column column : mColumns) column.clear();
+		return this;
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder(mRoot.mType.mMsgType.getFullName());
+		sb.append(": ").append(mRowCount).append(" rows, columns [");
+		for (int i = 0; i < mColumns.size(); i++) {
+			if (i > 0) sb.append(", ");
+			sb.append(mColumns.get(i));
+		}
+		return sb.append("]").toString();
+	}
+
+	// --- package ---
+
+	/**
+	 * Compiles the given column paths
+	 * 
+	 * @param type the compiled message type
+	 * @param columnPaths the field paths of the columns
+	 * @throws IllegalArgumentException if a field path is invalid
+	 */
+	ColumnBatch(CompiledMessageType type, String[] columnPaths) {
+		if (columnPaths.length == 0) throw new IllegalArgumentException("no column paths");
+		mRoot = new PathNode(type);
+		List<Column> columnList = new ArrayList<Column>(columnPaths.length);
+		for (String columnPath : columnPaths) columnList.add(addColumnPath(mRoot, columnPath));
+		mRoot.compile();
+		mColumns = Collections.unmodifiableList(columnList);
+	}
+
+	// --- private ---
+
+	private static Column addColumnPath(PathNode root, String columnPath) {
+		PathNode node = root;
+		String[] names = columnPath.split("\\.", -1);
+		for (int i = 0; i < names.length; i++) {
+			String name = names[i];
+			int fieldHandle = node.mType.getFieldHandle(name);
+			if (fieldHandle < 0) throw new IllegalArgumentException("invalid column path: " + columnPath + ": field " + name + " not found in " + node.mType.mMsgType.getFullName());
+			CompiledField field = node.mType.mFields[fieldHandle];
+			if (field.mRepeated) throw new IllegalArgumentException("invalid column path: " + columnPath + ": field " + name + " is repeated");
+			if (field.mType == FieldDescriptor.Type.GROUP) throw new IllegalArgumentException("invalid column path: " + columnPath + ": field " + name + " is a group");
+			boolean last = (i == names.length - 1);
+			if (!last && field.mJavaType != FieldDescriptor.JavaType.MESSAGE) {
+				throw new IllegalArgumentException("invalid column path: " + columnPath + ": field " + name + " not a message field");
+			}
+
+			PathSlot slot = node.mSlots[fieldHandle];
+			if (slot == null) node.mSlots[fieldHandle] = slot = new PathSlot(field);
+			if (last) {
+				if (slot.mColumn != null) throw new IllegalArgumentException("duplicate column path: " + columnPath);
+				return slot.mColumn = new Column(columnPath, field);
+			}
+			if (slot.mChild == null) slot.mChild = new PathNode(field.mMessageType);
+			node = slot.mChild;
+		}
+		throw new IllegalArgumentException("invalid column path: " + columnPath); // not reached
+	}
+
+	private static void parseFields(PathNode node, CodedInputStream input, int row) throws IOException {
+		while (true) {
+			int tag = input.readTag();
+			if (tag == 0) return;
+			PathSlot slot = node.get(WireFormat.getTagFieldNumber(tag));
+			if (slot == null || (tag & 7) != slot.mField.mWireType) {
+				if (!input.skipField(tag)) return; // end group
+				continue;
+			}
+			if (slot.mChild == null) {
+				slot.mColumn.readValue(row, input);
+			}
+			else if (slot.mColumn == null) {
+				int oldLimit = input.pushLimit(input.readRawVarint32());
+				parseFields(slot.mChild, input, row);
+				input.checkLastTagWas(0);
+				input.popLimit(oldLimit);
+			}
+			else { // both the whole message and some of its fields
+				ByteString bytes = input.readBytes();
+				slot.mColumn.appendBytes(row, bytes);
+				CodedInputStream msgInput = bytes.newCodedInput();
+				parseFields(slot.mChild, msgInput, row);
+				msgInput.checkLastTagWas(0);
+			}
+		}
+	}
+
+	private void grow() {
+		mCapacity = Math.max(INITIAL_CAPACITY, mCapacity * 2);
+		for (Column column : mColumns) column.grow(mCapacity);
+	}
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private final PathNode mRoot;
+	private final List<Column> mColumns;
+	private int mRowCount;
+	private int mCapacity;
+
+	/**
+	 * ColumnBatch.Column - values of one field path, by row
+	 */
+	public static class Column
+	{
+		public String getPath() {
+			return mPath;
+		}
+
+		public FieldDescriptor getField() {
+			return mField.mDescriptor;
+		}
+
+		public FieldDescriptor.JavaType getJavaType() {
+			return mField.mJavaType;
+		}
+
+		public boolean isNull(int row) {
+			return (mNullBits[row >>> 6] & (1L << row)) != 0;
+		}
+
+		public int getNullCount() {
+			return mNullCount;
+		}
+
+		/**
+		 * Returns the null bitmap: row i is null if bit (i % 64) of word (i / 64) is set
+		 * 
+		 * @return the null bitmap
+		 */
+		public long[] getNullBits() {
+			return mNullBits;
+		}
+
+		/**
+		 * Returns the values of an int32, enum (number) or bool (0 or 1) column
+		 * 
+		 * @return the values by row
+		 * @throws IllegalStateException if the column has no int values
+		 */
+		public int[] getInts() {
+			if (mInts == null) throw new IllegalStateException("not an int column: " + mPath);
+			return mInts;
+		}
+
+		/**
+		 * Returns the values of an int64 column
+		 * 
+		 * @return the values by row
+		 * @throws IllegalStateException if the column has no long values
+		 */
+		public long[] getLongs() {
+			if (mLongs == null) throw new IllegalStateException("not a long column: " + mPath);
+			return mLongs;
+		}
+
+		/**
+		 * Returns the values of a float or double column
+		 * 
+		 * @return the values by row
+		 * @throws IllegalStateException if the column has no double values
+		 */
+		public double[] getDoubles() {
+			if (mDoubles == null) throw new IllegalStateException("not a double column: " + mPath);
+			return mDoubles;
+		}
+
+		/**
+		 * Returns the offsets of a string, bytes or message column: the bytes of row i are from offset i
+		 * (inclusive) to offset i + 1 (exclusive) in {@link #getData()}
+		 * 
+		 * @return the offsets by row, plus the end offset
+		 * @throws IllegalStateException if the column has no bytes values
+		 */
+		public int[] getOffsets() {
+			if (mOffsets == null) throw new IllegalStateException("not a bytes column: " + mPath);
+			return mOffsets;
+		}
+
+		/**
+		 * Returns the bytes of a string (UTF-8), bytes or message (serialized) column
+		 * 
+		 * @return the bytes of all rows
+		 * @throws IllegalStateException if the column has no bytes values
+		 */
+		public byte[] getData() {
+			if (mOffsets == null) throw new IllegalStateException("not a bytes column: " + mPath);
+			return mData;
+		}
+
+		/**
+		 * Returns the value of a string column
+		 * 
+		 * @param row the row
+		 * @return the value (null if the row is null)
+		 */
+		public String getString(int row) {
+			ByteString bytes = getBytes(row);
+			return (bytes == null ? null : bytes.toStringUtf8());
+		}
+
+		/**
+		 * Returns the value of a string, bytes or message column, copied
+		 * 
+		 * @param row the row
+		 * @return the value (null if the row is null)
+		 */
+		public ByteString getBytes(int row) {
+			if (mOffsets == null) throw new IllegalStateException("not a bytes column: " + mPath);
+			if (isNull(row)) return null;
+			return ByteString.copyFrom(mData, mOffsets[row], mOffsets[row + 1] - mOffsets[row]);
+		}
+
+		public String toString() {
+			return mPath + " (" + mField.mType.name().toLowerCase() + ")";
+		}
+
+		// --- package ---
+
+		Column(String path, CompiledField field) {
+			mPath = path;
+			mField = field;
+			switch (field.mJavaType) {
+			case INT: case ENUM: case BOOLEAN: mInts = new int[0]; break;
+			case LONG: mLongs = new long[0]; break;
+			case FLOAT: case DOUBLE: mDoubles = new double[0]; break;
+			default: // STRING, BYTE_STRING, MESSAGE
+				mOffsets = new int[1];
+				mData = new byte[0];
+			}
+			mNullBits = new long[0];
+		}
+
+		void grow(int capacity) {
+			if (mInts != null) mInts = copyOf(mInts, capacity);
+			if (mLongs != null) mLongs = copyOf(mLongs, capacity);
+			if (mDoubles != null) mDoubles = copyOf(mDoubles, capacity);
+			if (mOffsets != null) mOffsets = copyOf(mOffsets, capacity + 1);
+			mNullBits = copyOf(mNullBits, (capacity + 63) >>> 6);
+		}
+
+		void startRow(int row) {
+			mNullBits[row >>> 6] |= (1L << row);
+			if (mInts != null) mInts[row] = 0;
+			else if (mLongs != null) mLongs[row] = 0;
+			else if (mDoubles != null) mDoubles[row] = 0;
+			else mDataSize = mOffsets[row];
+		}
+
+		void endRow(int row) {
+			if (isNull(row)) mNullCount++;
+			if (mOffsets != null) mOffsets[row + 1] = mDataSize;
+		}
+
+		void readValue(int row, CodedInputStream input) throws IOException {
+			switch (mField.mJavaType) {
+			case INT: case ENUM: case BOOLEAN: mInts[row] = (int)CompiledMessage.readBits(mField, input); break;
+			case LONG: mLongs[row] = CompiledMessage.readBits(mField, input); break;
+			case FLOAT: mDoubles[row] = Float.intBitsToFloat((int)CompiledMessage.readBits(mField, input)); break;
+			case DOUBLE: mDoubles[row] = Double.longBitsToDouble(CompiledMessage.readBits(mField, input)); break;
+			case MESSAGE: // a message field occurring more than once is merged, i.e. concatenated
+				appendBytes(row, input.readRawBytes(input.readRawVarint32()));
+				return;
+			default: // STRING, BYTE_STRING, the last value wins
+				mDataSize = mOffsets[row];
+				appendBytes(row, input.readRawBytes(input.readRawVarint32()));
+				return;
+			}
+			mNullBits[row >>> 6] &= ~(1L << row);
+		}
+
+		void appendBytes(int row, byte[] bytes) {
+			ensureData(bytes.length);
+			System.arraycopy(bytes, 0, mData, mDataSize, bytes.length);
+			mDataSize += bytes.length;
+			mNullBits[row >>> 6] &= ~(1L << row);
+		}
+
+		void appendBytes(int row, ByteString bytes) {
+			ensureData(bytes.size());
+			bytes.copyTo(mData, 0, mDataSize, bytes.size());
+			mDataSize += bytes.size();
+			mNullBits[row >>> 6] &= ~(1L << row);
+		}
+
+		void clear() {
+			mNullCount = 0;
+			mDataSize = 0;
+		}
+
+		// --- private ---
+
+		private void ensureData(int length) {
+			if (length > mData.length - mDataSize) {
+				mData = copyOf(mData, Math.max(mDataSize + length, Math.max(256, mData.length * 2)));
+			}
+		}
+
+		private static int[] copyOf(int[] array, int length) {
+			int[] newArray = new int[length];
+			System.arraycopy(array, 0, newArray, 0, array.length);
+			return newArray;
+		}
+
+		private static long[] copyOf(long[] array, int length) {
+			long[] newArray = new long[length];
+			System.arraycopy(array, 0, newArray, 0, array.length);
+			return newArray;
+		}
+
+		private static double[] copyOf(double[] array, int length) {
+			double[] newArray = new double[length];
+			System.arraycopy(array, 0, newArray, 0, array.length);
+			return newArray;
+		}
+
+		private static byte[] copyOf(byte[] array, int length) {
+			byte[] newArray = new byte[length];
+			System.arraycopy(array, 0, newArray, 0, array.length);
+			return newArray;
+		}
+
+		private final String mPath;
+		private final CompiledField mField;
+		private int[] mInts;
+		private long[] mLongs;
+		private double[] mDoubles;
+		private int[] mOffsets;
+		private byte[] mData;
+		private int mDataSize;
+		private long[] mNullBits;
+		private int mNullCount;
+	}
+
+	/**
+	 * ColumnBatch.PathNode - fields of a message type on the column paths, at one nesting level
+	 */
+	private static class PathNode
+	{
+		public PathNode(CompiledMessageType type) {
+			mType = type;
+			mSlots = new PathSlot[type.mFields.length];
+		}
+
+		public void compile() {
+			int maxNumber = 0;
+			List<PathSlot> slotList = new ArrayList<PathSlot>();
+			for (PathSlot slot : mSlots) {
+				if (slot == null) continue;
+				slotList.add(slot);
+				maxNumber = Math.max(maxNumber, slot.mField.mNumber);
+				if (slot.mChild != null) slot.mChild.compile();
+			}
+			if (maxNumber <= Math.max(64, 8 * slotList.size())) {
+				mByNumber = new PathSlot[maxNumber + 1];
+				for (PathSlot slot : slotList) mByNumber[slot.mField.mNumber] = slot;
+			}
+			else { // sparse field numbers
+				mSortedByNumber = slotList.toArray(new PathSlot[slotList.size()]);
+				mSortedNumbers = new int[mSortedByNumber.length];
+				for (int i = 0; i < mSortedByNumber.length; i++) mSortedNumbers[i] = mSortedByNumber[i].mField.mNumber;
+				sortByNumber(mSortedNumbers, mSortedByNumber);
+			}
+		}
+
+		public PathSlot get(int fieldNumber) {
+			if (mByNumber != null) return (fieldNumber < mByNumber.length ? mByNumber[fieldNumber] : null);
+			int idx = Arrays.binarySearch(mSortedNumbers, fieldNumber);
+			return (idx < 0 ? null : mSortedByNumber[idx]);
+		}
+
+		private static void sortByNumber(int[] numbers, PathSlot[] slots) { // insertion sort, a few fields
+			for (int i = 1; i < numbers.length; i++) {
+				for (int j = i; j > 0 && numbers[j - 1] > numbers[j]; j--) {
+					int number = numbers[j]; numbers[j] = numbers[j - 1]; numbers[j - 1] = number;
+					PathSlot slot = slots[j]; slots[j] = slots[j - 1]; slots[j - 1] = slot;
+				}
+			}
+		}
+
+		private final CompiledMessageType mType;
+		private final PathSlot[] mSlots; // by field handle, while adding paths
+		private PathSlot[] mByNumber;
+		private int[] mSortedNumbers;
+		private PathSlot[] mSortedByNumber;
+	}
+
+	/**
+	 * ColumnBatch.PathSlot - field on the column paths: its column and/or the fields below it
+	 */
+	private static class PathSlot
+	{
+		public PathSlot(CompiledField field) {
+			mField = field;
+		}
+
+		private final CompiledField mField;
+		private Column mColumn;
+		private PathNode mChild;
+	}
+}
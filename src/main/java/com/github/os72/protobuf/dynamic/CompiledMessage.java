@@ -0,0 +1,751 @@
+/*
+ * Copyright 2015 protobuf-dynamic developers
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.os72.protobuf.dynamic;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.github.os72.protobuf.dynamic.CompiledMessageType.CompiledField;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.UnknownFieldSet;
+import com.google.protobuf.WireFormat;
+
+/**
+ * CompiledMessage - mutable message of a {@link CompiledMessageType}, fields accessed by field handle
+ * (not thread safe)
+ * <p>
+ * Singular scalar fields are stored unboxed, enum fields as enum numbers, strings are decoded on first access.
+ * Repeated fields are lists of boxed values (enums as Integer numbers, messages as CompiledMessage). Getters of
+ * unset singular fields return the field default; required fields are not checked when parsing or serializing
+ * (see {@link #isInitialized()}).
+ */
+public class CompiledMessage
+{
+	// --- public ---
+
+	public CompiledMessageType getType() {
+		return mType;
+	}
+
+	/**
+	 * Checks if the given field is set (repeated fields: not empty)
+	 * 
+	 * @param fieldHandle the field handle
+	 * @return true if set
+	 */
+	public boolean has(int fieldHandle) {
+		if (mType.mFields[fieldHandle].mRepeated) return getRepeatedCount(fieldHandle) > 0;
+		return (mHasBits[fieldHandle >>> 6] & (1L << fieldHandle)) != 0;
+	}
+
+	public CompiledMessage clear(int fieldHandle) {
+		mHasBits[fieldHandle >>> 6] &= ~(1L << fieldHandle);
+		mOwnedBits[fieldHandle >>> 6] &= ~(1L << fieldHandle);
+		mBits[fieldHandle] = 0;
+		mObjects[fieldHandle] = null;
+		return this;
+	}
+
+	/**
+	 * Clears all fields, for reuse: the storage of the message is kept, including nested messages (cleared
+	 * when set again) and the capacity of repeated fields, so building a message of the same shape again does
+	 * not allocate; keep one message per producer thread and clear it after serializing. Only nested messages
+	 * created by this message are kept, messages given to {@link #setMessage(int, CompiledMessage)} are released
+	 * 
+	 * @return this message
+	 */
+	public CompiledMessage clear() {
+		Arrays.fill(mHasBits, 0);
+		for (CompiledField field : mType.mFields) {
+			Object value = mObjects[field.mHandle];
+			if (value == null) continue;
+			if (field.mRepeated) getList(field).clear();
+			else if (field.mJavaType != FieldDescriptor.JavaType.MESSAGE || !isOwned(field.mHandle)) mObjects[field.mHandle] = null;
+		}
+		mUnknownFields = null;
+		return this;
+	}
+
+	public int getInt(int fieldHandle) {
+		return (int)getBits(fieldHandle, FieldDescriptor.JavaType.INT);
+	}
+
+	public long getLong(int fieldHandle) {
+		return getBits(fieldHandle, FieldDescriptor.JavaType.LONG);
+	}
+
+	public float getFloat(int fieldHandle) {
+		return Float.intBitsToFloat((int)getBits(fieldHandle, FieldDescriptor.JavaType.FLOAT));
+	}
+
+	public double getDouble(int fieldHandle) {
+		return Double.longBitsToDouble(getBits(fieldHandle, FieldDescriptor.JavaType.DOUBLE));
+	}
+
+	public boolean getBoolean(int fieldHandle) {
+		return getBits(fieldHandle, FieldDescriptor.JavaType.BOOLEAN) != 0;
+	}
+
+	/**
+	 * Gets the enum number of an enum field
+	 * 
+	 * @param fieldHandle the field handle
+	 * @return the enum number
+	 */
+	public int getEnum(int fieldHandle) {
+		return (int)getBits(fieldHandle, FieldDescriptor.JavaType.ENUM);
+	}
+
+	public String getString(int fieldHandle) {
+		CompiledField field = checkSingular(fieldHandle, FieldDescriptor.JavaType.STRING);
+		Object value = mObjects[fieldHandle];
+		if (value == null) return (String)field.mDefaultObject;
+		if (value instanceof String) return (String)value;
+		ByteString bytes = (ByteString)value;
+		String str = bytes.toStringUtf8();
+		if (bytes.isValidUtf8()) mObjects[fieldHandle] = str; // keep the bytes otherwise, to serialize them as parsed
+		return str;
+	}
+
+	public ByteString getBytes(int fieldHandle) {
+		CompiledField field = checkSingular(fieldHandle, FieldDescriptor.JavaType.BYTE_STRING);
+		Object value = mObjects[fieldHandle];
+		return (value == null ? (ByteString)field.mDefaultObject : (ByteString)value);
+	}
+
+	/**
+	 * Gets the value of a message field
+	 * 
+	 * @param fieldHandle the field handle
+	 * @return the message (null if not set)
+	 */
+	public CompiledMessage getMessage(int fieldHandle) {
+		checkSingular(fieldHandle, FieldDescriptor.JavaType.MESSAGE);
+		if ((mHasBits[fieldHandle >>> 6] & (1L << fieldHandle)) == 0) return null;
+		return (CompiledMessage)mObjects[fieldHandle];
+	}
+
+	/**
+	 * Gets the value of a message field, sets it to a new (empty) message if not set
+	 * 
+	 * @param fieldHandle the field handle
+	 * @return the message
+	 */
+	public CompiledMessage getOrCreateMessage(int fieldHandle) {
+		CompiledField field = checkSingular(fieldHandle, FieldDescriptor.JavaType.MESSAGE);
+		if ((mHasBits[fieldHandle >>> 6] & (1L << fieldHandle)) != 0) return (CompiledMessage)mObjects[fieldHandle];
+		CompiledMessage msg = reuseMessage(field);
+		setObject(field, msg);
+		mOwnedBits[fieldHandle >>> 6] |= 1L << fieldHandle;
+		return msg;
+	}
+
+	public CompiledMessage setInt(int fieldHandle, int value) {
+		setBits(checkSingular(fieldHandle, FieldDescriptor.JavaType.INT), value);
+		return this;
+	}
+
+	public CompiledMessage setLong(int fieldHandle, long value) {
+		setBits(checkSingular(fieldHandle, FieldDescriptor.JavaType.LONG), value);
+		return this;
+	}
+
+	public CompiledMessage setFloat(int fieldHandle, float value) {
+		setBits(checkSingular(fieldHandle, FieldDescriptor.JavaType.FLOAT), Float.floatToRawIntBits(value));
+		return this;
+	}
+
+	public CompiledMessage setDouble(int fieldHandle, double value) {
+		setBits(checkSingular(fieldHandle, FieldDescriptor.JavaType.DOUBLE), Double.doubleToRawLongBits(value));
+		return this;
+	}
+
+	public CompiledMessage setBoolean(int fieldHandle, boolean value) {
+		setBits(checkSingular(fieldHandle, FieldDescriptor.JavaType.BOOLEAN), value ? 1 : 0);
+		return this;
+	}
+
+	/**
+	 * Sets an enum field by enum number
+	 * 
+	 * @param fieldHandle the field handle
+	 * @param enumNumber the enum number
+	 * @return this message
+	 */
+	public CompiledMessage setEnum(int fieldHandle, int enumNumber) {
+		CompiledField field = checkSingular(fieldHandle, FieldDescriptor.JavaType.ENUM);
+		if (field.mDescriptor.getEnumType().findValueByNumber(enumNumber) == null) {
+			throw new IllegalArgumentException("invalid enum number for " + field.mDescriptor.getFullName() + ": " + enumNumber);
+		}
+		setBits(field, enumNumber);
+		return this;
+	}
+
+	public CompiledMessage setString(int fieldHandle, String value) {
+		if (value == null) throw new NullPointerException();
+		setObject(checkSingular(fieldHandle, FieldDescriptor.JavaType.STRING), value);
+		return this;
+	}
+
+	public CompiledMessage setBytes(int fieldHandle, ByteString value) {
+		if (value == null) throw new NullPointerException();
+		setObject(checkSingular(fieldHandle, FieldDescriptor.JavaType.BYTE_STRING), value);
+		return this;
+	}
+
+	public CompiledMessage setMessage(int fieldHandle, CompiledMessage value) {
+		CompiledField field = checkSingular(fieldHandle, FieldDescriptor.JavaType.MESSAGE);
+		if (value.mType != field.mMessageType) throw new IllegalArgumentException("message type mismatch: " + value.mType.mMsgType.getFullName());
+		setObject(field, value);
+		mOwnedBits[fieldHandle >>> 6] &= ~(1L << fieldHandle); // not reused by clear(), nor merged into
+		return this;
+	}
+
+	public int getRepeatedCount(int fieldHandle) {
+		List<Object> list = getList(checkRepeated(fieldHandle));
+		return (list == null ? 0 : list.size());
+	}
+
+	/**
+	 * Gets an element of a repeated field (enums as Integer numbers, strings as String)
+	 * 
+	 * @param fieldHandle the field handle
+	 * @param index the element index
+	 * @return the element
+	 */
+	public Object getRepeated(int fieldHandle, int index) {
+		CompiledField field = checkRepeated(fieldHandle);
+		List<Object> list = getList(field);
+		if (list == null) throw new IndexOutOfBoundsException("index: " + index + ", size: 0");
+		Object value = list.get(index);
+		if (value instanceof ByteString && field.mJavaType == FieldDescriptor.JavaType.STRING) return ((ByteString)value).toStringUtf8();
+		return value;
+	}
+
+	/**
+	 * Adds an element to a repeated field (enums as Integer numbers)
+	 * 
+	 * @param fieldHandle the field handle
+	 * @param value the element
+	 * @return this message
+	 */
+	public CompiledMessage addRepeated(int fieldHandle, Object value) {
+		CompiledField field = checkRepeated(fieldHandle);
+		checkElement(field, value);
+		getOrCreateList(field).add(value);
+		return this;
+	}
+
+	/**
+	 * Merges a serialized message into this message (parse into a cleared message to reuse its storage,
+	 * see {@link #clear()})
+	 * 
+	 * @param buf the serialized message
+	 * @return this message
+	 * @throws InvalidProtocolBufferException
+	 */
+	public CompiledMessage mergeFrom(byte[] buf) throws InvalidProtocolBufferException {
+		try {
+			CodedInputStream cis = CodedInputStream.newInstance(buf);
+			mergeFrom(cis, 0);
+			cis.checkLastTagWas(0);
+			return this;
+		}
+		catch (InvalidProtocolBufferException e) {
+			throw e;
+		}
+		catch (IOException e) {
+			throw new IllegalStateException(e); // not thrown reading from a byte array
+		}
+	}
+
+	/**
+	 * Checks if all required fields are set, in nested messages too
+	 * 
+	 * @return true if initialized
+	 */
+	public boolean isInitialized() {
+		for (CompiledField field : mType.mFields) {
+			if (field.mRequired && !has(field.mHandle)) return false;
+			if (field.mJavaType != FieldDescriptor.JavaType.MESSAGE) continue;
+			if (field.mRepeated) {
+				List<Object> list = getList(field);
+				if (list == null) continue;
+				for (Object element : list) {
+					if (!((CompiledMessage)element).isInitialized()) return false;
+				}
+			}
+			else if (has(field.mHandle) && !((CompiledMessage)mObjects[field.mHandle]).isInitialized()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public UnknownFieldSet getUnknownFields() {
+		return (mUnknownFields == null ? UnknownFieldSet.getDefaultInstance() : mUnknownFields);
+	}
+
+	/**
+	 * Returns the serialized size of the message
+	 * 
+	 * @return the serialized size
+	 */
+	public int getSerializedSize() {
+		int size = 0;
+		for (CompiledField field : mType.mFields) {
+			int handle = field.mHandle;
+			if (field.mRepeated) {
+				List<Object> list = getList(field);
+				if (list == null || list.isEmpty()) continue;
+				if (field.mPacked) {
+					int dataSize = computePackedDataSize(field, list);
+					size += field.mTagSize + CodedOutputStream.computeRawVarint32Size(dataSize) + dataSize;
+				}
+				else {
+					for (int i = 0; i < list.size(); i++) {
+						Object element = list.get(i);
+						if (element instanceof String) list.set(i, element = ByteString.copyFromUtf8((String)element)); // encoded once, for writing too
+						size += field.mTagSize + computeElementSize(field, element);
+					}
+				}
+			}
+			else if ((mHasBits[handle >>> 6] & (1L << handle)) != 0) {
+				Object obj = mObjects[handle];
+				if (obj instanceof String) mObjects[handle] = obj = ByteString.copyFromUtf8((String)obj); // encoded once, for writing too
+				size += field.mTagSize + computeValueSize(field, mBits[handle], obj);
+			}
+		}
+		if (mUnknownFields != null) size += mUnknownFields.getSerializedSize();
+		mCachedSize = size;
+		return size;
+	}
+
+	/**
+	 * Serializes the message to the given output
+	 * 
+	 * @param output the output
+	 * @throws IOException
+	 */
+	public void writeTo(CodedOutputStream output) throws IOException {
+		getSerializedSize(); // sizes of nested messages are cached for writing
+		writeToCached(output);
+	}
+
+	/**
+	 * Serializes the message
+	 * 
+	 * @return the serialized message
+	 */
+	public byte[] toByteArray() {
+		try {
+			byte[] buf = new byte[getSerializedSize()];
+			CodedOutputStream cos = CodedOutputStream.newInstance(buf);
+			writeToCached(cos);
+			cos.checkNoSpaceLeft();
+			return buf;
+		}
+		catch (IOException e) {
+			throw new IllegalStateException(e); // not thrown writing to a byte array
+		}
+	}
+
+	/**
+	 * Converts the message to a dynamic message (required fields are not checked)
+	 * 
+	 * @return the dynamic message
+	 */
+	public DynamicMessage toDynamicMessage() {
+		DynamicMessage.Builder builder = DynamicMessage.newBuilder(mType.mMsgType);
+		UnknownFieldSet.Builder unknownFieldsBuilder = null;
+		for (CompiledField field : mType.mFields) {
+			int handle = field.mHandle;
+			if (field.mRepeated) {
+				List<Object> list = getList(field);
+				if (list == null) continue;
+				for (Object element : list) {
+					Object value = toFieldValue(field, element);
+					if (value != null) builder.addRepeatedField(field.mDescriptor, value);
+					else unknownFieldsBuilder = addUnknownEnum(unknownFieldsBuilder, field, (Integer)element);
+				}
+			}
+			else if ((mHasBits[handle >>> 6] & (1L << handle)) != 0) {
+				Object value = toFieldValue(field, boxValue(field, mBits[handle], mObjects[handle]));
+				if (value != null) builder.setField(field.mDescriptor, value);
+				else unknownFieldsBuilder = addUnknownEnum(unknownFieldsBuilder, field, (int)mBits[handle]);
+			}
+		}
+		if (unknownFieldsBuilder != null) builder.setUnknownFields(unknownFieldsBuilder.mergeFrom(getUnknownFields()).build());
+		else if (mUnknownFields != null) builder.setUnknownFields(mUnknownFields);
+		return builder.buildPartial();
+	}
+
+	public String toString() {
+		return toDynamicMessage().toString();
+	}
+
+	// --- package ---
+
+	CompiledMessage(CompiledMessageType type) {
+		int fieldCount = type.mFields.length;
+		mType = type;
+		mHasBits = new long[(fieldCount + 63) >>> 6];
+		mOwnedBits = new long[(fieldCount + 63) >>> 6];
+		mBits = new long[fieldCount];
+		mObjects = new Object[fieldCount];
+	}
+
+	void mergeFrom(CodedInputStream input, int depth) throws IOException {
+		if (depth > RECURSION_LIMIT) throw new InvalidProtocolBufferException("message nesting too deep");
+		UnknownFieldSet.Builder unknownFieldsBuilder = null;
+		while (true) {
+			int tag = input.readTag();
+			if (tag == 0) break;
+			CompiledField field = mType.getFieldByNumber(WireFormat.getTagFieldNumber(tag));
+			int wireType = tag & 7;
+			if (field != null && wireType == field.mWireType) {
+				if (field.mRepeated) getOrCreateList(field).add(readElement(field, input, depth));
+				else readValue(field, input, depth);
+			}
+			else if (field != null && field.mPackable && wireType == WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+				List<Object> list = getOrCreateList(field);
+				int oldLimit = input.pushLimit(input.readRawVarint32());
+				while (input.getBytesUntilLimit() > 0) list.add(readElement(field, input, depth));
+				input.popLimit(oldLimit);
+			}
+			else {
+				if (unknownFieldsBuilder == null) unknownFieldsBuilder = UnknownFieldSet.newBuilder(getUnknownFields());
+				if (!unknownFieldsBuilder.mergeFieldFrom(tag, input)) break; // end group
+			}
+		}
+		if (unknownFieldsBuilder != null) mUnknownFields = unknownFieldsBuilder.build();
+	}
+
+	void mergeFrom(Message msg) {
+		Map<FieldDescriptor,Object> fieldMap = msg.getAllFields();
+		for (FieldDescriptor fd : fieldMap.keySet()) {
+			if (fd.isExtension()) { // extensions are kept as unknown fields, like parsing without an extension registry
+				try {
+					mergeFrom(msg.toByteString().newCodedInput(), 0);
+				}
+				catch (IOException e) {
+					throw new IllegalStateException(e); // not thrown reading from a byte string
+				}
+				return;
+			}
+		}
+		for (Map.Entry<FieldDescriptor,Object> e : fieldMap.entrySet()) {
+			FieldDescriptor fd = e.getKey();
+			CompiledField field = mType.mFields[fd.getIndex()];
+			if (field.mRepeated) {
+				List<Object> list = getOrCreateList(field);
+				for (Object value : (List<?>)e.getValue()) list.add(fromFieldValue(field, value));
+			}
+			else {
+				Object value = fromFieldValue(field, e.getValue());
+				if (value instanceof Number) setBits(field, toBits(field, value));
+				else if (value instanceof Boolean) setBits(field, (Boolean)value ? 1 : 0);
+				else setObject(field, value);
+			}
+		}
+		if (msg.getUnknownFields().asMap().size() > 0) {
+			mUnknownFields = UnknownFieldSet.newBuilder(getUnknownFields()).mergeFrom(msg.getUnknownFields()).build();
+		}
+	}
+
+	/**
+	 * Serializes the message, with the sizes of nested messages cached by {@link #getSerializedSize()}
+	 */
+	void writeToCached(CodedOutputStream output) throws IOException {
+		for (CompiledField field : mType.mFields) {
+			int handle = field.mHandle;
+			if (field.mRepeated) {
+				List<Object> list = getList(field);
+				if (list == null || list.isEmpty()) continue;
+				if (field.mPacked) {
+					output.writeRawVarint32(field.mPackedTag);
+					output.writeRawVarint32(computePackedDataSize(field, list));
+					for (Object element : list) writeValue(output, field, toElementBits(field, element), null);
+				}
+				else {
+					for (Object element : list) {
+						output.writeRawVarint32(field.mTag);
+						boolean scalar = element instanceof Number || element instanceof Boolean;
+						writeValue(output, field, scalar ? toElementBits(field, element) : 0, scalar ? null : element);
+					}
+				}
+			}
+			else if ((mHasBits[handle >>> 6] & (1L << handle)) != 0) {
+				output.writeRawVarint32(field.mTag);
+				writeValue(output, field, mBits[handle], mObjects[handle]);
+			}
+		}
+		if (mUnknownFields != null) mUnknownFields.writeTo(output);
+	}
+
+	// --- package static ---
+
+	/**
+	 * Reads a scalar value (not string, bytes or message) as stored: floats and doubles as raw bits, bools as 0 or 1
+	 */
+	static long readBits(CompiledField field, CodedInputStream input) throws IOException {
+		switch (field.mType) {
+		case DOUBLE: case FIXED64: case SFIXED64: return input.readRawLittleEndian64();
+		case FLOAT: case FIXED32: case SFIXED32: return input.readRawLittleEndian32();
+		case INT64: case UINT64: return input.readRawVarint64();
+		case SINT64: return input.readSInt64();
+		case SINT32: return input.readSInt32();
+		case BOOL: return input.readRawVarint64() != 0 ? 1 : 0;
+		default: return input.readRawVarint32(); // INT32, UINT32, ENUM
+		}
+	}
+
+	// --- private ---
+
+	private CompiledField checkSingular(int fieldHandle, FieldDescriptor.JavaType javaType) {
+		CompiledField field = mType.mFields[fieldHandle];
+		if (field.mJavaType != javaType || field.mRepeated) throw new IllegalArgumentException("field type mismatch: " + field.mDescriptor.getFullName());
+		return field;
+	}
+
+	private CompiledField checkRepeated(int fieldHandle) {
+		CompiledField field = mType.mFields[fieldHandle];
+		if (!field.mRepeated) throw new IllegalArgumentException("not a repeated field: " + field.mDescriptor.getFullName());
+		return field;
+	}
+
+	private void checkElement(CompiledField field, Object value) {
+		boolean valid;
+		switch (field.mJavaType) {
+		case INT: case ENUM: valid = value instanceof Integer; break;
+		case LONG: valid = value instanceof Long; break;
+		case FLOAT: valid = value instanceof Float; break;
+		case DOUBLE: valid = value instanceof Double; break;
+		case BOOLEAN: valid = value instanceof Boolean; break;
+		case STRING: valid = value instanceof String; break;
+		case BYTE_STRING: valid = value instanceof ByteString; break;
+		default: valid = value instanceof CompiledMessage && ((CompiledMessage)value).mType == field.mMessageType;
+		}
+		if (!valid) throw new IllegalArgumentException("invalid value for " + field.mDescriptor.getFullName() + ": " + value);
+	}
+
+	private long getBits(int fieldHandle, FieldDescriptor.JavaType javaType) {
+		CompiledField field = checkSingular(fieldHandle, javaType);
+		if ((mHasBits[fieldHandle >>> 6] & (1L << fieldHandle)) == 0) return field.mDefaultBits;
+		return mBits[fieldHandle];
+	}
+
+	private void setBits(CompiledField field, long bits) {
+		if (field.mOneofSiblings != null) clearOneofSiblings(field);
+		int handle = field.mHandle;
+		mHasBits[handle >>> 6] |= 1L << handle;
+		mBits[handle] = bits;
+	}
+
+	private void setObject(CompiledField field, Object value) {
+		if (field.mOneofSiblings != null) clearOneofSiblings(field);
+		int handle = field.mHandle;
+		mHasBits[handle >>> 6] |= 1L << handle;
+		mObjects[handle] = value;
+	}
+
+	private void clearOneofSiblings(CompiledField field) {
+		for (int siblingHandle : field.mOneofSiblings) clear(siblingHandle);
+	}
+
+	private boolean isOwned(int fieldHandle) {
+		return (mOwnedBits[fieldHandle >>> 6] & (1L << fieldHandle)) != 0;
+	}
+
+	private CompiledMessage reuseMessage(CompiledField field) {
+		if (!isOwned(field.mHandle)) return new CompiledMessage(field.mMessageType);
+		return ((CompiledMessage)mObjects[field.mHandle]).clear(); // kept by clear()
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<Object> getList(CompiledField field) {
+		return (List<Object>)mObjects[field.mHandle];
+	}
+
+	private List<Object> getOrCreateList(CompiledField field) {
+		List<Object> list = getList(field);
+		if (list == null) mObjects[field.mHandle] = list = new ArrayList<Object>();
+		return list;
+	}
+
+	private void readValue(CompiledField field, CodedInputStream input, int depth) throws IOException {
+		switch (field.mJavaType) {
+		case STRING: case BYTE_STRING:
+			setObject(field, input.readBytes());
+			break;
+		case MESSAGE:
+			int handle = field.mHandle;
+			CompiledMessage msg;
+			if ((mHasBits[handle >>> 6] & (1L << handle)) == 0) {
+				msg = reuseMessage(field);
+			}
+			else if (isOwned(handle)) {
+				msg = (CompiledMessage)mObjects[handle]; // a singular message field occurring more than once is merged
+			}
+			else { // merged into a copy, the message was set by the caller and may be shared
+				msg = new CompiledMessage(field.mMessageType);
+				msg.mergeFrom(((CompiledMessage)mObjects[handle]).toByteArray());
+			}
+			readMessage(msg, input, depth);
+			setObject(field, msg);
+			mOwnedBits[handle >>> 6] |= 1L << handle;
+			break;
+		default:
+			setBits(field, readBits(field, input));
+		}
+	}
+
+	private Object readElement(CompiledField field, CodedInputStream input, int depth) throws IOException {
+		switch (field.mJavaType) {
+		case STRING: case BYTE_STRING:
+			return input.readBytes();
+		case MESSAGE:
+			CompiledMessage msg = new CompiledMessage(field.mMessageType);
+			readMessage(msg, input, depth);
+			return msg;
+		default:
+			return boxValue(field, readBits(field, input), null);
+		}
+	}
+
+	private static void readMessage(CompiledMessage msg, CodedInputStream input, int depth) throws IOException {
+		int oldLimit = input.pushLimit(input.readRawVarint32());
+		msg.mergeFrom(input, depth + 1);
+		input.checkLastTagWas(0);
+		input.popLimit(oldLimit);
+	}
+
+	private static long toBits(CompiledField field, Object value) {
+		switch (field.mJavaType) {
+		case FLOAT: return Float.floatToRawIntBits((Float)value);
+		case DOUBLE: return Double.doubleToRawLongBits((Double)value);
+		default: return ((Number)value).longValue(); // INT, LONG, ENUM (number)
+		}
+	}
+
+	private static Object boxValue(CompiledField field, long bits, Object obj) {
+		switch (field.mJavaType) {
+		case INT: case ENUM: return (int)bits;
+		case LONG: return bits;
+		case FLOAT: return Float.intBitsToFloat((int)bits);
+		case DOUBLE: return Double.longBitsToDouble(bits);
+		case BOOLEAN: return bits != 0;
+		default: return obj;
+		}
+	}
+
+	private static Object toFieldValue(CompiledField field, Object value) {
+		switch (field.mJavaType) {
+		case ENUM: return field.mDescriptor.getEnumType().findValueByNumber((Integer)value); // null if unknown
+		case STRING: return (value instanceof ByteString ? ((ByteString)value).toStringUtf8() : value);
+		case MESSAGE: return ((CompiledMessage)value).toDynamicMessage();
+		default: return value;
+		}
+	}
+
+	private static Object fromFieldValue(CompiledField field, Object value) {
+		switch (field.mJavaType) {
+		case ENUM: return ((EnumValueDescriptor)value).getNumber();
+		case MESSAGE: return field.mMessageType.fromMessage((Message)value);
+		default: return value;
+		}
+	}
+
+	private static UnknownFieldSet.Builder addUnknownEnum(UnknownFieldSet.Builder unknownFieldsBuilder, CompiledField field, int enumNumber) {
+		if (unknownFieldsBuilder == null) unknownFieldsBuilder = UnknownFieldSet.newBuilder();
+		return unknownFieldsBuilder.mergeVarintField(field.mNumber, enumNumber);
+	}
+
+	private static int computeValueSize(CompiledField field, long bits, Object obj) {
+		switch (field.mType) {
+		case DOUBLE: case FIXED64: case SFIXED64: return 8;
+		case FLOAT: case FIXED32: case SFIXED32: return 4;
+		case BOOL: return 1;
+		case INT64: case UINT64: return CodedOutputStream.computeRawVarint64Size(bits);
+		case SINT64: return CodedOutputStream.computeSInt64SizeNoTag(bits);
+		case SINT32: return CodedOutputStream.computeSInt32SizeNoTag((int)bits);
+		case UINT32: return CodedOutputStream.computeRawVarint32Size((int)bits);
+		case INT32: case ENUM: return CodedOutputStream.computeInt32SizeNoTag((int)bits); // negative: 10 bytes
+		case STRING: case BYTES: return CodedOutputStream.computeBytesSizeNoTag(toBytes(obj));
+		default: // MESSAGE
+			int msgSize = ((CompiledMessage)obj).getSerializedSize();
+			return CodedOutputStream.computeRawVarint32Size(msgSize) + msgSize;
+		}
+	}
+
+	private static int computeElementSize(CompiledField field, Object element) {
+		return computeValueSize(field, (element instanceof Number || element instanceof Boolean ? toElementBits(field, element) : 0), element);
+	}
+
+	private static int computePackedDataSize(CompiledField field, List<Object> list) {
+		int dataSize = 0;
+		for (Object element : list) dataSize += computeElementSize(field, element);
+		return dataSize;
+	}
+
+	private static long toElementBits(CompiledField field, Object element) {
+		if (element instanceof Boolean) return (Boolean)element ? 1 : 0;
+		return toBits(field, element);
+	}
+
+	private static ByteString toBytes(Object obj) {
+		return (obj instanceof ByteString ? (ByteString)obj : ByteString.copyFromUtf8((String)obj));
+	}
+
+	private static void writeValue(CodedOutputStream output, CompiledField field, long bits, Object obj) throws IOException {
+		switch (field.mType) {
+		case DOUBLE: case FIXED64: case SFIXED64: output.writeRawLittleEndian64(bits); break;
+		case FLOAT: case FIXED32: case SFIXED32: output.writeRawLittleEndian32((int)bits); break;
+		case BOOL: output.writeRawByte((int)bits); break;
+		case INT64: case UINT64: output.writeRawVarint64(bits); break;
+		case SINT64: output.writeSInt64NoTag(bits); break;
+		case SINT32: output.writeSInt32NoTag((int)bits); break;
+		case UINT32: output.writeRawVarint32((int)bits); break;
+		case INT32: case ENUM: output.writeInt32NoTag((int)bits); break;
+		case STRING: case BYTES: output.writeBytesNoTag(toBytes(obj)); break;
+		default: // MESSAGE
+			CompiledMessage msg = (CompiledMessage)obj;
+			output.writeRawVarint32(msg.mCachedSize);
+			msg.writeToCached(output);
+		}
+	}
+
+	private static final int RECURSION_LIMIT = 64; // same as CodedInputStream
+
+	private final CompiledMessageType mType;
+	private final long[] mHasBits;
+	private final long[] mOwnedBits; // singular messages created by this message, reused after clear()
+	private final long[] mBits; // singular scalars, by field handle
+	private final Object[] mObjects; // singular strings (String or ByteString), bytes, messages; repeated field lists
+	private UnknownFieldSet mUnknownFields;
+	private int mCachedSize = -1; // set by getSerializedSize()
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright 2015 protobuf-dynamic developers
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.os72.protobuf.dynamic;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.OneofDescriptor;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.WireFormat;
+
+/**
+ * CompiledMessageType - message type compiled for fast parsing and serialization of {@link CompiledMessage}s
+ * (thread safe)
+ * <p>
+ * Compiling precomputes, per field: the wire tag and its size, the storage slot, the default value and the
+ * compiled type of message fields; field numbers map to fields through a dense table. Compiled messages keep
+ * singular scalar fields unboxed, parsing and serialization do no descriptor lookups. Group fields are not
+ * supported; extensions are kept as unknown fields.
+ */
+public class CompiledMessageType
+{
+	// --- public static ---
+
+	/**
+	 * Compiles the given message type (and the message types of its message fields)
+	 * 
+	 * @param msgType the message descriptor
+	 * @return the compiled message type
+	 */
+	public static CompiledMessageType compile(Descriptor msgType) {
+		return compile(msgType, new HashMap<Descriptor,CompiledMessageType>());
+	}
+
+	// --- public ---
+
+	public Descriptor getDescriptor() {
+		return mMsgType;
+	}
+
+	public int getFieldCount() {
+		return mFields.length;
+	}
+
+	/**
+	 * Resolves the given field name to a handle (the field index, same as {@link MessageAccessor} handles)
+	 * 
+	 * @param fieldName the field name
+	 * @return the field handle (-1 if not found)
+	 */
+	public int getFieldHandle(String fieldName) {
+		FieldDescriptor field = mMsgType.findFieldByName(fieldName);
+		return (field == null ? -1 : field.getIndex());
+	}
+
+	/**
+	 * Resolves the given field number to a handle
+	 * 
+	 * @param fieldNumber the field number
+	 * @return the field handle (-1 if not found)
+	 */
+	public int getFieldHandleByNumber(int fieldNumber) {
+		CompiledField field = getFieldByNumber(fieldNumber);
+		return (field == null ? -1 : field.mHandle);
+	}
+
+	public FieldDescriptor getField(int fieldHandle) {
+		return mFields[fieldHandle].mDescriptor;
+	}
+
+	/**
+	 * Creates a new (empty) compiled message
+	 * 
+	 * @return the compiled message
+	 */
+	public CompiledMessage newMessage() {
+		return new CompiledMessage(this);
+	}
+
+	/**
+	 * Parses a compiled message from the given bytes
+	 * 
+	 * @param buf the serialized message
+	 * @return the compiled message
+	 * @throws InvalidProtocolBufferException
+	 */
+	public CompiledMessage parseFrom(byte[] buf) throws InvalidProtocolBufferException {
+		try {
+			CodedInputStream cis = CodedInputStream.newInstance(buf);
+			CompiledMessage msg = parseFrom(cis);
+			cis.checkLastTagWas(0);
+			return msg;
+		}
+		catch (InvalidProtocolBufferException e) {
+			throw e;
+		}
+		catch (IOException e) {
+			throw new IllegalStateException(e); // not thrown reading from a byte array
+		}
+	}
+
+	/**
+	 * Parses a compiled message from the given bytes
+	 * 
+	 * @param bytes the serialized message
+	 * @return the compiled message
+	 * @throws InvalidProtocolBufferException
+	 */
+	public CompiledMessage parseFrom(ByteString bytes) throws InvalidProtocolBufferException {
+		try {
+			CodedInputStream cis = bytes.newCodedInput();
+			CompiledMessage msg = parseFrom(cis);
+			cis.checkLastTagWas(0);
+			return msg;
+		}
+		catch (InvalidProtocolBufferException e) {
+			throw e;
+		}
+		catch (IOException e) {
+			throw new IllegalStateException(e); // not thrown reading from a byte string
+		}
+	}
+
+	/**
+	 * Parses a compiled message from the given input, up to the end of the input (or the current limit)
+	 * 
+	 * @param input the input
+	 * @return the compiled message
+	 * @throws IOException
+	 */
+	public CompiledMessage parseFrom(CodedInputStream input) throws IOException {
+		CompiledMessage msg = new CompiledMessage(this);
+		msg.mergeFrom(input, 0);
+		return msg;
+	}
+
+	/**
+	 * Copies the given message (dynamic or generated) of this type into a new compiled message
+	 * 
+	 * @param msg the message
+	 * @return the compiled message
+	 */
+	public CompiledMessage fromMessage(Message msg) {
+		Descriptor msgType = msg.getDescriptorForType();
+		if (msgType != mMsgType) {
+			if (!msgType.getFullName().equals(mMsgType.getFullName())) {
+				throw new IllegalArgumentException("message type mismatch: " + msgType.getFullName() + ", expected " + mMsgType.getFullName());
+			}
+			try {
+				return parseFrom(msg.toByteString()); // same type, other descriptor instance (e.g. a generated message)
+			}
+			catch (InvalidProtocolBufferException e) {
+				throw new IllegalStateException(e); // not thrown parsing a serialized message
+			}
+		}
+		CompiledMessage compiledMsg = new CompiledMessage(this);
+		compiledMsg.mergeFrom(msg);
+		return compiledMsg;
+	}
+
+	public String toString() {
+		return mMsgType.getFullName() + ": " + mFields.length + " fields (compiled)";
+	}
+
+	// --- package ---
+
+	/**
+	 * Compiles the given message type, reusing and adding to the given compiled types; nothing is added
+	 * if compiling fails (e.g. a group field), so the map never holds partly linked types
+	 * 
+	 * @param msgType the message descriptor
+	 * @param compiledTypeMap the compiled types
+	 * @return the compiled message type
+	 * @throws IllegalArgumentException if the message type (or a nested message type) has group fields
+	 */
+	static CompiledMessageType compile(Descriptor msgType, Map<Descriptor,CompiledMessageType> compiledTypeMap) {
+		CompiledMessageType compiledType = compiledTypeMap.get(msgType);
+		if (compiledType != null) return compiledType;
+		Map<Descriptor,CompiledMessageType> newTypeMap = new HashMap<Descriptor,CompiledMessageType>();
+		compiledType = compile(msgType, compiledTypeMap, newTypeMap);
+		compiledTypeMap.putAll(newTypeMap); // fully linked
+		return compiledType;
+	}
+
+	CompiledField getFieldByNumber(int fieldNumber) {
+		if (mFieldsByNumber != null) return (fieldNumber >= 0 && fieldNumber < mFieldsByNumber.length ? mFieldsByNumber[fieldNumber] : null);
+		int lo = 0;
+		int hi = mFieldsSortedByNumber.length - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int midNumber = mFieldsSortedByNumber[mid].mNumber;
+			if (midNumber < fieldNumber) lo = mid + 1;
+			else if (midNumber > fieldNumber) hi = mid - 1;
+			else return mFieldsSortedByNumber[mid];
+		}
+		return null;
+	}
+
+	final Descriptor mMsgType;
+	final CompiledField[] mFields;
+
+	// --- private ---
+
+	private static CompiledMessageType compile(Descriptor msgType, Map<Descriptor,CompiledMessageType> compiledTypeMap, Map<Descriptor,CompiledMessageType> newTypeMap) {
+		CompiledMessageType compiledType = compiledTypeMap.get(msgType);
+		if (compiledType == null) compiledType = newTypeMap.get(msgType);
+		if (compiledType != null) return compiledType;
+		compiledType = new CompiledMessageType(msgType);
+		newTypeMap.put(msgType, compiledType); // before linking, message types may be recursive
+		for (CompiledField field : compiledType.mFields) {
+			if (field.mJavaType == FieldDescriptor.JavaType.MESSAGE) {
+				field.mMessageType = compile(field.mDescriptor.getMessageType(), compiledTypeMap, newTypeMap);
+			}
+		}
+		return compiledType;
+	}
+
+	private CompiledMessageType(Descriptor msgType) {
+		mMsgType = msgType;
+		List<FieldDescriptor> fieldList = msgType.getFields();
+		mFields = new CompiledField[fieldList.size()];
+		int maxNumber = 0;
+		for (int i = 0; i < mFields.length; i++) {
+			mFields[i] = new CompiledField(fieldList.get(i));
+			maxNumber = Math.max(maxNumber, mFields[i].mNumber);
+		}
+		for (CompiledField field : mFields) {
+			OneofDescriptor oneof = field.mDescriptor.getContainingOneof();
+			if (oneof == null) continue;
+			field.mOneofSiblings = new int[oneof.getFieldCount() - 1];
+			int idx = 0;
+			for (int i = 0; i < oneof.getFieldCount(); i++) {
+				FieldDescriptor sibling = oneof.getField(i);
+				if (sibling != field.mDescriptor) field.mOneofSiblings[idx++] = sibling.getIndex();
+			}
+		}
+
+		if (maxNumber <= Math.max(64, 4 * mFields.length)) { // dense number table unless field numbers are sparse
+			mFieldsByNumber = new CompiledField[maxNumber + 1];
+			for (CompiledField field : mFields) mFieldsByNumber[field.mNumber] = field;
+			mFieldsSortedByNumber = null;
+		}
+		else {
+			mFieldsByNumber = null;
+			mFieldsSortedByNumber = mFields.clone();
+			Arrays.sort(mFieldsSortedByNumber, new Comparator<CompiledField>() {
+				public int compare(CompiledField f1, CompiledField f2) {
+					return (f1.mNumber < f2.mNumber ? -1 : (f1.mNumber == f2.mNumber ? 0 : 1));
+				}
+			});
+		}
+	}
+
+	private final CompiledField[] mFieldsByNumber;
+	private final CompiledField[] mFieldsSortedByNumber;
+
+	/**
+	 * CompiledMessageType.CompiledField - precomputed field properties
+	 */
+	static final class CompiledField
+	{
+		CompiledField(FieldDescriptor field) {
+			if (field.getType() == FieldDescriptor.Type.GROUP) throw new IllegalArgumentException("group fields not supported: " + field.getFullName());
+			mDescriptor = field;
+			mHandle = field.getIndex();
+			mNumber = field.getNumber();
+			mType = field.getType();
+			mJavaType = field.getJavaType();
+			mRepeated = field.isRepeated();
+			mPacked = field.isPacked();
+			mPackable = field.isPackable();
+			mRequired = field.isRequired();
+			mWireType = wireType(mType);
+			mTag = (mNumber << 3) | mWireType;
+			mPackedTag = (mNumber << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+			mTagSize = CodedOutputStream.computeRawVarint32Size(mTag);
+
+			if (mRepeated || mJavaType == FieldDescriptor.JavaType.MESSAGE) {
+				mDefaultBits = 0;
+				mDefaultObject = null;
+				return;
+			}
+			Object defaultValue = field.getDefaultValue();
+			switch (mJavaType) {
+			case INT: mDefaultBits = (Integer)defaultValue; break;
+			case LONG: mDefaultBits = (Long)defaultValue; break;
+			case FLOAT: mDefaultBits = Float.floatToRawIntBits((Float)defaultValue); break;
+			case DOUBLE: mDefaultBits = Double.doubleToRawLongBits((Double)defaultValue); break;
+			case BOOLEAN: mDefaultBits = ((Boolean)defaultValue ? 1 : 0); break;
+			case ENUM: mDefaultBits = ((EnumValueDescriptor)defaultValue).getNumber(); break;
+			default: mDefaultBits = 0;
+			}
+			mDefaultObject = (mJavaType == FieldDescriptor.JavaType.STRING || mJavaType == FieldDescriptor.JavaType.BYTE_STRING ? defaultValue : null);
+		}
+
+		private static int wireType(FieldDescriptor.Type type) {
+			switch (type) {
+			case DOUBLE: case FIXED64: case SFIXED64: return WireFormat.WIRETYPE_FIXED64;
+			case FLOAT: case FIXED32: case SFIXED32: return WireFormat.WIRETYPE_FIXED32;
+			case STRING: case BYTES: case MESSAGE: return WireFormat.WIRETYPE_LENGTH_DELIMITED;
+			default: return WireFormat.WIRETYPE_VARINT;
+			}
+		}
+
+		final FieldDescriptor mDescriptor;
+		final int mHandle;
+		final int mNumber;
+		final FieldDescriptor.Type mType;
+		final FieldDescriptor.JavaType mJavaType;
+		final boolean mRepeated;
+		final boolean mPacked;
+		final boolean mPackable;
+		final boolean mRequired;
+		final int mWireType;
+		final int mTag;
+		final int mPackedTag;
+		final int mTagSize;
+		final long mDefaultBits; // singular scalars
+		final Object mDefaultObject; // singular strings and bytes
+		int[] mOneofSiblings; // handles of the other fields of the oneof, null if not in a oneof
+		CompiledMessageType mMessageType; // message fields
+	}
+}
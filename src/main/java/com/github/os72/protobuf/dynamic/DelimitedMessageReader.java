@@ -0,0 +1,224 @@
+/*
+ * Copyright 2015 protobuf-dynamic developers
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.os72.protobuf.dynamic;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * DelimitedMessageReader - reads a stream of length-delimited messages of one message type (as written by
+ * {@link com.google.protobuf.MessageLite#writeDelimitedTo}), decoding them in parallel (not thread safe)
+ * <p>
+ * The reading thread splits the input into frames and hands batches of frames to the executor, which decodes
+ * them into dynamic messages; at most {@link #MAX_PENDING_BATCHES} batches are in flight. Batches are returned
+ * in input order, or in completion order when unordered (faster if batches take uneven time). Without an
+ * executor, messages are decoded on the reading thread. Frames of a byte buffer input (e.g. a memory-mapped
+ * file) are slices, not copies.
+ */
+public class DelimitedMessageReader implements Closeable
+{
+	// --- public static ---
+
+	/** Maximum number of messages per batch */
+	public static final int BATCH_SIZE = 256;
+	/** Maximum number of batches being decoded at a time */
+	public static final int MAX_PENDING_BATCHES = 16;
+
+	// --- public ---
+
+	public Descriptor getDescriptor() {
+		return mMsgType;
+	}
+
+	/**
+	 * Reads the next message
+	 * 
+	 * @return the message (null at the end of the input)
+	 * @throws IOException
+	 */
+	public DynamicMessage read() throws IOException {
+		if (mBatchIndex == mBatch.size()) {
+			mBatch = readBatch();
+			mBatchIndex = 0;
+			if (mBatch.isEmpty()) return null;
+		}
+		return mBatch.get(mBatchIndex++);
+	}
+
+	/**
+	 * Reads the next batch of messages (up to {@link #BATCH_SIZE}); do not mix with {@link #read()}
+	 * 
+	 * @return the messages (empty at the end of the input)
+	 * @throws IOException
+	 */
+	public List<DynamicMessage> readBatch() throws IOException {
+		while (mPendingList.size() < MAX_PENDING_BATCHES && submitBatch());
+		if (mPendingList.isEmpty()) return Collections.emptyList();
+
+		try {
+			Future<List<DynamicMessage>> future;
+			if (mCompletionService == null) future = mPendingList.removeFirst();
+			else mPendingList.remove(future = mCompletionService.take());
+			return future.get();
+		}
+		catch (ExecutionException e) {
+			cancelPending();
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) throw (IOException)cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+			if (cause instanceof Error) throw (Error)cause;
+			throw new IllegalStateException(cause);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while decoding messages");
+		}
+	}
+
+	/**
+	 * Cancels the batches being decoded and closes the input stream (if any)
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		cancelPending();
+		if (mInputStream != null) mInputStream.close();
+	}
+
+	public String toString() {
+		return mMsgType.getFullName() + (mCompletionService == null ? " (ordered)" : " (unordered)");
+	}
+
+	// --- package ---
+
+	DelimitedMessageReader(Descriptor msgType, InputStream in, Executor executor, boolean ordered) {
+		this(msgType, in, null, executor, ordered);
+	}
+
+	DelimitedMessageReader(Descriptor msgType, ByteBuffer buf, Executor executor, boolean ordered) {
+		this(msgType, null, buf, executor, ordered);
+	}
+
+	// --- private ---
+
+	private DelimitedMessageReader(Descriptor msgType, InputStream in, ByteBuffer buf, Executor executor, boolean ordered) {
+		mMsgType = msgType;
+		mInputStream = in;
+		mInput = (in == null ? null : CodedInputStream.newInstance(in));
+		mBuf = (buf == null ? null : buf.asReadOnlyBuffer());
+		mPos = (buf == null ? 0 : buf.position());
+		mExecutor = executor;
+		mCompletionService = (ordered || executor == null ? null : new ExecutorCompletionService<List<DynamicMessage>>(executor));
+	}
+
+	private void cancelPending() {
+		for (Future<List<DynamicMessage>> future : mPendingList) future.cancel(false);
+		mPendingList.clear();
+		mEndOfInput = true;
+	}
+
+	private boolean submitBatch() throws IOException {
+		if (mEndOfInput) return false;
+		final List<ByteBuffer> frameList = new ArrayList<ByteBuffer>(BATCH_SIZE);
+		while (frameList.size() < BATCH_SIZE) {
+			ByteBuffer frame = nextFrame();
+			if (frame == null) {
+				mEndOfInput = true;
+				break;
+			}
+			frameList.add(frame);
+		}
+		if (frameList.isEmpty()) return false;
+
+		Callable<List<DynamicMessage>> decoder = new Callable<List<DynamicMessage>>() {
+			public List<DynamicMessage> call() throws IOException {
+				List<DynamicMessage> msgList = new ArrayList<DynamicMessage>(frameList.size());
+				for (ByteBuffer frame : frameList) {
+					CodedInputStream cis = DynamicSchema.newCodedInput(frame);
+					msgList.add(DynamicMessage.parseFrom(mMsgType, cis));
+				}
+				return msgList;
+			}
+		};
+		if (mCompletionService != null) {
+			mPendingList.add(mCompletionService.submit(decoder));
+		}
+		else {
+			FutureTask<List<DynamicMessage>> task = new FutureTask<List<DynamicMessage>>(decoder);
+			mPendingList.add(task);
+			if (mExecutor != null) mExecutor.execute(task);
+			else task.run(); // no executor, decoded on the reading thread
+		}
+		return true;
+	}
+
+	private ByteBuffer nextFrame() throws IOException {
+		if (mInput != null) {
+			if (mInput.isAtEnd()) return null;
+			byte[] frame = mInput.readRawBytes(mInput.readRawVarint32());
+			mInput.resetSizeCounter(); // the stream may exceed the size limit in total
+			return ByteBuffer.wrap(frame);
+		}
+
+		int limit = mBuf.limit();
+		if (mPos == limit) return null;
+		int length = 0;
+		for (int shift = 0; ; shift += 7) {
+			if (mPos == limit || shift == 35) throw new InvalidProtocolBufferException("malformed message length");
+			byte b = mBuf.get(mPos++);
+			length |= (b & 0x7f) << shift;
+			if (b >= 0) break;
+		}
+		if (length < 0 || length > limit - mPos) throw new InvalidProtocolBufferException("message truncated");
+		ByteBuffer frame = mBuf.duplicate();
+		frame.position(mPos);
+		frame.limit(mPos + length);
+		mPos += length;
+		return frame.slice();
+	}
+
+	private final Descriptor mMsgType;
+	private final InputStream mInputStream; // stream input
+	private final CodedInputStream mInput;
+	private final ByteBuffer mBuf; // byte buffer input
+	private int mPos;
+	private final Executor mExecutor;
+	private final CompletionService<List<DynamicMessage>> mCompletionService; // null if ordered
+	private final LinkedList<Future<List<DynamicMessage>>> mPendingList = new LinkedList<Future<List<DynamicMessage>>>();
+	private boolean mEndOfInput;
+	private List<DynamicMessage> mBatch = Collections.emptyList(); // current batch of read()
+	private int mBatchIndex;
+}
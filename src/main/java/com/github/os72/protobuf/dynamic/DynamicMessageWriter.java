@@ -0,0 +1,178 @@
+/*
+ * Copyright 2015 protobuf-dynamic developers
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.os72.protobuf.dynamic;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Message;
+
+/**
+ * DynamicMessageWriter - writes length-delimited messages of one message type (readable with
+ * {@link DelimitedMessageReader} or parseDelimitedFrom) through a single reusable buffer (not thread safe)
+ * <p>
+ * Messages are serialized straight into the buffer, which is written out in chunks of {@link #CHUNK_SIZE}
+ * bytes: writing a message allocates no byte array or coded output stream. The output is an output stream,
+ * a channel (e.g. a file channel) or a byte buffer (heap or direct, filled from its position). Call
+ * {@link #flush()} or {@link #close()} to write out the last chunk.
+ */
+public class DynamicMessageWriter implements Closeable, Flushable
+{
+	// --- public static ---
+
+	/** Size of the write buffer */
+	public static final int CHUNK_SIZE = 256 * 1024;
+
+	// --- public ---
+
+	public Descriptor getDescriptor() {
+		return mMsgType;
+	}
+
+	/**
+	 * Writes a message (dynamic or generated, of the writer's message type) with its length prefix
+	 * 
+	 * @param msg the message
+	 * @throws IOException
+	 * @throws BufferOverflowException if the output byte buffer is full (nothing written)
+	 */
+	public void write(Message msg) throws IOException {
+		checkType(msg.getDescriptorForType());
+		int msgSize = msg.getSerializedSize();
+		int frameSize = beginWrite(msgSize);
+		mOutput.writeRawVarint32(msgSize);
+		msg.writeTo(mOutput);
+		endWrite(frameSize);
+	}
+
+	/**
+	 * Writes a compiled message (of the writer's message type) with its length prefix
+	 * 
+	 * @param msg the compiled message
+	 * @throws IOException
+	 * @throws BufferOverflowException if the output byte buffer is full (nothing written)
+	 */
+	public void write(CompiledMessage msg) throws IOException {
+		checkType(msg.getType().getDescriptor());
+		int msgSize = msg.getSerializedSize();
+		int frameSize = beginWrite(msgSize);
+		mOutput.writeRawVarint32(msgSize);
+		msg.writeToCached(mOutput); // sizes cached by getSerializedSize()
+		endWrite(frameSize);
+	}
+
+	/**
+	 * Writes a batch of messages
+	 * 
+	 * @param msgs the messages
+	 * @throws IOException
+	 */
+	public void writeAll(Iterable<? extends Message> msgs) throws IOException {
+		for (Message msg : msgs) write(msg);
+	}
+
+	/**
+	 * Writes out the buffered bytes
+	 * 
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		mOutput.flush();
+		if (mOutputStream != null) mOutputStream.flush();
+	}
+
+	/**
+	 * Writes out the buffered bytes and closes the output (the stream or channel; a byte buffer is left as is)
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		flush();
+		if (mOutputStream != null) mOutputStream.close();
+	}
+
+	public long getMessageCount() {
+		return mMessageCount;
+	}
+
+	/**
+	 * Returns the number of bytes written, including length prefixes and buffered bytes
+	 * 
+	 * @return the number of bytes written
+	 */
+	public long getBytesWritten() {
+		return mBytesWritten;
+	}
+
+	public String toString() {
+		return mMsgType.getFullName() + ": " + mMessageCount + " messages, " + mBytesWritten + " bytes";
+	}
+
+	// --- package ---
+
+	DynamicMessageWriter(Descriptor msgType, OutputStream out) {
+		mMsgType = msgType;
+		mOutputStream = out;
+		mOutput = CodedOutputStream.newInstance(out, CHUNK_SIZE);
+		mCapacity = Long.MAX_VALUE;
+	}
+
+	DynamicMessageWriter(Descriptor msgType, WritableByteChannel channel) {
+		this(msgType, Channels.newOutputStream(channel));
+	}
+
+	DynamicMessageWriter(Descriptor msgType, ByteBuffer buf) {
+		mMsgType = msgType;
+		mOutputStream = null;
+		mOutput = CodedOutputStream.newInstance(buf, Math.min(CHUNK_SIZE, Math.max(buf.remaining(), 1)));
+		mCapacity = buf.remaining();
+	}
+
+	// --- private ---
+
+	private void checkType(Descriptor msgType) {
+		if (msgType != mMsgType && !msgType.getFullName().equals(mMsgType.getFullName())) {
+			throw new IllegalArgumentException("message type mismatch: " + msgType.getFullName() + ", expected " + mMsgType.getFullName());
+		}
+	}
+
+	private int beginWrite(int msgSize) {
+		int frameSize = CodedOutputStream.computeRawVarint32Size(msgSize) + msgSize;
+		if (mBytesWritten + frameSize > mCapacity) throw new BufferOverflowException();
+		return frameSize;
+	}
+
+	private void endWrite(int frameSize) { // counted once written, not if the write failed
+		mBytesWritten += frameSize;
+		mMessageCount++;
+	}
+
+	private final Descriptor mMsgType;
+	private final OutputStream mOutputStream; // null if writing to a byte buffer
+	private final CodedOutputStream mOutput;
+	private final long mCapacity; // byte buffer output
+	private long mBytesWritten;
+	private long mMessageCount;
+}
@@ -17,16 +17,38 @@
 package com.github.os72.protobuf.dynamic;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.channels.FileChannel;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.EnumDescriptorProto;
 import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
 import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
 import com.google.protobuf.Descriptors.Descriptor;
@@ -62,17 +84,45 @@ public class DynamicSchema
 	 */
 	public static DynamicSchema parseFrom(InputStream schemaDescIn) throws DescriptorValidationException, IOException {
 		try {
-			int len;
-			byte[] buf = new byte[4096];
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			while ((len = schemaDescIn.read(buf)) > 0) baos.write(buf, 0, len);
-			return parseFrom(baos.toByteArray());
+			return new DynamicSchema(parseFileDescSet(CodedInputStream.newInstance(schemaDescIn)), null, null, false);
 		}
 		finally {
 			schemaDescIn.close();
 		}
 	}
 
+	/**
+	 * Parses a serialized schema descriptor (from file); the file is memory-mapped and parsed in place
+	 * 
+	 * @param schemaDescFile the descriptor file
+	 * @return the schema object
+	 * @throws DescriptorValidationException
+	 * @throws IOException
+	 */
+	public static DynamicSchema parseFrom(File schemaDescFile) throws DescriptorValidationException, IOException {
+		FileInputStream fis = new FileInputStream(schemaDescFile);
+		try {
+			FileChannel channel = fis.getChannel();
+			return parseFrom(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+		finally {
+			fis.close(); // the mapping stays valid until garbage collected
+		}
+	}
+
+	/**
+	 * Parses a serialized schema descriptor (from the remaining bytes of a byte buffer, heap, direct
+	 * or memory-mapped); the buffer position is not changed
+	 * 
+	 * @param schemaDescBuf the descriptor byte buffer
+	 * @return the schema object
+	 * @throws DescriptorValidationException
+	 * @throws IOException
+	 */
+	public static DynamicSchema parseFrom(ByteBuffer schemaDescBuf) throws DescriptorValidationException, IOException {
+		return new DynamicSchema(parseFileDescSet(newCodedInput(schemaDescBuf)), null, null, false);
+	}
+
 	/**
 	 * Parses a serialized schema descriptor (from byte array)
 	 * 
@@ -82,7 +132,141 @@ public class DynamicSchema
 	 * @throws IOException
 	 */
 	public static DynamicSchema parseFrom(byte[] schemaDescBuf) throws DescriptorValidationException, IOException {
-		return new DynamicSchema(FileDescriptorSet.parseFrom(schemaDescBuf));
+		return new DynamicSchema(FileDescriptorSet.parseFrom(schemaDescBuf), null, null, false);
+	}
+
+	/**
+	 * Parses a serialized schema descriptor (from byte array); files that do not depend on each other
+	 * are built in parallel on the given executor
+	 * 
+	 * @param schemaDescBuf the descriptor byte array
+	 * @param executor the executor used to build the file descriptors
+	 * @return the schema object
+	 * @throws DescriptorValidationException
+	 * @throws IOException
+	 */
+	public static DynamicSchema parseFrom(byte[] schemaDescBuf, Executor executor) throws DescriptorValidationException, IOException {
+		return new DynamicSchema(FileDescriptorSet.parseFrom(schemaDescBuf), executor, null, false);
+	}
+
+	/**
+	 * Parses a serialized schema descriptor (from byte array); file descriptors are shared through the given pool
+	 * with other schemas containing identical files
+	 * 
+	 * @param schemaDescBuf the descriptor byte array
+	 * @param fileDescPool the file descriptor pool
+	 * @return the schema object
+	 * @throws DescriptorValidationException
+	 * @throws IOException
+	 */
+	public static DynamicSchema parseFrom(byte[] schemaDescBuf, FileDescriptorPool fileDescPool) throws DescriptorValidationException, IOException {
+		return new DynamicSchema(FileDescriptorSet.parseFrom(schemaDescBuf), null, fileDescPool, false);
+	}
+
+	/**
+	 * Parses a serialized schema descriptor (from byte array); files that do not depend on each other are built
+	 * in parallel on the given executor, file descriptors are shared through the given pool with other schemas
+	 * containing identical files
+	 * 
+	 * @param schemaDescBuf the descriptor byte array
+	 * @param executor the executor used to build the file descriptors (null: build on the calling thread)
+	 * @param fileDescPool the file descriptor pool (null: no sharing)
+	 * @return the schema object
+	 * @throws DescriptorValidationException
+	 * @throws IOException
+	 */
+	public static DynamicSchema parseFrom(byte[] schemaDescBuf, Executor executor, FileDescriptorPool fileDescPool)
+			throws DescriptorValidationException, IOException {
+		return new DynamicSchema(FileDescriptorSet.parseFrom(schemaDescBuf), executor, fileDescPool, false);
+	}
+
+	/**
+	 * Parses a serialized schema descriptor (from input stream; closes the stream) in lazy mode: file descriptors
+	 * are built on first lookup of one of their types, together with their transitive dependencies (imports)
+	 * 
+	 * @param schemaDescIn the descriptor input stream
+	 * @return the schema object
+	 * @throws IOException
+	 */
+	public static DynamicSchema parseFromLazy(InputStream schemaDescIn) throws IOException {
+		try {
+			return newLazySchema(FileDescriptorSet.parseFrom(schemaDescIn), null);
+		}
+		finally {
+			schemaDescIn.close();
+		}
+	}
+
+	/**
+	 * Parses a serialized schema descriptor (from byte array) in lazy mode: file descriptors are built
+	 * on first lookup of one of their types, together with their transitive dependencies (imports)
+	 * 
+	 * @param schemaDescBuf the descriptor byte array
+	 * @return the schema object
+	 * @throws IOException
+	 */
+	public static DynamicSchema parseFromLazy(byte[] schemaDescBuf) throws IOException {
+		return newLazySchema(FileDescriptorSet.parseFrom(schemaDescBuf), null);
+	}
+
+	/**
+	 * Parses a serialized schema descriptor (from byte array) in lazy mode: file descriptors are built
+	 * on first lookup of one of their types, together with their transitive dependencies (imports),
+	 * and shared through the given pool with other schemas containing identical files
+	 * 
+	 * @param schemaDescBuf the descriptor byte array
+	 * @param fileDescPool the file descriptor pool
+	 * @return the schema object
+	 * @throws IOException
+	 */
+	public static DynamicSchema parseFromLazy(byte[] schemaDescBuf, FileDescriptorPool fileDescPool) throws IOException {
+		return newLazySchema(FileDescriptorSet.parseFrom(schemaDescBuf), fileDescPool);
+	}
+
+	/**
+	 * Loads a schema snapshot (from file) written by {@link #writeSnapshot(OutputStream)}; the type name index
+	 * is loaded as is, the schema is in lazy mode: file descriptors are built (and validated) on first lookup
+	 * of one of their types
+	 * 
+	 * @param snapshotFile the snapshot file
+	 * @return the schema object
+	 * @throws IOException
+	 */
+	public static DynamicSchema loadSnapshot(File snapshotFile) throws IOException {
+		return loadSnapshot(readFile(snapshotFile));
+	}
+
+	/**
+	 * Loads a schema snapshot (from byte array) written by {@link #writeSnapshot(OutputStream)}; the type name
+	 * index is loaded as is, the schema is in lazy mode: file descriptors are built (and validated) on first
+	 * lookup of one of their types
+	 * 
+	 * @param snapshotBuf the snapshot byte array
+	 * @return the schema object
+	 * @throws IOException
+	 */
+	public static DynamicSchema loadSnapshot(byte[] snapshotBuf) throws IOException {
+		int bodyLength = snapshotBuf.length - 16;
+		if (bodyLength < SNAPSHOT_MAGIC.length) throw new IOException("invalid snapshot");
+		for (int i = 0; i < SNAPSHOT_MAGIC.length; i++) {
+			if (snapshotBuf[i] != SNAPSHOT_MAGIC[i]) throw new IOException("invalid snapshot");
+		}
+		byte[] checksum = Fingerprint.of(snapshotBuf, 0, bodyLength).toByteArray();
+		for (int i = 0; i < checksum.length; i++) {
+			if (snapshotBuf[bodyLength + i] != checksum[i]) throw new IOException("invalid snapshot: checksum mismatch");
+		}
+		
+		CodedInputStream cis = CodedInputStream.newInstance(snapshotBuf, SNAPSHOT_MAGIC.length, bodyLength - SNAPSHOT_MAGIC.length);
+		cis.setSizeLimit(Integer.MAX_VALUE);
+		int version = cis.readRawVarint32();
+		if (version != SNAPSHOT_VERSION) throw new IOException("unsupported snapshot version: " + version);
+		int oldLimit = cis.pushLimit(cis.readRawVarint32());
+		FileDescriptorSet fileDescSet = FileDescriptorSet.parseFrom(cis);
+		cis.popLimit(oldLimit);
+		List<TypeName> msgTypeNameList = readSnapshotTypes(cis, fileDescSet.getFileList());
+		List<TypeName> enumTypeNameList = readSnapshotTypes(cis, fileDescSet.getFileList());
+		if (!cis.isAtEnd()) throw new IOException("invalid snapshot");
+		return new DynamicSchema(fileDescSet, msgTypeNameList, enumTypeNameList);
 	}
 
 	// --- public ---
@@ -94,21 +278,306 @@ public class DynamicSchema
 	 * @return the message builder (null if not found)
 	 */
 	public DynamicMessage.Builder newMessageBuilder(String msgTypeName) {
-		Descriptor msgType = getMessageDescriptor(msgTypeName);
-		if (msgType == null) return null;
-		return DynamicMessage.newBuilder(msgType);
+		int msgTypeHandle = resolveMessageType(msgTypeName);
+		if (msgTypeHandle < 0) return null;
+		return newMessageBuilder(msgTypeHandle);
+	}
+
+	/**
+	 * Creates a new dynamic message builder for the given message type handle
+	 * 
+	 * @param msgTypeHandle the message type handle (see {@link #resolveMessageType(String)})
+	 * @return the message builder
+	 */
+	public DynamicMessage.Builder newMessageBuilder(int msgTypeHandle) {
+		return DynamicMessage.newBuilder(getMessageDescriptor(msgTypeHandle));
 	}
 
 	/**
 	 * Gets the protobuf message descriptor for the given message type
+	 * (in lazy mode, the file defining the type is built if needed)
 	 * 
 	 * @param msgTypeName the message type name
 	 * @return the message descriptor (null if not found)
 	 */
 	public Descriptor getMessageDescriptor(String msgTypeName) {
-		Descriptor msgType = mMsgDescriptorMapShort.get(msgTypeName);
-		if (msgType == null) msgType = mMsgDescriptorMapFull.get(msgTypeName);
-		return msgType;
+		int msgTypeHandle = resolveMessageType(msgTypeName);
+		if (msgTypeHandle < 0) return null;
+		return getMessageDescriptor(msgTypeHandle);
+	}
+
+	/**
+	 * Gets the protobuf message descriptor for the given message type handle
+	 * (in lazy mode, the file defining the type is built if needed)
+	 * 
+	 * @param msgTypeHandle the message type handle (see {@link #resolveMessageType(String)})
+	 * @return the message descriptor
+	 */
+	public Descriptor getMessageDescriptor(int msgTypeHandle) {
+		Descriptor msgType = mMsgDescriptors.get(msgTypeHandle);
+		if (msgType != null) return msgType;
+		resolveLazy(mMsgTypeFiles[msgTypeHandle]);
+		return mMsgDescriptors.get(msgTypeHandle);
+	}
+
+	/**
+	 * Gets the field accessor for the given message type (created once per type and cached)
+	 * 
+	 * @param msgTypeName the message type name
+	 * @return the message accessor (null if not found)
+	 */
+	public MessageAccessor getMessageAccessor(String msgTypeName) {
+		int msgTypeHandle = resolveMessageType(msgTypeName);
+		if (msgTypeHandle < 0) return null;
+		return getMessageAccessor(msgTypeHandle);
+	}
+
+	/**
+	 * Gets the field accessor for the given message type handle (created once per type and cached)
+	 * 
+	 * @param msgTypeHandle the message type handle (see {@link #resolveMessageType(String)})
+	 * @return the message accessor
+	 */
+	public MessageAccessor getMessageAccessor(int msgTypeHandle) {
+		MessageAccessor msgAccessor = mMsgAccessors.get(msgTypeHandle);
+		if (msgAccessor != null) return msgAccessor;
+		mMsgAccessors.compareAndSet(msgTypeHandle, null, new MessageAccessor(getMessageDescriptor(msgTypeHandle)));
+		return mMsgAccessors.get(msgTypeHandle);
+	}
+
+	/**
+	 * Gets the compiled message type for the given message type (compiled once per type and cached)
+	 * 
+	 * @param msgTypeName the message type name
+	 * @return the compiled message type (null if not found)
+	 */
+	public CompiledMessageType getCompiledMessageType(String msgTypeName) {
+		int msgTypeHandle = resolveMessageType(msgTypeName);
+		if (msgTypeHandle < 0) return null;
+		return getCompiledMessageType(msgTypeHandle);
+	}
+
+	/**
+	 * Gets the compiled message type for the given message type handle (compiled once per type and cached);
+	 * compile the hot message types of a schema for fast parsing and serialization, see {@link CompiledMessage}
+	 * 
+	 * @param msgTypeHandle the message type handle (see {@link #resolveMessageType(String)})
+	 * @return the compiled message type
+	 */
+	public CompiledMessageType getCompiledMessageType(int msgTypeHandle) {
+		CompiledMessageType compiledType = mCompiledTypes.get(msgTypeHandle);
+		if (compiledType != null) return compiledType;
+		Descriptor msgType = getMessageDescriptor(msgTypeHandle);
+		synchronized (mCompiledTypeMap) { // shared by the compiled types of message fields
+			compiledType = CompiledMessageType.compile(msgType, mCompiledTypeMap);
+		}
+		mCompiledTypes.compareAndSet(msgTypeHandle, null, compiledType);
+		return mCompiledTypes.get(msgTypeHandle);
+	}
+
+	/**
+	 * Creates a stream parser for the given message type: parses serialized messages into visitor callbacks,
+	 * without building messages
+	 * 
+	 * @param msgTypeName the message type name
+	 * @return the stream parser (null if not found)
+	 */
+	public MessageStreamParser newStreamParser(String msgTypeName) {
+		int msgTypeHandle = resolveMessageType(msgTypeName);
+		if (msgTypeHandle < 0) return null;
+		return newStreamParser(msgTypeHandle);
+	}
+
+	/**
+	 * Creates a stream parser for the given message type handle
+	 * 
+	 * @param msgTypeHandle the message type handle (see {@link #resolveMessageType(String)})
+	 * @return the stream parser
+	 */
+	public MessageStreamParser newStreamParser(int msgTypeHandle) {
+		return new MessageStreamParser(getCompiledMessageType(msgTypeHandle));
+	}
+
+	/**
+	 * Creates a field projection for the given message type: parses only the given field paths, e.g.
+	 * "customer.id" or "items[].sku", and skips all other fields (see {@link FieldProjection})
+	 * 
+	 * @param msgTypeName the message type name
+	 * @param fieldPaths the field paths
+	 * @return the field projection (null if the message type is not found)
+	 * @throws IllegalArgumentException if a field path is invalid
+	 */
+	public FieldProjection newProjection(String msgTypeName, String... fieldPaths) {
+		int msgTypeHandle = resolveMessageType(msgTypeName);
+		if (msgTypeHandle < 0) return null;
+		return new FieldProjection(getCompiledMessageType(msgTypeHandle), fieldPaths);
+	}
+
+	/**
+	 * Creates a column batch for the given message type: decodes serialized messages into primitive columns
+	 * of the given field paths, e.g. "customer.id" (see {@link ColumnBatch})
+	 * 
+	 * @param msgTypeName the message type name
+	 * @param columnPaths the field paths of the columns
+	 * @return the column batch (null if the message type is not found)
+	 * @throws IllegalArgumentException if a field path is invalid
+	 */
+	public ColumnBatch newColumnBatch(String msgTypeName, String... columnPaths) {
+		int msgTypeHandle = resolveMessageType(msgTypeName);
+		if (msgTypeHandle < 0) return null;
+		return new ColumnBatch(getCompiledMessageType(msgTypeHandle), columnPaths);
+	}
+
+	/**
+	 * Creates a lazy read-only view of a serialized message of the given type, in the remaining bytes of a
+	 * byte buffer (see {@link LazyDynamicView})
+	 * 
+	 * @param msgTypeName the message type name
+	 * @param msgBuf the serialized message
+	 * @return the message view (null if the message type is not found)
+	 */
+	public LazyDynamicView newLazyView(String msgTypeName, ByteBuffer msgBuf) {
+		int msgTypeHandle = resolveMessageType(msgTypeName);
+		if (msgTypeHandle < 0) return null;
+		return newLazyView(msgTypeHandle, msgBuf);
+	}
+
+	/**
+	 * Creates a lazy read-only view of a serialized message of the given type handle
+	 * 
+	 * @param msgTypeHandle the message type handle (see {@link #resolveMessageType(String)})
+	 * @param msgBuf the serialized message
+	 * @return the message view
+	 */
+	public LazyDynamicView newLazyView(int msgTypeHandle, ByteBuffer msgBuf) {
+		return new LazyDynamicView(getCompiledMessageType(msgTypeHandle), msgBuf);
+	}
+
+	/**
+	 * Creates a reader of length-delimited messages of the given type from an input stream, decoding
+	 * them in parallel on the given executor (see {@link DelimitedMessageReader})
+	 * 
+	 * @param msgTypeName the message type name
+	 * @param in the input stream
+	 * @param executor the executor decoding the messages (null: decoded on the reading thread)
+	 * @param ordered true to return the messages in input order
+	 * @return the message reader (null if the message type is not found)
+	 */
+	public DelimitedMessageReader newDelimitedReader(String msgTypeName, InputStream in, Executor executor, boolean ordered) {
+		Descriptor msgType = getMessageDescriptor(msgTypeName);
+		if (msgType == null) return null;
+		return new DelimitedMessageReader(msgType, in, executor, ordered);
+	}
+
+	/**
+	 * Creates a reader of length-delimited messages of the given type from the remaining bytes of a byte
+	 * buffer (heap, direct or memory-mapped, the buffer position is not changed), decoding them in parallel
+	 * on the given executor
+	 * 
+	 * @param msgTypeName the message type name
+	 * @param buf the byte buffer
+	 * @param executor the executor decoding the messages (null: decoded on the reading thread)
+	 * @param ordered true to return the messages in input order
+	 * @return the message reader (null if the message type is not found)
+	 */
+	public DelimitedMessageReader newDelimitedReader(String msgTypeName, ByteBuffer buf, Executor executor, boolean ordered) {
+		Descriptor msgType = getMessageDescriptor(msgTypeName);
+		if (msgType == null) return null;
+		return new DelimitedMessageReader(msgType, buf, executor, ordered);
+	}
+
+	/**
+	 * Creates a writer of length-delimited messages of the given type to an output stream
+	 * (see {@link DynamicMessageWriter})
+	 * 
+	 * @param msgTypeName the message type name
+	 * @param out the output stream
+	 * @return the message writer (null if the message type is not found)
+	 */
+	public DynamicMessageWriter newMessageWriter(String msgTypeName, OutputStream out) {
+		Descriptor msgType = getMessageDescriptor(msgTypeName);
+		if (msgType == null) return null;
+		return new DynamicMessageWriter(msgType, out);
+	}
+
+	/**
+	 * Creates a writer of length-delimited messages of the given type to a channel, e.g. a file channel
+	 * 
+	 * @param msgTypeName the message type name
+	 * @param channel the channel
+	 * @return the message writer (null if the message type is not found)
+	 */
+	public DynamicMessageWriter newMessageWriter(String msgTypeName, WritableByteChannel channel) {
+		Descriptor msgType = getMessageDescriptor(msgTypeName);
+		if (msgType == null) return null;
+		return new DynamicMessageWriter(msgType, channel);
+	}
+
+	/**
+	 * Creates a writer of length-delimited messages of the given type into a byte buffer (heap or direct),
+	 * from its position
+	 * 
+	 * @param msgTypeName the message type name
+	 * @param buf the byte buffer
+	 * @return the message writer (null if the message type is not found)
+	 */
+	public DynamicMessageWriter newMessageWriter(String msgTypeName, ByteBuffer buf) {
+		Descriptor msgType = getMessageDescriptor(msgTypeName);
+		if (msgType == null) return null;
+		return new DynamicMessageWriter(msgType, buf);
+	}
+
+	/**
+	 * Gets the JSON codec for the given message type (compiled once per type and cached, see {@link JsonCodec})
+	 * 
+	 * @param msgTypeName the message type name
+	 * @return the JSON codec (null if not found)
+	 */
+	public JsonCodec getJsonCodec(String msgTypeName) {
+		int msgTypeHandle = resolveMessageType(msgTypeName);
+		if (msgTypeHandle < 0) return null;
+		return getJsonCodec(msgTypeHandle);
+	}
+
+	/**
+	 * Gets the JSON codec for the given message type handle (compiled once per type and cached)
+	 * 
+	 * @param msgTypeHandle the message type handle (see {@link #resolveMessageType(String)})
+	 * @return the JSON codec
+	 */
+	public JsonCodec getJsonCodec(int msgTypeHandle) {
+		JsonCodec jsonCodec = mJsonCodecs.get(msgTypeHandle);
+		if (jsonCodec != null) return jsonCodec;
+		mJsonCodecs.compareAndSet(msgTypeHandle, null, new JsonCodec(getCompiledMessageType(msgTypeHandle)));
+		return mJsonCodecs.get(msgTypeHandle);
+	}
+
+	/**
+	 * Creates a transcoder from the given message type to a message type of another schema, e.g. another
+	 * version of this schema (see {@link Transcoder})
+	 * 
+	 * @param msgTypeName the message type name
+	 * @param dstSchema the target schema
+	 * @param dstMsgTypeName the message type name in the target schema
+	 * @return the transcoder (null if a message type is not found)
+	 * @throws IllegalArgumentException if fields matched by name have incompatible types
+	 */
+	public Transcoder newTranscoder(String msgTypeName, DynamicSchema dstSchema, String dstMsgTypeName) {
+		Descriptor srcType = getMessageDescriptor(msgTypeName);
+		Descriptor dstType = dstSchema.getMessageDescriptor(dstMsgTypeName);
+		if (srcType == null || dstType == null) return null;
+		return Transcoder.compile(srcType, dstType);
+	}
+
+	/**
+	 * Resolves the given message type to a handle, for repeated lookups without hashing the type name;
+	 * handles are dense (0 to number of message types - 1) and only valid for this schema object
+	 * 
+	 * @param msgTypeName the message type name
+	 * @return the message type handle (-1 if not found)
+	 */
+	public int resolveMessageType(String msgTypeName) {
+		return mMsgTypeIndex.get(msgTypeName);
 	}
 
 	/**
@@ -137,34 +606,130 @@ public class DynamicSchema
 		return enumType.findValueByNumber(enumNumber);
 	}
 
+	/**
+	 * Gets the enum value for the given enum type handle and name
+	 * 
+	 * @param enumTypeHandle the enum type handle (see {@link #resolveEnumType(String)})
+	 * @param enumName the enum name
+	 * @return the enum value descriptor (null if not found)
+	 */
+	public EnumValueDescriptor getEnumValue(int enumTypeHandle, String enumName) {
+		return getEnumDescriptor(enumTypeHandle).findValueByName(enumName);
+	}
+
+	/**
+	 * Gets the enum value for the given enum type handle and number
+	 * 
+	 * @param enumTypeHandle the enum type handle (see {@link #resolveEnumType(String)})
+	 * @param enumNumber the enum number
+	 * @return the enum value descriptor (null if not found)
+	 */
+	public EnumValueDescriptor getEnumValue(int enumTypeHandle, int enumNumber) {
+		return getEnumDescriptor(enumTypeHandle).findValueByNumber(enumNumber);
+	}
+
 	/**
 	 * Gets the protobuf enum descriptor for the given enum type
+	 * (in lazy mode, the file defining the type is built if needed)
 	 * 
 	 * @param enumTypeName the enum type name
 	 * @return the enum descriptor (null if not found)
 	 */
 	public EnumDescriptor getEnumDescriptor(String enumTypeName) {
-		EnumDescriptor enumType = mEnumDescriptorMapShort.get(enumTypeName);
-		if (enumType == null) enumType = mEnumDescriptorMapFull.get(enumTypeName);
-		return enumType;
+		int enumTypeHandle = resolveEnumType(enumTypeName);
+		if (enumTypeHandle < 0) return null;
+		return getEnumDescriptor(enumTypeHandle);
+	}
+
+	/**
+	 * Gets the protobuf enum descriptor for the given enum type handle
+	 * (in lazy mode, the file defining the type is built if needed)
+	 * 
+	 * @param enumTypeHandle the enum type handle (see {@link #resolveEnumType(String)})
+	 * @return the enum descriptor
+	 */
+	public EnumDescriptor getEnumDescriptor(int enumTypeHandle) {
+		EnumDescriptor enumType = mEnumDescriptors.get(enumTypeHandle);
+		if (enumType != null) return enumType;
+		resolveLazy(mEnumTypeFiles[enumTypeHandle]);
+		return mEnumDescriptors.get(enumTypeHandle);
+	}
+
+	/**
+	 * Resolves the given enum type to a handle, for repeated lookups without hashing the type name;
+	 * handles are dense (0 to number of enum types - 1) and only valid for this schema object
+	 * 
+	 * @param enumTypeName the enum type name
+	 * @return the enum type handle (-1 if not found)
+	 */
+	public int resolveEnumType(String enumTypeName) {
+		return mEnumTypeIndex.get(enumTypeName);
 	}
 
 	/**
 	 * Returns the message types registered with the schema
 	 * 
-	 * @return the set of message type names
+	 * @return the set of message type names (sorted, unmodifiable)
 	 */
 	public Set<String> getMessageTypes() {
-		return new TreeSet<String>(mMsgDescriptorMapFull.keySet());
+		return mMsgTypeSet;
+	}
+
+	/**
+	 * Returns the message types registered with the schema whose full name starts with the given prefix,
+	 * e.g. "com.acme.billing." for the types of a package (including nested packages)
+	 * 
+	 * @param prefix the full type name prefix
+	 * @return the set of message type names (sorted, unmodifiable, not copied)
+	 */
+	public Set<String> getMessageTypes(String prefix) {
+		return TypeNameSet.withPrefix(mMsgTypeNames, prefix);
 	}
 
 	/**
 	 * Returns the enum types registered with the schema
 	 * 
-	 * @return the set of enum type names
+	 * @return the set of enum type names (sorted, unmodifiable)
 	 */
 	public Set<String> getEnumTypes() {
-		return new TreeSet<String>(mEnumDescriptorMapFull.keySet());
+		return mEnumTypeSet;
+	}
+
+	/**
+	 * Returns the enum types registered with the schema whose full name starts with the given prefix
+	 * 
+	 * @param prefix the full type name prefix
+	 * @return the set of enum type names (sorted, unmodifiable, not copied)
+	 */
+	public Set<String> getEnumTypes(String prefix) {
+		return TypeNameSet.withPrefix(mEnumTypeNames, prefix);
+	}
+
+	/**
+	 * Extends the schema with additional files (the files may import files of this schema); the already built
+	 * file descriptors are reused, only the new files are built. Files identical to ones of this schema
+	 * are skipped. This schema is not modified, the extended schema uses the same mode (eager, lazy)
+	 * and file descriptor pool.
+	 * 
+	 * @param fileDescSet the additional files
+	 * @return the extended schema object
+	 * @throws DescriptorValidationException
+	 */
+	public DynamicSchema extend(FileDescriptorSet fileDescSet) throws DescriptorValidationException {
+		return new DynamicSchema(this, fileDescSet, null, mFileDescPool, mLazy);
+	}
+
+	/**
+	 * Extends the schema with the files of a schema builder (the files may import files of this schema);
+	 * the already built file descriptors are reused, only the new files are built. Files identical to ones
+	 * of this schema are skipped. This schema is not modified.
+	 * 
+	 * @param schemaBuilder the schema builder
+	 * @return the extended schema object
+	 * @throws DescriptorValidationException
+	 */
+	public DynamicSchema extend(Builder schemaBuilder) throws DescriptorValidationException {
+		return extend(schemaBuilder.buildFileDescSet());
 	}
 
 	/**
@@ -185,6 +750,37 @@ public class DynamicSchema
 		return mFileDescSet.toByteArray();
 	}
 
+	/**
+	 * Writes a snapshot of the schema: its files in dependency (import) order and its type name index,
+	 * in a compact checksummed binary form; see {@link #loadSnapshot(File)}
+	 * 
+	 * @param out the output stream
+	 * @throws IOException
+	 */
+	public void writeSnapshot(OutputStream out) throws IOException {
+		List<FileDescriptorProto> fdProtoList = new ArrayList<FileDescriptorProto>();
+		for (List<FileDescriptorProto> level : orderFileDescProtos(mFileDescSet.getFileList(), Collections.<String,Object>emptyMap())) {
+			fdProtoList.addAll(level);
+		}
+		Map<String,Integer> fdIdxMap = new HashMap<String,Integer>();
+		for (int i = 0; i < fdProtoList.size(); i++) fdIdxMap.put(fdProtoList.get(i).getName(), i);
+		FileDescriptorSet fileDescSet = FileDescriptorSet.newBuilder().addAllFile(fdProtoList).build();
+		
+		ByteArrayOutputStream bodyOut = new ByteArrayOutputStream(fileDescSet.getSerializedSize() + 64 * (mMsgTypeNames.length + mEnumTypeNames.length) + 64);
+		CodedOutputStream cos = CodedOutputStream.newInstance(bodyOut);
+		cos.writeRawBytes(SNAPSHOT_MAGIC);
+		cos.writeRawVarint32(SNAPSHOT_VERSION);
+		cos.writeRawVarint32(fileDescSet.getSerializedSize());
+		fileDescSet.writeTo(cos);
+		writeSnapshotTypes(cos, mMsgTypeNames, mMsgTypeFiles, fdIdxMap);
+		writeSnapshotTypes(cos, mEnumTypeNames, mEnumTypeFiles, fdIdxMap);
+		cos.flush();
+		
+		byte[] body = bodyOut.toByteArray();
+		out.write(body);
+		out.write(Fingerprint.of(body).toByteArray());
+	}
+
 	/**
 	 * Returns a string representation of the schema
 	 * 
@@ -196,87 +792,502 @@ public class DynamicSchema
 		return "types: " + msgTypes + "\nenums: " + enumTypes + "\n" + mFileDescSet;
 	}
 
+	// --- package static ---
+
+	/**
+	 * Creates a coded input stream reading the remaining bytes of a byte buffer (heap, direct or memory-mapped);
+	 * the buffer position is not changed
+	 * 
+	 * @param buf the byte buffer
+	 * @return the coded input stream
+	 */
+	static CodedInputStream newCodedInput(ByteBuffer buf) {
+		if (buf.hasArray()) return CodedInputStream.newInstance(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+		// CodedInputStream.newInstance(ByteBuffer) would copy the whole buffer to the heap, stream it instead
+		return CodedInputStream.newInstance(new ByteBufferInputStream(buf));
+	}
+
+	static byte[] readFile(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			long length = raf.length();
+			if (length > Integer.MAX_VALUE) throw new IOException("file too large: " + file);
+			byte[] buf = new byte[(int)length];
+			raf.readFully(buf);
+			return buf;
+		}
+		finally {
+			raf.close();
+		}
+	}
+
 	// --- private ---
 
-	private DynamicSchema(FileDescriptorSet fileDescSet) throws DescriptorValidationException {
-		mFileDescSet = fileDescSet;
-		Map<String,FileDescriptor> fileDescMap = init(fileDescSet);
+	private static FileDescriptorSet parseFileDescSet(CodedInputStream cis) throws IOException {
+		cis.setSizeLimit(Integer.MAX_VALUE); // default limit is 64 MB
+		FileDescriptorSet fileDescSet = FileDescriptorSet.parseFrom(cis);
+		cis.checkLastTagWas(0);
+		return fileDescSet;
+	}
+
+	private static DynamicSchema newLazySchema(FileDescriptorSet fileDescSet, FileDescriptorPool fileDescPool) {
+		try {
+			return new DynamicSchema(fileDescSet, null, fileDescPool, true);
+		}
+		catch (DescriptorValidationException e) {
+			throw new IllegalStateException(e); // not thrown in lazy mode, validation is deferred to first lookup
+		}
+	}
+
+	private DynamicSchema(FileDescriptorSet fileDescSet, Executor executor, FileDescriptorPool fileDescPool, boolean lazy)
+			throws DescriptorValidationException {
+		this(null, fileDescSet, executor, fileDescPool, lazy);
+	}
+
+	private DynamicSchema(DynamicSchema baseSchema, FileDescriptorSet fileDescSet, Executor executor, FileDescriptorPool fileDescPool, boolean lazy)
+			throws DescriptorValidationException {
+		mFileDescPool = fileDescPool;
 		
-		Set<String> msgDupes = new HashSet<String>();
-		Set<String> enumDupes = new HashSet<String>();
-		for (FileDescriptor fileDesc : fileDescMap.values()) {
-			for (Descriptor msgType : fileDesc.getMessageTypes()) addMessageType(msgType, null, msgDupes, enumDupes);			
-			for (EnumDescriptor enumType : fileDesc.getEnumTypes()) addEnumType(enumType, null, enumDupes);						
+		// check for dupes, files identical to ones in the base schema are skipped
+		List<FileDescriptorProto> fdProtoList = new ArrayList<FileDescriptorProto>();
+		if (baseSchema != null) mFileDescProtoMap.putAll(baseSchema.mFileDescProtoMap);
+		for (FileDescriptorProto fdProto : fileDescSet.getFileList()) {
+			FileDescriptorProto existingFdProto = mFileDescProtoMap.get(fdProto.getName());
+			if (existingFdProto != null) {
+				if (baseSchema != null && baseSchema.mFileDescProtoMap.containsKey(fdProto.getName()) && existingFdProto.equals(fdProto)) continue;
+				throw new IllegalArgumentException("duplicate name: " + fdProto.getName());
+			}
+			mFileDescProtoMap.put(fdProto.getName(), fdProto);
+			fdProtoList.add(fdProto);
+		}
+		mFileDescSet = (baseSchema == null ? fileDescSet : baseSchema.mFileDescSet.toBuilder().addAllFile(fdProtoList).build());
+		
+		// order files by dependencies (imports), fails on missing imports and import cycles
+		Map<String,?> baseFdProtoMap = (baseSchema == null ? Collections.<String,Object>emptyMap() : baseSchema.mFileDescProtoMap);
+		List<List<FileDescriptorProto>> levelList = orderFileDescProtos(fdProtoList, baseFdProtoMap);
+		
+		// index type names (of the base schema and the new files), handles follow the sorted full names
+		List<TypeName> msgTypeNameList = new ArrayList<TypeName>();
+		List<TypeName> enumTypeNameList = new ArrayList<TypeName>();
+		if (baseSchema != null) {
+			baseSchema.addTypeNames(baseSchema.mMsgTypeNames, baseSchema.mMsgTypeFiles, msgTypeNameList);
+			baseSchema.addTypeNames(baseSchema.mEnumTypeNames, baseSchema.mEnumTypeFiles, enumTypeNameList);
+		}
+		for (FileDescriptorProto fdProto : fdProtoList) {
+			String fdName = fdProto.getName();
+			String pkg = (fdProto.getPackage().length() == 0 ? null : fdProto.getPackage());
+			for (DescriptorProto msgType : fdProto.getMessageTypeList()) addMessageTypeName(msgType, pkg, null, fdName, msgTypeNameList, enumTypeNameList);
+			for (EnumDescriptorProto enumType : fdProto.getEnumTypeList()) addEnumTypeName(enumType, pkg, null, fdName, enumTypeNameList);
+		}
+		initTypes(msgTypeNameList, enumTypeNameList);
+		
+		mLazy = lazy;
+		mFileDescMap = (lazy ? new ConcurrentHashMap<String,FileDescriptor>() : new LinkedHashMap<String,FileDescriptor>());
+		if (baseSchema != null) {
+			synchronized (baseSchema.mFileDescProtoMap) { // consistent snapshot of the files resolved so far (lazy mode)
+				mFileDescMap.putAll(baseSchema.mFileDescMap);
+				for (FileDescriptor fileDesc : baseSchema.mFileDescMap.values()) addDescriptors(fileDesc);
+			}
 		}
+		if (lazy) return; // files are built on first lookup of one of their types
 		
-		for (String msgName : msgDupes) mMsgDescriptorMapShort.remove(msgName);
-		for (String enumName : enumDupes) mEnumDescriptorMapShort.remove(enumName);
+		List<FileDescriptor> fileDescList = buildFileDescriptors(levelList, mFileDescMap, executor, fileDescPool);
+		for (FileDescriptor fileDesc : fileDescList) addDescriptors(fileDesc);
 	}
 
-	@SuppressWarnings("unchecked")
-	private Map<String,FileDescriptor> init(FileDescriptorSet fileDescSet) throws DescriptorValidationException {
-		// check for dupes
-		Set<String> allFdProtoNames = new HashSet<String>();
-		for (FileDescriptorProto fdProto : fileDescSet.getFileList()) {
-			if (allFdProtoNames.contains(fdProto.getName())) throw new IllegalArgumentException("duplicate name: " + fdProto.getName());
-			allFdProtoNames.add(fdProto.getName());
+	private DynamicSchema(FileDescriptorSet fileDescSet, List<TypeName> msgTypeNameList, List<TypeName> enumTypeNameList) {
+		// snapshot: files and type names are known to be consistent, files are built on first lookup
+		mFileDescSet = fileDescSet;
+		for (FileDescriptorProto fdProto : fileDescSet.getFileList()) mFileDescProtoMap.put(fdProto.getName(), fdProto);
+		initTypes(msgTypeNameList, enumTypeNameList);
+		mLazy = true;
+		mFileDescMap = new ConcurrentHashMap<String,FileDescriptor>();
+	}
+
+	private void initTypes(List<TypeName> msgTypeNameList, List<TypeName> enumTypeNameList) {
+		mMsgTypeNames = new String[msgTypeNameList.size()];
+		mMsgTypeFiles = new String[msgTypeNameList.size()];
+		mMsgTypeIndex = buildTypeIndex(msgTypeNameList, mMsgTypeNames, mMsgTypeFiles);
+		mMsgDescriptors = new AtomicReferenceArray<Descriptor>(mMsgTypeNames.length);
+		mMsgAccessors = new AtomicReferenceArray<MessageAccessor>(mMsgTypeNames.length);
+		mCompiledTypes = new AtomicReferenceArray<CompiledMessageType>(mMsgTypeNames.length);
+		mJsonCodecs = new AtomicReferenceArray<JsonCodec>(mMsgTypeNames.length);
+		mMsgTypeSet = new TypeNameSet(mMsgTypeNames, 0, mMsgTypeNames.length);
+		mEnumTypeNames = new String[enumTypeNameList.size()];
+		mEnumTypeFiles = new String[enumTypeNameList.size()];
+		mEnumTypeIndex = buildTypeIndex(enumTypeNameList, mEnumTypeNames, mEnumTypeFiles);
+		mEnumDescriptors = new AtomicReferenceArray<EnumDescriptor>(mEnumTypeNames.length);
+		mEnumTypeSet = new TypeNameSet(mEnumTypeNames, 0, mEnumTypeNames.length);
+	}
+
+	private static void writeSnapshotTypes(CodedOutputStream cos, String[] typeNames, String[] typeFiles, Map<String,Integer> fdIdxMap) throws IOException {
+		cos.writeRawVarint32(typeNames.length);
+		for (int i = 0; i < typeNames.length; i++) {
+			cos.writeStringNoTag(typeNames[i]);
+			cos.writeRawVarint32(fdIdxMap.get(typeFiles[i]));
+		}
+	}
+
+	private static List<TypeName> readSnapshotTypes(CodedInputStream cis, List<FileDescriptorProto> fdProtoList) throws IOException {
+		int typeCount = cis.readRawVarint32();
+		if (typeCount < 0) throw new IOException("invalid snapshot");
+		List<TypeName> typeNameList = new ArrayList<TypeName>(Math.min(typeCount, 1 << 16));
+		for (int i = 0; i < typeCount; i++) {
+			String typeName = cis.readString();
+			int fdIdx = cis.readRawVarint32();
+			if (fdIdx < 0 || fdIdx >= fdProtoList.size()) throw new IOException("invalid snapshot");
+			FileDescriptorProto fdProto = fdProtoList.get(fdIdx);
+			typeNameList.add(new TypeName(typeName, shortTypeName(typeName, fdProto.getPackage()), fdProto.getName()));
 		}
+		return typeNameList;
+	}
+
+	private static List<List<FileDescriptorProto>> orderFileDescProtos(Collection<FileDescriptorProto> fdProtos, Map<String,?> resolvedFileDescMap) {
+		// order files topologically (Kahn), in levels: each file after all of its dependencies (imports),
+		// files within a level do not depend on each other, already resolved dependencies are skipped
+		Map<String,FileDescriptorProto> fdProtoMap = new HashMap<String,FileDescriptorProto>();
+		for (FileDescriptorProto fdProto : fdProtos) fdProtoMap.put(fdProto.getName(), fdProto);
 		
-		// build FileDescriptors, resolve dependencies (imports) if any
-		Map<String,FileDescriptor> resolvedFileDescMap = new HashMap<String,FileDescriptor>();
-		while (resolvedFileDescMap.size() < fileDescSet.getFileCount()) {
-			for (FileDescriptorProto fdProto : fileDescSet.getFileList()) {
-				if (resolvedFileDescMap.containsKey(fdProto.getName())) continue;
-				
-				List<String> dependencyList = fdProto.getDependencyList();
-				List<FileDescriptor> resolvedFdList = new ArrayList<FileDescriptor>();
-				for (String depName : dependencyList) {
-					if (!allFdProtoNames.contains(depName)) throw new IllegalArgumentException("cannot resolve import " + depName + " in " + fdProto.getName());
-					FileDescriptor fd = resolvedFileDescMap.get(depName);
-					if (fd != null) resolvedFdList.add(fd);
+		Map<String,Integer> pendingDepCountMap = new HashMap<String,Integer>();
+		Map<String,List<FileDescriptorProto>> dependentsMap = new HashMap<String,List<FileDescriptorProto>>();
+		List<FileDescriptorProto> level = new ArrayList<FileDescriptorProto>();
+		for (FileDescriptorProto fdProto : fdProtos) {
+			int pendingDepCount = 0;
+			for (String depName : fdProto.getDependencyList()) {
+				if (resolvedFileDescMap.containsKey(depName)) continue;
+				if (!fdProtoMap.containsKey(depName)) throw new IllegalArgumentException("cannot resolve import " + depName + " in " + fdProto.getName());
+				List<FileDescriptorProto> dependents = dependentsMap.get(depName);
+				if (dependents == null) dependentsMap.put(depName, dependents = new ArrayList<FileDescriptorProto>());
+				dependents.add(fdProto);
+				pendingDepCount++;
+			}
+			pendingDepCountMap.put(fdProto.getName(), pendingDepCount);
+			if (pendingDepCount == 0) level.add(fdProto);
+		}
+		List<List<FileDescriptorProto>> levelList = new ArrayList<List<FileDescriptorProto>>();
+		int orderedCount = 0;
+		while (!level.isEmpty()) {
+			levelList.add(level);
+			orderedCount += level.size();
+			List<FileDescriptorProto> nextLevel = new ArrayList<FileDescriptorProto>();
+			for (FileDescriptorProto fdProto : level) {
+				List<FileDescriptorProto> dependents = dependentsMap.get(fdProto.getName());
+				if (dependents == null) continue;
+				for (FileDescriptorProto dependent : dependents) {
+					int pendingDepCount = pendingDepCountMap.get(dependent.getName()) - 1;
+					pendingDepCountMap.put(dependent.getName(), pendingDepCount);
+					if (pendingDepCount == 0) nextLevel.add(dependent);
 				}
-				
-				if (resolvedFdList.size() == dependencyList.size()) { // dependencies resolved
-					FileDescriptor[] fds = new FileDescriptor[resolvedFdList.size()];
-					FileDescriptor fd = FileDescriptor.buildFrom(fdProto, resolvedFdList.toArray(fds));
-					resolvedFileDescMap.put(fdProto.getName(), fd);
+			}
+			level = nextLevel;
+		}
+		if (orderedCount < fdProtos.size()) {
+			throw new IllegalArgumentException("import cycle: " + findImportCycle(fdProtos, fdProtoMap, pendingDepCountMap));
+		}
+		return levelList;
+	}
+
+	private static String findImportCycle(Collection<FileDescriptorProto> fdProtos, Map<String,FileDescriptorProto> fdProtoMap, Map<String,Integer> pendingDepCountMap) {
+		// start from the first unresolved file and follow unresolved imports until a file repeats
+		String fdName = null;
+		for (FileDescriptorProto fdProto : fdProtos) {
+			if (pendingDepCountMap.get(fdProto.getName()) > 0) {
+				fdName = fdProto.getName();
+				break;
+			}
+		}
+		List<String> path = new ArrayList<String>();
+		Map<String,Integer> pathIdxMap = new HashMap<String,Integer>();
+		while (!pathIdxMap.containsKey(fdName)) {
+			pathIdxMap.put(fdName, path.size());
+			path.add(fdName);
+			for (String depName : fdProtoMap.get(fdName).getDependencyList()) {
+				Integer pendingDepCount = pendingDepCountMap.get(depName);
+				if (pendingDepCount != null && pendingDepCount > 0) {
+					fdName = depName;
+					break;
 				}
 			}
 		}
+		StringBuilder sb = new StringBuilder();
+		for (String name : path.subList(pathIdxMap.get(fdName), path.size())) sb.append(name).append(" -> ");
+		return sb.append(fdName).toString();
+	}
+
+	private static List<FileDescriptor> buildFileDescriptors(List<List<FileDescriptorProto>> levelList, Map<String,FileDescriptor> resolvedFileDescMap,
+			Executor executor, FileDescriptorPool fileDescPool) throws DescriptorValidationException {
+		// build FileDescriptors level by level, dependencies (imports) are always resolved first
+		List<FileDescriptor> fileDescList = new ArrayList<FileDescriptor>();
+		for (List<FileDescriptorProto> fdProtoList : levelList) {
+			FileDescriptor[] fds = buildLevel(fdProtoList, resolvedFileDescMap, executor, fileDescPool);
+			for (int i = 0; i < fds.length; i++) {
+				resolvedFileDescMap.put(fdProtoList.get(i).getName(), fds[i]);
+				fileDescList.add(fds[i]);
+			}
+		}
+		return fileDescList;
+	}
+
+	private static FileDescriptor[] buildLevel(List<FileDescriptorProto> fdProtoList, final Map<String,FileDescriptor> resolvedFileDescMap,
+			Executor executor, final FileDescriptorPool fileDescPool) throws DescriptorValidationException {
+		FileDescriptor[] fds = new FileDescriptor[fdProtoList.size()];
+		if (executor == null || fds.length == 1) {
+			for (int i = 0; i < fds.length; i++) fds[i] = buildFileDescriptor(fdProtoList.get(i), resolvedFileDescMap, fileDescPool);
+			return fds;
+		}
 		
-		return resolvedFileDescMap;
+		// resolvedFileDescMap is not modified while the tasks of a level are running
+		List<FutureTask<FileDescriptor>> taskList = new ArrayList<FutureTask<FileDescriptor>>(fds.length);
+		try {
+			for (final FileDescriptorProto fdProto : fdProtoList) {
+				FutureTask<FileDescriptor> task = new FutureTask<FileDescriptor>(new Callable<FileDescriptor>() {
+					public FileDescriptor call() throws DescriptorValidationException {
+						return buildFileDescriptor(fdProto, resolvedFileDescMap, fileDescPool);
+					}
+				});
+				taskList.add(task);
+				executor.execute(task);
+			}
+			for (int i = 0; i < fds.length; i++) fds[i] = taskList.get(i).get();
+			return fds;
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof DescriptorValidationException) throw (DescriptorValidationException)cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+			if (cause instanceof Error) throw (Error)cause;
+			throw new IllegalStateException(cause);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while building schema", e);
+		}
+		finally {
+			for (FutureTask<FileDescriptor> task : taskList) task.cancel(false); // no-op unless failed
+		}
+	}
+
+	private static FileDescriptor buildFileDescriptor(FileDescriptorProto fdProto, Map<String,FileDescriptor> resolvedFileDescMap,
+			FileDescriptorPool fileDescPool) throws DescriptorValidationException {
+		List<String> dependencyList = fdProto.getDependencyList();
+		FileDescriptor[] fds = new FileDescriptor[dependencyList.size()];
+		for (int i = 0; i < fds.length; i++) fds[i] = resolvedFileDescMap.get(dependencyList.get(i));
+		if (fileDescPool != null) return fileDescPool.buildFileDescriptor(fdProto, fds);
+		return FileDescriptor.buildFrom(fdProto, fds);
+	}
+
+	private void resolveLazy(String fdName) {
+		synchronized (mFileDescProtoMap) {
+			if (mFileDescMap.containsKey(fdName)) return;
+			
+			// collect the file and its unresolved transitive dependencies (imports)
+			Map<String,FileDescriptorProto> pendingFdProtoMap = new LinkedHashMap<String,FileDescriptorProto>();
+			List<String> fdNameStack = new ArrayList<String>();
+			fdNameStack.add(fdName);
+			while (!fdNameStack.isEmpty()) {
+				String name = fdNameStack.remove(fdNameStack.size() - 1);
+				if (mFileDescMap.containsKey(name) || pendingFdProtoMap.containsKey(name)) continue;
+				FileDescriptorProto fdProto = mFileDescProtoMap.get(name);
+				pendingFdProtoMap.put(name, fdProto);
+				fdNameStack.addAll(fdProto.getDependencyList());
+			}
+			
+			List<FileDescriptor> fileDescList;
+			try {
+				fileDescList = buildFileDescriptors(orderFileDescProtos(pendingFdProtoMap.values(), mFileDescMap), mFileDescMap, null, mFileDescPool);
+			}
+			catch (DescriptorValidationException e) {
+				throw new IllegalArgumentException(e.getMessage(), e);
+			}
+			
+			for (FileDescriptor fileDesc : fileDescList) addDescriptors(fileDesc);
+		}
+	}
+
+	private void addDescriptors(FileDescriptor fileDesc) {
+		for (Descriptor msgType : fileDesc.getMessageTypes()) addMessageDescriptor(msgType);
+		for (EnumDescriptor enumType : fileDesc.getEnumTypes()) addEnumDescriptor(enumType);
+	}
+
+	private void addMessageDescriptor(Descriptor msgType) {
+		mMsgDescriptors.set(Arrays.binarySearch(mMsgTypeNames, msgType.getFullName()), msgType);
+		for (Descriptor nestedType : msgType.getNestedTypes()) addMessageDescriptor(nestedType);
+		for (EnumDescriptor enumType : msgType.getEnumTypes()) addEnumDescriptor(enumType);
 	}
 
-	private void addMessageType(Descriptor msgType, String scope, Set<String> msgDupes, Set<String> enumDupes) {
-		String msgTypeNameFull = msgType.getFullName();
+	private void addEnumDescriptor(EnumDescriptor enumType) {
+		mEnumDescriptors.set(Arrays.binarySearch(mEnumTypeNames, enumType.getFullName()), enumType);
+	}
+
+	private void addTypeNames(String[] typeNames, String[] typeFiles, List<TypeName> typeNameList) {
+		for (int i = 0; i < typeNames.length; i++) {
+			String pkg = mFileDescProtoMap.get(typeFiles[i]).getPackage();
+			typeNameList.add(new TypeName(typeNames[i], shortTypeName(typeNames[i], pkg), typeFiles[i]));
+		}
+	}
+
+	private static String shortTypeName(String typeNameFull, String pkg) {
+		return (pkg.length() == 0 ? typeNameFull : typeNameFull.substring(pkg.length() + 1));
+	}
+
+	private static void addMessageTypeName(DescriptorProto msgType, String pkg, String scope, String fdName,
+			List<TypeName> msgTypeNameList, List<TypeName> enumTypeNameList) {
 		String msgTypeNameShort = (scope == null ? msgType.getName() : scope + "." + msgType.getName());
+		String msgTypeNameFull = (pkg == null ? msgTypeNameShort : pkg + "." + msgTypeNameShort);
+		msgTypeNameList.add(new TypeName(msgTypeNameFull, msgTypeNameShort, fdName));
 		
-		if (mMsgDescriptorMapFull.containsKey(msgTypeNameFull)) throw new IllegalArgumentException("duplicate name: " + msgTypeNameFull);
-		if (mMsgDescriptorMapShort.containsKey(msgTypeNameShort)) msgDupes.add(msgTypeNameShort);
-		
-		mMsgDescriptorMapFull.put(msgTypeNameFull, msgType);
-		mMsgDescriptorMapShort.put(msgTypeNameShort, msgType);
-		
-		for (Descriptor nestedType : msgType.getNestedTypes()) addMessageType(nestedType, msgTypeNameShort, msgDupes, enumDupes);
-		for (EnumDescriptor enumType : msgType.getEnumTypes()) addEnumType(enumType, msgTypeNameShort, enumDupes);
+		for (DescriptorProto nestedType : msgType.getNestedTypeList()) addMessageTypeName(nestedType, pkg, msgTypeNameShort, fdName, msgTypeNameList, enumTypeNameList);
+		for (EnumDescriptorProto enumType : msgType.getEnumTypeList()) addEnumTypeName(enumType, pkg, msgTypeNameShort, fdName, enumTypeNameList);
 	}
 
-	private void addEnumType(EnumDescriptor enumType, String scope, Set<String> enumDupes) {
-		String enumTypeNameFull = enumType.getFullName();
+	private static void addEnumTypeName(EnumDescriptorProto enumType, String pkg, String scope, String fdName, List<TypeName> enumTypeNameList) {
 		String enumTypeNameShort = (scope == null ? enumType.getName() : scope + "." + enumType.getName());
-		
-		if (mEnumDescriptorMapFull.containsKey(enumTypeNameFull)) throw new IllegalArgumentException("duplicate name: " + enumTypeNameFull);
-		if (mEnumDescriptorMapShort.containsKey(enumTypeNameShort)) enumDupes.add(enumTypeNameShort);
-		
-		mEnumDescriptorMapFull.put(enumTypeNameFull, enumType);
-		mEnumDescriptorMapShort.put(enumTypeNameShort, enumType);
+		String enumTypeNameFull = (pkg == null ? enumTypeNameShort : pkg + "." + enumTypeNameShort);
+		enumTypeNameList.add(new TypeName(enumTypeNameFull, enumTypeNameShort, fdName));
+	}
+
+	private static TypeIndex buildTypeIndex(List<TypeName> typeNameList, String[] typeNames, String[] typeFiles) {
+		Collections.sort(typeNameList);
+		String[] typeNamesShort = new String[typeNames.length];
+		for (int i = 0; i < typeNames.length; i++) {
+			TypeName typeName = typeNameList.get(i);
+			if (i > 0 && typeName.mFullName.equals(typeNames[i-1])) throw new IllegalArgumentException("duplicate name: " + typeName.mFullName);
+			typeNames[i] = typeName.mFullName;
+			typeNamesShort[i] = typeName.mShortName;
+			typeFiles[i] = typeName.mFileName;
+		}
+		return TypeIndex.build(typeNames, typeNamesShort);
+	}
+
+	/**
+	 * Type name (full and short) and name of the file defining the type, ordered by full name
+	 */
+	private static class TypeName implements Comparable<TypeName>
+	{
+		public TypeName(String fullName, String shortName, String fileName) {
+			mFullName = fullName;
+			mShortName = shortName;
+			mFileName = fileName;
+		}
+
+		public int compareTo(TypeName other) {
+			return mFullName.compareTo(other.mFullName);
+		}
+
+		private final String mFullName;
+		private final String mShortName;
+		private final String mFileName;
+	}
+
+	/**
+	 * Unmodifiable set view of a range of a sorted type name array
+	 */
+	private static class TypeNameSet extends AbstractSet<String>
+	{
+		public static TypeNameSet withPrefix(String[] typeNames, String prefix) {
+			int from = Arrays.binarySearch(typeNames, prefix);
+			if (from < 0) from = -from - 1;
+			int lo = from;
+			int hi = typeNames.length;
+			while (lo < hi) { // names starting with the prefix are contiguous from the insertion point
+				int mid = (lo + hi) >>> 1;
+				if (typeNames[mid].startsWith(prefix)) lo = mid + 1;
+				else hi = mid;
+			}
+			return new TypeNameSet(typeNames, from, lo);
+		}
+
+		public TypeNameSet(String[] typeNames, int from, int to) {
+			mTypeNames = typeNames;
+			mFrom = from;
+			mTo = to;
+		}
+
+		public int size() {
+			return mTo - mFrom;
+		}
+
+		public boolean contains(Object obj) {
+			if (!(obj instanceof String)) return false;
+			int idx = Arrays.binarySearch(mTypeNames, obj);
+			return idx >= mFrom && idx < mTo;
+		}
+
+		public Iterator<String> iterator() {
+			return new Iterator<String>() {
+				public boolean hasNext() {
+					return mPos < mTo;
+				}
+
+				public String next() {
+					if (mPos >= mTo) throw new NoSuchElementException();
+					return mTypeNames[mPos++];
+				}
+
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+
+				private int mPos = mFrom;
+			};
+		}
+
+		private final String[] mTypeNames;
+		private final int mFrom;
+		private final int mTo;
 	}
 
+	/**
+	 * Reads the remaining bytes of a byte buffer without copying them upfront
+	 */
+	private static class ByteBufferInputStream extends InputStream
+	{
+		public ByteBufferInputStream(ByteBuffer buf) {
+			mBuf = buf.duplicate();
+		}
+
+		public int read() {
+			return mBuf.hasRemaining() ? mBuf.get() & 0xff : -1;
+		}
+
+		public int read(byte[] b, int off, int len) {
+			if (!mBuf.hasRemaining()) return -1;
+			len = Math.min(len, mBuf.remaining());
+			mBuf.get(b, off, len);
+			return len;
+		}
+
+		public int available() {
+			return mBuf.remaining();
+		}
+
+		private ByteBuffer mBuf;
+	}
+
+	private static final byte[] SNAPSHOT_MAGIC = { 'P', 'B', 'D', 'S' };
+	private static final int SNAPSHOT_VERSION = 1;
+
 	private FileDescriptorSet mFileDescSet;
-	private Map<String,Descriptor> mMsgDescriptorMapFull = new HashMap<String,Descriptor>();
-	private Map<String,Descriptor> mMsgDescriptorMapShort = new HashMap<String,Descriptor>();
-	private Map<String,EnumDescriptor> mEnumDescriptorMapFull = new HashMap<String,EnumDescriptor>();
-	private Map<String,EnumDescriptor> mEnumDescriptorMapShort = new HashMap<String,EnumDescriptor>();
+	private FileDescriptorPool mFileDescPool;
+	private Map<String,FileDescriptorProto> mFileDescProtoMap = new HashMap<String,FileDescriptorProto>();
+	private Map<String,FileDescriptor> mFileDescMap;
+	private boolean mLazy; // lazy mode: files are built on first lookup of one of their types
+
+	// type handle -> full name (sorted), name of the file defining the type, descriptor (null until built)
+	private String[] mMsgTypeNames;
+	private String[] mMsgTypeFiles;
+	private AtomicReferenceArray<Descriptor> mMsgDescriptors;
+	private AtomicReferenceArray<MessageAccessor> mMsgAccessors; // created on first use
+	private AtomicReferenceArray<CompiledMessageType> mCompiledTypes; // compiled on first use
+	private Map<Descriptor,CompiledMessageType> mCompiledTypeMap = new HashMap<Descriptor,CompiledMessageType>();
+	private AtomicReferenceArray<JsonCodec> mJsonCodecs; // compiled on first use
+	private TypeIndex mMsgTypeIndex; // type name (full or short) -> type handle
+	private Set<String> mMsgTypeSet;
+	private String[] mEnumTypeNames;
+	private String[] mEnumTypeFiles;
+	private AtomicReferenceArray<EnumDescriptor> mEnumDescriptors;
+	private TypeIndex mEnumTypeIndex;
+	private Set<String> mEnumTypeSet;
 
 	/**
 	 * DynamicSchema.Builder
@@ -292,10 +1303,31 @@ public class DynamicSchema
 		 * @throws DescriptorValidationException
 		 */
 		public DynamicSchema build() throws DescriptorValidationException {
-			FileDescriptorSet.Builder fileDescSetBuilder = FileDescriptorSet.newBuilder();
-			fileDescSetBuilder.addFile(mFileDescProtoBuilder.build());
-			fileDescSetBuilder.mergeFrom(mFileDescSetBuilder.build());
-			return new DynamicSchema(fileDescSetBuilder.build());
+			return new DynamicSchema(buildFileDescSet(), null, null, false);
+		}
+
+		/**
+		 * Builds a dynamic schema; files that do not depend on each other are built in parallel
+		 * on the given executor
+		 * 
+		 * @param executor the executor used to build the file descriptors
+		 * @return the schema object
+		 * @throws DescriptorValidationException
+		 */
+		public DynamicSchema build(Executor executor) throws DescriptorValidationException {
+			return new DynamicSchema(buildFileDescSet(), executor, null, false);
+		}
+
+		/**
+		 * Builds a dynamic schema; file descriptors are shared through the given pool with other schemas
+		 * containing identical files
+		 * 
+		 * @param fileDescPool the file descriptor pool
+		 * @return the schema object
+		 * @throws DescriptorValidationException
+		 */
+		public DynamicSchema build(FileDescriptorPool fileDescPool) throws DescriptorValidationException {
+			return new DynamicSchema(buildFileDescSet(), null, fileDescPool, false);
 		}
 
 		public Builder setName(String name) {
@@ -347,6 +1379,13 @@ public class DynamicSchema
 			mFileDescSetBuilder = FileDescriptorSet.newBuilder();
 		}
 
+		private FileDescriptorSet buildFileDescSet() {
+			FileDescriptorSet.Builder fileDescSetBuilder = FileDescriptorSet.newBuilder();
+			fileDescSetBuilder.addFile(mFileDescProtoBuilder.build());
+			fileDescSetBuilder.mergeFrom(mFileDescSetBuilder.build());
+			return fileDescSetBuilder.build();
+		}
+
 		private FileDescriptorProto.Builder mFileDescProtoBuilder;
 		private FileDescriptorSet.Builder mFileDescSetBuilder;
 	}
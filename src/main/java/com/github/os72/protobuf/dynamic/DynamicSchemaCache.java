@@ -0,0 +1,151 @@
+/*
+ * Copyright 2015 protobuf-dynamic developers
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.os72.protobuf.dynamic;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.protobuf.Descriptors.DescriptorValidationException;
+
+/**
+ * DynamicSchemaCache - bounded LRU cache of parsed schemas, keyed by a 128-bit hash of the serialized
+ * schema descriptor; repeated parsing of identical descriptors costs a hash, a lookup and a byte comparison
+ * (thread safe)
+ * <p>
+ * The hash is not cryptographic: a hit is verified against the cached descriptor bytes, a colliding
+ * descriptor is parsed (not cached) rather than mistaken for the cached one
+ */
+public class DynamicSchemaCache
+{
+	// --- public ---
+
+	/**
+	 * Creates a schema cache
+	 * 
+	 * @param maxSize the maximum number of schemas kept, least recently used schemas are evicted first
+	 */
+	@SuppressWarnings("serial")
+	public DynamicSchemaCache(int maxSize) {
+		if (maxSize <= 0) throw new IllegalArgumentException("invalid cache size: " + maxSize);
+		mMaxSize = maxSize;
+		mSchemaMap = new LinkedHashMap<Fingerprint,CacheEntry>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<Fingerprint,CacheEntry> eldest) {
+				if (size() <= mMaxSize) return false;
+				mEvictionCount++;
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Parses a serialized schema descriptor (from byte array), or returns the cached schema
+	 * if an identical descriptor was parsed before
+	 * 
+	 * @param schemaDescBuf the descriptor byte array
+	 * @return the schema object
+	 * @throws DescriptorValidationException
+	 * @throws IOException
+	 */
+	public DynamicSchema parseFrom(byte[] schemaDescBuf) throws DescriptorValidationException, IOException {
+		Fingerprint key = Fingerprint.of(schemaDescBuf);
+		synchronized (mSchemaMap) {
+			CacheEntry entry = mSchemaMap.get(key);
+			if (entry != null && Arrays.equals(entry.mSchemaDescBuf, schemaDescBuf)) {
+				mHitCount++;
+				return entry.mSchema;
+			}
+			mMissCount++;
+		}
+
+		// parse outside the lock, concurrent misses for the same descriptor may parse it more than once
+		DynamicSchema schema = DynamicSchema.parseFrom(schemaDescBuf);
+		synchronized (mSchemaMap) {
+			CacheEntry entry = mSchemaMap.get(key);
+			if (entry == null) mSchemaMap.put(key, new CacheEntry(schemaDescBuf.clone(), schema));
+			else if (Arrays.equals(entry.mSchemaDescBuf, schemaDescBuf)) return entry.mSchema;
+			// else hash collision, the cached schema is kept
+		}
+		return schema;
+	}
+
+	/**
+	 * Removes all schemas from the cache (statistics are kept)
+	 */
+	public void clear() {
+		synchronized (mSchemaMap) {
+			mSchemaMap.clear();
+		}
+	}
+
+	public int size() {
+		synchronized (mSchemaMap) {
+			return mSchemaMap.size();
+		}
+	}
+
+	public int getMaxSize() {
+		return mMaxSize;
+	}
+
+	public long getHitCount() {
+		synchronized (mSchemaMap) {
+			return mHitCount;
+		}
+	}
+
+	public long getMissCount() {
+		synchronized (mSchemaMap) {
+			return mMissCount;
+		}
+	}
+
+	public long getEvictionCount() {
+		synchronized (mSchemaMap) {
+			return mEvictionCount;
+		}
+	}
+
+	public String toString() {
+		synchronized (mSchemaMap) {
+			return "size: " + mSchemaMap.size() + "/" + mMaxSize + ", hits: " + mHitCount + ", misses: " + mMissCount + ", evictions: " + mEvictionCount;
+		}
+	}
+
+	// --- private ---
+
+	private final int mMaxSize;
+	private final Map<Fingerprint,CacheEntry> mSchemaMap;
+	private long mHitCount;
+	private long mMissCount;
+	private long mEvictionCount;
+
+	/**
+	 * DynamicSchemaCache.CacheEntry - cached schema and its descriptor bytes, to verify hits
+	 */
+	private static class CacheEntry
+	{
+		public CacheEntry(byte[] schemaDescBuf, DynamicSchema schema) {
+			mSchemaDescBuf = schemaDescBuf;
+			mSchema = schema;
+		}
+
+		private final byte[] mSchemaDescBuf;
+		private final DynamicSchema mSchema;
+	}
+}
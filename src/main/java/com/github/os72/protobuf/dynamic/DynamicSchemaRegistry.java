@@ -0,0 +1,191 @@
+/*
+ * Copyright 2015 protobuf-dynamic developers
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.os72.protobuf.dynamic;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.protobuf.Descriptors.Descriptor;
+
+/**
+ * DynamicSchemaRegistry - schemas by id, e.g. one per tenant or topic (thread safe)
+ * <p>
+ * Lookups are lock-free, registrations lock a single stripe of the underlying concurrent map. Optionally,
+ * schemas not looked up for an idle timeout are evicted: lookups only mark a schema as accessed (a write
+ * once per timeout at most), a periodic sweep evicts the schemas not marked since the previous sweep.
+ */
+public class DynamicSchemaRegistry implements Closeable
+{
+	// --- public ---
+
+	/**
+	 * Creates a schema registry without eviction
+	 */
+	public DynamicSchemaRegistry() {
+		mSweeper = null;
+	}
+
+	/**
+	 * Creates a schema registry evicting idle schemas: schemas not looked up for idleTimeoutMillis
+	 * are evicted within idleTimeoutMillis after that (swept in the background)
+	 * 
+	 * @param idleTimeoutMillis the idle timeout in milliseconds
+	 */
+	public DynamicSchemaRegistry(long idleTimeoutMillis) {
+		if (idleTimeoutMillis <= 0) throw new IllegalArgumentException("invalid idle timeout: " + idleTimeoutMillis);
+		mSweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "DynamicSchemaRegistry-sweeper");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		mSweeper.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				evictIdle();
+			}
+		}, idleTimeoutMillis, idleTimeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Registers a schema, replacing the schema registered with the same id
+	 * 
+	 * @param schemaId the schema id
+	 * @param schema the schema object
+	 * @return the replaced schema (null if none)
+	 */
+	public DynamicSchema register(String schemaId, DynamicSchema schema) {
+		if (schema == null) throw new NullPointerException("schema");
+		SchemaEntry entry = mSchemaMap.put(schemaId, new SchemaEntry(schema));
+		return (entry == null ? null : entry.mSchema);
+	}
+
+	/**
+	 * Registers a schema unless a schema is registered with the same id
+	 * 
+	 * @param schemaId the schema id
+	 * @param schema the schema object
+	 * @return the schema registered with the id (the given schema if there was none)
+	 */
+	public DynamicSchema registerIfAbsent(String schemaId, DynamicSchema schema) {
+		if (schema == null) throw new NullPointerException("schema");
+		SchemaEntry entry = mSchemaMap.putIfAbsent(schemaId, new SchemaEntry(schema));
+		if (entry == null) return schema;
+		entry.mAccessed = true;
+		return entry.mSchema;
+	}
+
+	/**
+	 * Unregisters a schema
+	 * 
+	 * @param schemaId the schema id
+	 * @return the unregistered schema (null if not found)
+	 */
+	public DynamicSchema unregister(String schemaId) {
+		SchemaEntry entry = mSchemaMap.remove(schemaId);
+		return (entry == null ? null : entry.mSchema);
+	}
+
+	/**
+	 * Gets the schema registered with the given id (lock-free)
+	 * 
+	 * @param schemaId the schema id
+	 * @return the schema object (null if not found)
+	 */
+	public DynamicSchema get(String schemaId) {
+		SchemaEntry entry = mSchemaMap.get(schemaId);
+		if (entry == null) return null;
+		if (!entry.mAccessed) entry.mAccessed = true; // avoid writing a shared cache line on every lookup
+		return entry.mSchema;
+	}
+
+	/**
+	 * Gets the protobuf message descriptor for the given schema id and message type (lock-free)
+	 * 
+	 * @param schemaId the schema id
+	 * @param msgTypeName the message type name
+	 * @return the message descriptor (null if not found)
+	 */
+	public Descriptor getMessageDescriptor(String schemaId, String msgTypeName) {
+		DynamicSchema schema = get(schemaId);
+		if (schema == null) return null;
+		return schema.getMessageDescriptor(msgTypeName);
+	}
+
+	/**
+	 * Evicts the schemas not looked up since the previous call (called periodically when the registry
+	 * was created with an idle timeout)
+	 * 
+	 * @return the number of evicted schemas
+	 */
+	public int evictIdle() {
+		int evictedCount = 0;
+		for (Map.Entry<String,SchemaEntry> e : mSchemaMap.entrySet()) {
+			SchemaEntry entry = e.getValue();
+			if (entry.mAccessed) entry.mAccessed = false;
+			else if (mSchemaMap.remove(e.getKey(), entry)) evictedCount++; // unless re-registered meanwhile
+		}
+		mEvictionCount.addAndGet(evictedCount);
+		return evictedCount;
+	}
+
+	/**
+	 * Stops evicting idle schemas in the background, the registered schemas remain available
+	 */
+	public void close() {
+		if (mSweeper != null) mSweeper.shutdownNow();
+	}
+
+	public int size() {
+		return mSchemaMap.size();
+	}
+
+	public long getEvictionCount() {
+		return mEvictionCount.get();
+	}
+
+	public String toString() {
+		return "size: " + mSchemaMap.size() + ", evictions: " + mEvictionCount.get();
+	}
+
+	// --- private ---
+
+	private final ConcurrentMap<String,SchemaEntry> mSchemaMap = new ConcurrentHashMap<String,SchemaEntry>();
+	private final ScheduledExecutorService mSweeper;
+	private final AtomicLong mEvictionCount = new AtomicLong();
+
+	/**
+	 * DynamicSchemaRegistry.SchemaEntry - schema and its access mark
+	 */
+	private static class SchemaEntry
+	{
+		public SchemaEntry(DynamicSchema schema) {
+			mSchema = schema;
+			mAccessed = true; // registering counts as an access
+		}
+
+		private final DynamicSchema mSchema;
+		private volatile boolean mAccessed;
+	}
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright 2015 protobuf-dynamic developers
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.os72.protobuf.dynamic;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.github.os72.protobuf.dynamic.CompiledMessageType.CompiledField;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.WireFormat;
+
+/**
+ * FieldProjection - parses only the given field paths of a message type (thread safe)
+ * <p>
+ * Field paths are dot-separated field names from the message type, e.g. "customer.id"; repeated fields may
+ * be marked with [] ("items[].sku"), the path then applies to every element. A path ending at a message
+ * field selects the whole message. Paths are compiled into one table per nesting level keyed by field number,
+ * holding only the selected fields: all other fields are skipped at the wire level, without decoding them.
+ * <p>
+ * Parsed messages are partial messages of the full message type, with only the selected fields set (required
+ * fields are not checked). Enum numbers unknown to the enum type are dropped.
+ */
+public class FieldProjection
+{
+	// --- public ---
+
+	public Descriptor getDescriptor() {
+		return mRoot.mType.mMsgType;
+	}
+
+	public List<String> getFieldPaths() {
+		return mFieldPaths;
+	}
+
+	/**
+	 * Parses the selected fields of a message from the given bytes
+	 * 
+	 * @param buf the serialized message
+	 * @return the partial message
+	 * @throws InvalidProtocolBufferException
+	 */
+	public DynamicMessage parseFrom(byte[] buf) throws InvalidProtocolBufferException {
+		try {
+			return parseFrom(CodedInputStream.newInstance(buf));
+		}
+		catch (InvalidProtocolBufferException e) {
+			throw e;
+		}
+		catch (IOException e) {
+			throw new IllegalStateException(e); // not thrown reading from a byte array
+		}
+	}
+
+	/**
+	 * Parses the selected fields of a message from the remaining bytes of a byte buffer (heap, direct
+	 * or memory-mapped); the buffer position is not changed
+	 * 
+	 * @param buf the serialized message
+	 * @return the partial message
+	 * @throws IOException
+	 */
+	public DynamicMessage parseFrom(ByteBuffer buf) throws IOException {
+		return parseFrom(DynamicSchema.newCodedInput(buf));
+	}
+
+	/**
+	 * Parses the selected fields of a message from the given input, up to the end of the input (or the
+	 * current limit)
+	 * 
+	 * @param input the input
+	 * @return the partial message
+	 * @throws IOException
+	 */
+	public DynamicMessage parseFrom(CodedInputStream input) throws IOException {
+		DynamicMessage.Builder builder = DynamicMessage.newBuilder(mRoot.mType.mMsgType);
+		parseFields(mRoot, builder, input, 0);
+		input.checkLastTagWas(0);
+		return builder.buildPartial();
+	}
+
+	public String toString() {
+		return mRoot.mType.mMsgType.getFullName() + ": " + mFieldPaths;
+	}
+
+	// --- package ---
+
+	/**
+	 * Compiles the given field paths
+	 * 
+	 * @param type the compiled message type
+	 * @param fieldPaths the field paths
+	 * @throws IllegalArgumentException if a field path is invalid
+	 */
+	FieldProjection(CompiledMessageType type, String[] fieldPaths) {
+		if (fieldPaths.length == 0) throw new IllegalArgumentException("no field paths");
+		mRoot = new ProjectionNode(type);
+		for (String fieldPath : fieldPaths) addFieldPath(mRoot, fieldPath);
+		mRoot.compile();
+		mFieldPaths = Collections.unmodifiableList(Arrays.asList(fieldPaths.clone()));
+	}
+
+	// --- private ---
+
+	private static void addFieldPath(ProjectionNode root, String fieldPath) {
+		ProjectionNode node = root;
+		String[] names = fieldPath.split("\\.", -1);
+		for (int i = 0; i < names.length; i++) {
+			String name = names[i];
+			boolean elements = name.endsWith("[]");
+			if (elements) name = name.substring(0, name.length() - 2);
+			int fieldHandle = node.mType.getFieldHandle(name);
+			if (fieldHandle < 0) throw new IllegalArgumentException("invalid field path: " + fieldPath + ": field " + name + " not found in " + node.mType.mMsgType.getFullName());
+			CompiledField field = node.mType.mFields[fieldHandle];
+			if (elements && !field.mRepeated) throw new IllegalArgumentException("invalid field path: " + fieldPath + ": field " + name + " not repeated");
+			boolean last = (i == names.length - 1);
+			if (!last && field.mJavaType != FieldDescriptor.JavaType.MESSAGE) {
+				throw new IllegalArgumentException("invalid field path: " + fieldPath + ": field " + name + " not a message field");
+			}
+
+			ProjectedField projected = node.mSelected[fieldHandle];
+			if (last) { // whole field, overrides narrower paths
+				node.mSelected[fieldHandle] = new ProjectedField(field, null);
+				return;
+			}
+			if (projected != null && projected.mChild == null) return; // whole field already selected
+			if (projected == null) node.mSelected[fieldHandle] = projected = new ProjectedField(field, new ProjectionNode(field.mMessageType));
+			node = projected.mChild;
+		}
+	}
+
+	private static void parseFields(ProjectionNode node, DynamicMessage.Builder builder, CodedInputStream input, int depth) throws IOException {
+		while (true) {
+			int tag = input.readTag();
+			if (tag == 0) return;
+			ProjectedField projected = node.get(WireFormat.getTagFieldNumber(tag));
+			if (projected == null) {
+				if (!input.skipField(tag)) return; // end group
+				continue;
+			}
+			CompiledField field = projected.mField;
+			int wireType = tag & 7;
+			if (wireType == field.mWireType) {
+				readValue(projected, builder, input, depth);
+			}
+			else if (field.mPackable && wireType == WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+				int oldLimit = input.pushLimit(input.readRawVarint32());
+				while (input.getBytesUntilLimit() > 0) readValue(projected, builder, input, depth);
+				input.popLimit(oldLimit);
+			}
+			else if (!input.skipField(tag)) {
+				return;
+			}
+		}
+	}
+
+	private static void readValue(ProjectedField projected, DynamicMessage.Builder builder, CodedInputStream input, int depth) throws IOException {
+		CompiledField field = projected.mField;
+		FieldDescriptor fd = field.mDescriptor;
+		Object value;
+		switch (field.mJavaType) {
+		case INT: value = (int)CompiledMessage.readBits(field, input); break;
+		case LONG: value = CompiledMessage.readBits(field, input); break;
+		case FLOAT: value = Float.intBitsToFloat((int)CompiledMessage.readBits(field, input)); break;
+		case DOUBLE: value = Double.longBitsToDouble(CompiledMessage.readBits(field, input)); break;
+		case BOOLEAN: value = CompiledMessage.readBits(field, input) != 0; break;
+		case STRING: value = input.readString(); break;
+		case BYTE_STRING: value = input.readBytes(); break;
+		case ENUM:
+			EnumValueDescriptor enumValue = fd.getEnumType().findValueByNumber(input.readRawVarint32());
+			if (enumValue == null) return;
+			value = enumValue;
+			break;
+		default: // MESSAGE
+			if (depth >= RECURSION_LIMIT) throw new InvalidProtocolBufferException("message nesting too deep");
+			DynamicMessage.Builder msgBuilder = DynamicMessage.newBuilder(fd.getMessageType());
+			if (projected.mChild == null) {
+				input.readMessage(msgBuilder, ExtensionRegistryLite.getEmptyRegistry());
+			}
+			else {
+				int oldLimit = input.pushLimit(input.readRawVarint32());
+				parseFields(projected.mChild, msgBuilder, input, depth + 1);
+				input.checkLastTagWas(0);
+				input.popLimit(oldLimit);
+			}
+			if (!field.mRepeated && builder.hasField(fd)) { // a singular message field occurring more than once is merged
+				value = ((Message)builder.getField(fd)).toBuilder().mergeFrom(msgBuilder.buildPartial()).buildPartial();
+			}
+			else {
+				value = msgBuilder.buildPartial();
+			}
+		}
+		if (field.mRepeated) builder.addRepeatedField(fd, value);
+		else builder.setField(fd, value);
+	}
+
+	private static final int RECURSION_LIMIT = 64; // same as CodedInputStream
+
+	private final ProjectionNode mRoot;
+	private final List<String> mFieldPaths;
+
+	/**
+	 * FieldProjection.ProjectionNode - selected fields of a message type, at one nesting level
+	 */
+	private static class ProjectionNode
+	{
+		public ProjectionNode(CompiledMessageType type) {
+			mType = type;
+			mSelected = new ProjectedField[type.mFields.length];
+		}
+
+		public void compile() {
+			int maxNumber = 0;
+			List<ProjectedField> selectedList = new ArrayList<ProjectedField>();
+			for (ProjectedField projected : mSelected) {
+				if (projected == null) continue;
+				selectedList.add(projected);
+				maxNumber = Math.max(maxNumber, projected.mField.mNumber);
+				if (projected.mChild != null) projected.mChild.compile();
+			}
+			if (maxNumber <= Math.max(64, 8 * selectedList.size())) { // only the selected fields, usually a few
+				mByNumber = new ProjectedField[maxNumber + 1];
+				for (ProjectedField projected : selectedList) mByNumber[projected.mField.mNumber] = projected;
+			}
+			else { // sparse field numbers
+				mSortedByNumber = selectedList.toArray(new ProjectedField[selectedList.size()]);
+				mSortedNumbers = new int[mSortedByNumber.length];
+				for (int i = 0; i < mSortedByNumber.length; i++) mSortedNumbers[i] = mSortedByNumber[i].mField.mNumber;
+				sortByNumber(mSortedNumbers, mSortedByNumber);
+			}
+		}
+
+		public ProjectedField get(int fieldNumber) {
+			if (mByNumber != null) return (fieldNumber < mByNumber.length ? mByNumber[fieldNumber] : null);
+			int idx = Arrays.binarySearch(mSortedNumbers, fieldNumber);
+			return (idx < 0 ? null : mSortedByNumber[idx]);
+		}
+
+		private static void sortByNumber(int[] numbers, ProjectedField[] fields) { // insertion sort, a few fields
+			for (int i = 1; i < numbers.length; i++) {
+				for (int j = i; j > 0 && numbers[j - 1] > numbers[j]; j--) {
+					int number = numbers[j]; numbers[j] = numbers[j - 1]; numbers[j - 1] = number;
+					ProjectedField field = fields[j]; fields[j] = fields[j - 1]; fields[j - 1] = field;
+				}
+			}
+		}
+
+		private final CompiledMessageType mType;
+		private final ProjectedField[] mSelected; // by field handle, while adding paths
+		private ProjectedField[] mByNumber;
+		private int[] mSortedNumbers;
+		private ProjectedField[] mSortedByNumber;
+	}
+
+	/**
+	 * FieldProjection.ProjectedField - selected field, and its selected subfields (null: the whole field)
+	 */
+	private static class ProjectedField
+	{
+		public ProjectedField(CompiledField field, ProjectionNode child) {
+			mField = field;
+			mChild = child;
+		}
+
+		private final CompiledField mField;
+		private final ProjectionNode mChild;
+	}
+}
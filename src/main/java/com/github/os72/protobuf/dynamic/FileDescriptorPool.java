@@ -0,0 +1,174 @@
+/*
+ * Copyright 2015 protobuf-dynamic developers
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.os72.protobuf.dynamic;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.Descriptors.DescriptorValidationException;
+import com.google.protobuf.Descriptors.FileDescriptor;
+
+/**
+ * FileDescriptorPool - shares built file descriptors across schemas (thread safe)
+ * <p>
+ * Files are keyed by name, content hash and the (pooled) file descriptors of their dependencies, so identical
+ * files imported by many schemas are built once and share a single descriptor graph. Pooled descriptors are
+ * weakly referenced, they are released once no schema uses them anymore.
+ */
+public class FileDescriptorPool
+{
+	// --- public ---
+
+	/**
+	 * Returns the number of pooled file descriptors
+	 * 
+	 * @return the pool size
+	 */
+	public int size() {
+		synchronized (mFileDescMap) {
+			expungeStaleEntries();
+			return mFileDescMap.size();
+		}
+	}
+
+	/**
+	 * Removes all file descriptors from the pool (statistics are kept)
+	 */
+	public void clear() {
+		synchronized (mFileDescMap) {
+			mFileDescMap.clear();
+		}
+	}
+
+	public long getHitCount() {
+		synchronized (mFileDescMap) {
+			return mHitCount;
+		}
+	}
+
+	public long getMissCount() {
+		synchronized (mFileDescMap) {
+			return mMissCount;
+		}
+	}
+
+	public String toString() {
+		synchronized (mFileDescMap) {
+			return "size: " + mFileDescMap.size() + ", hits: " + mHitCount + ", misses: " + mMissCount;
+		}
+	}
+
+	// --- package ---
+
+	/**
+	 * Returns the pooled file descriptor for the given file and dependencies, builds and pools it if needed
+	 */
+	FileDescriptor buildFileDescriptor(FileDescriptorProto fdProto, FileDescriptor[] dependencies) throws DescriptorValidationException {
+		PoolKey key = new PoolKey(fdProto, dependencies);
+		synchronized (mFileDescMap) {
+			FileDescriptor fd = get(key, fdProto);
+			if (fd != null) {
+				mHitCount++;
+				return fd;
+			}
+			mMissCount++;
+		}
+
+		// build outside the lock, concurrent misses for the same file may build it more than once
+		FileDescriptor fd = FileDescriptor.buildFrom(fdProto, dependencies);
+		synchronized (mFileDescMap) {
+			FileDescriptor pooledFd = get(key, fdProto);
+			if (pooledFd != null) return pooledFd;
+			mFileDescMap.put(key, new PoolRef(key, fd, mRefQueue));
+		}
+		return fd;
+	}
+
+	// --- private ---
+
+	private FileDescriptor get(PoolKey key, FileDescriptorProto fdProto) {
+		expungeStaleEntries();
+		PoolRef ref = mFileDescMap.get(key);
+		FileDescriptor fd = (ref == null ? null : ref.get());
+		if (fd == null || !fd.toProto().equals(fdProto)) return null; // guard against hash collisions
+		return fd;
+	}
+
+	private void expungeStaleEntries() {
+		PoolRef ref;
+		while ((ref = (PoolRef)mRefQueue.poll()) != null) {
+			if (mFileDescMap.get(ref.mKey) == ref) mFileDescMap.remove(ref.mKey);
+		}
+	}
+
+	private final Map<PoolKey,PoolRef> mFileDescMap = new HashMap<PoolKey,PoolRef>();
+	private final ReferenceQueue<FileDescriptor> mRefQueue = new ReferenceQueue<FileDescriptor>();
+	private long mHitCount;
+	private long mMissCount;
+
+	/**
+	 * FileDescriptorPool.PoolKey - file name, content hash, dependencies (by identity)
+	 */
+	private static class PoolKey
+	{
+		public PoolKey(FileDescriptorProto fdProto, FileDescriptor[] dependencies) {
+			mName = fdProto.getName();
+			mFingerprint = Fingerprint.of(fdProto.toByteArray());
+			mDependencies = dependencies;
+			int hash = mName.hashCode() * 31 + mFingerprint.hashCode();
+			for (FileDescriptor dependency : dependencies) hash = hash * 31 + System.identityHashCode(dependency);
+			mHash = hash;
+		}
+
+		public boolean equals(Object obj) {
+			if (this == obj) return true;
+			if (!(obj instanceof PoolKey)) return false;
+			PoolKey other = (PoolKey)obj;
+			if (mHash != other.mHash || !mName.equals(other.mName) || !mFingerprint.equals(other.mFingerprint)) return false;
+			if (mDependencies.length != other.mDependencies.length) return false;
+			for (int i = 0; i < mDependencies.length; i++) {
+				if (mDependencies[i] != other.mDependencies[i]) return false;
+			}
+			return true;
+		}
+
+		public int hashCode() {
+			return mHash;
+		}
+
+		private final String mName;
+		private final Fingerprint mFingerprint;
+		private final FileDescriptor[] mDependencies;
+		private final int mHash;
+	}
+
+	/**
+	 * FileDescriptorPool.PoolRef - weak reference to a pooled file descriptor
+	 */
+	private static class PoolRef extends WeakReference<FileDescriptor>
+	{
+		public PoolRef(PoolKey key, FileDescriptor fd, ReferenceQueue<FileDescriptor> refQueue) {
+			super(fd, refQueue);
+			mKey = key;
+		}
+
+		private final PoolKey mKey;
+	}
+}
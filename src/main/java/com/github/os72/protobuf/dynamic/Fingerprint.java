@@ -0,0 +1,138 @@
+/*
+ * Copyright 2015 protobuf-dynamic developers
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.os72.protobuf.dynamic;
+
+/**
+ * Fingerprint - 128-bit content hash (MurmurHash3 x64 128), not cryptographic
+ */
+final class Fingerprint
+{
+	// --- package static ---
+
+	static Fingerprint of(byte[] buf) {
+		return of(buf, 0, buf.length);
+	}
+
+	static Fingerprint of(byte[] buf, int off, int len) {
+		long h1 = 0;
+		long h2 = 0;
+
+		int blockCount = len >>> 4;
+		for (int i = 0; i < blockCount; i++) {
+			int pos = off + (i << 4);
+			h1 ^= mixK1(getLongLE(buf, pos));
+			h1 = Long.rotateLeft(h1, 27) + h2;
+			h1 = h1 * 5 + 0x52dce729;
+			h2 ^= mixK2(getLongLE(buf, pos + 8));
+			h2 = Long.rotateLeft(h2, 31) + h1;
+			h2 = h2 * 5 + 0x38495ab5;
+		}
+
+		int tailPos = off + (blockCount << 4);
+		int tailLen = len & 15;
+		long k1 = 0;
+		long k2 = 0;
+		for (int i = tailLen - 1; i >= 8; i--) k2 ^= (long)(buf[tailPos + i] & 0xff) << ((i - 8) << 3);
+		for (int i = Math.min(tailLen, 8) - 1; i >= 0; i--) k1 ^= (long)(buf[tailPos + i] & 0xff) << (i << 3);
+		if (tailLen > 8) h2 ^= mixK2(k2);
+		if (tailLen > 0) h1 ^= mixK1(k1);
+
+		h1 ^= len;
+		h2 ^= len;
+		h1 += h2;
+		h2 += h1;
+		h1 = fmix64(h1);
+		h2 = fmix64(h2);
+		h1 += h2;
+		h2 += h1;
+		return new Fingerprint(h1, h2, len);
+	}
+
+	// --- package ---
+
+	/**
+	 * Returns the 128-bit hash as 16 bytes (little endian)
+	 */
+	byte[] toByteArray() {
+		byte[] buf = new byte[16];
+		for (int i = 0; i < 8; i++) {
+			buf[i] = (byte)(mHash1 >>> (i << 3));
+			buf[i + 8] = (byte)(mHash2 >>> (i << 3));
+		}
+		return buf;
+	}
+
+	// --- public ---
+
+	public boolean equals(Object obj) {
+		if (this == obj) return true;
+		if (!(obj instanceof Fingerprint)) return false;
+		Fingerprint other = (Fingerprint)obj;
+		return mHash1 == other.mHash1 && mHash2 == other.mHash2 && mLength == other.mLength;
+	}
+
+	public int hashCode() {
+		return (int)mHash1;
+	}
+
+	public String toString() {
+		return String.format("%016x%016x", mHash1, mHash2);
+	}
+
+	// --- private ---
+
+	private Fingerprint(long hash1, long hash2, int length) {
+		mHash1 = hash1;
+		mHash2 = hash2;
+		mLength = length;
+	}
+
+	private static long getLongLE(byte[] buf, int pos) {
+		return (buf[pos] & 0xffL)
+				| (buf[pos + 1] & 0xffL) << 8
+				| (buf[pos + 2] & 0xffL) << 16
+				| (buf[pos + 3] & 0xffL) << 24
+				| (buf[pos + 4] & 0xffL) << 32
+				| (buf[pos + 5] & 0xffL) << 40
+				| (buf[pos + 6] & 0xffL) << 48
+				| (buf[pos + 7] & 0xffL) << 56;
+	}
+
+	private static long mixK1(long k1) {
+		return Long.rotateLeft(k1 * C1, 31) * C2;
+	}
+
+	private static long mixK2(long k2) {
+		return Long.rotateLeft(k2 * C2, 33) * C1;
+	}
+
+	private static long fmix64(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+
+	private static final long C1 = 0x87c37b91114253d5L;
+	private static final long C2 = 0x4cf5ad432745937fL;
+
+	private final long mHash1;
+	private final long mHash2;
+	private final int mLength;
+}
@@ -0,0 +1,890 @@
+/*
+ * Copyright 2015 protobuf-dynamic developers
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.os72.protobuf.dynamic;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import com.github.os72.protobuf.dynamic.CompiledMessageType.CompiledField;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.UninitializedMessageException;
+
+/**
+ * JsonCodec - encodes messages of a message type as JSON and parses JSON into dynamic messages, compiled
+ * once per message type (thread safe)
+ * <p>
+ * The JSON format follows the proto3 JSON mapping: field names in lowerCamelCase (the original field names
+ * are accepted too), unset fields omitted, 64-bit integers as strings, enums as value names (numbers are
+ * accepted too), bytes as base64, NaN and Infinity as strings. Field names are encoded ahead of time, and
+ * values are written as UTF-8 straight into a reusable {@link Output} buffer. The parser reads UTF-8 bytes
+ * directly into a message builder, without an intermediate tree; unknown field names are rejected. Groups
+ * are not supported, a message type with group fields cannot be compiled.
+ */
+public class JsonCodec
+{
+	// --- public ---
+
+	public Descriptor getDescriptor() {
+		return mRoot.mMsgType;
+	}
+
+	/**
+	 * Encodes a message (dynamic or generated, of the codec's message type) as JSON, appended to the given output
+	 * 
+	 * @param msg the message
+	 * @param out the output
+	 * @throws IllegalArgumentException if the message type does not match
+	 */
+	public void encode(Message msg, Output out) {
+		writeMessage(mRoot, checkType(msg), out);
+	}
+
+	/**
+	 * Encodes a message as JSON
+	 * 
+	 * @param msg the message
+	 * @return the JSON (UTF-8)
+	 */
+	public byte[] toJsonBytes(Message msg) {
+		Output out = new Output();
+		encode(msg, out);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Encodes a message as JSON
+	 * 
+	 * @param msg the message
+	 * @return the JSON
+	 */
+	public String toJson(Message msg) {
+		Output out = new Output();
+		encode(msg, out);
+		return out.toString();
+	}
+
+	/**
+	 * Parses a message from the given JSON
+	 * 
+	 * @param json the JSON (UTF-8)
+	 * @return the message
+	 * @throws InvalidProtocolBufferException if the JSON is malformed, does not match the message type, or
+	 * lacks required fields
+	 */
+	public DynamicMessage parse(byte[] json) throws InvalidProtocolBufferException {
+		return parse(json, 0, json.length);
+	}
+
+	/**
+	 * Parses a message from the given JSON
+	 * 
+	 * @param json the JSON (UTF-8)
+	 * @param offset the offset of the JSON
+	 * @param length the length of the JSON
+	 * @return the message
+	 * @throws InvalidProtocolBufferException if the JSON is malformed, does not match the message type, or
+	 * lacks required fields
+	 */
+	public DynamicMessage parse(byte[] json, int offset, int length) throws InvalidProtocolBufferException {
+		JsonReader reader = new JsonReader(json, offset, length);
+		DynamicMessage.Builder builder = DynamicMessage.newBuilder(mRoot.mMsgType);
+		readMessage(mRoot, builder, reader, 0);
+		if (reader.peek() >= 0) throw reader.error("unexpected data after the message");
+		DynamicMessage msg = builder.buildPartial();
+		if (!msg.isInitialized()) throw new UninitializedMessageException(msg.findInitializationErrors()).asInvalidProtocolBufferException();
+		return msg;
+	}
+
+	/**
+	 * Parses a message from the given JSON
+	 * 
+	 * @param json the JSON
+	 * @return the message
+	 * @throws InvalidProtocolBufferException if the JSON is malformed, does not match the message type, or
+	 * lacks required fields
+	 */
+	public DynamicMessage parse(String json) throws InvalidProtocolBufferException {
+		ByteBuffer buf = UTF8.encode(json);
+		return parse(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+	}
+
+	public String toString() {
+		return mRoot.mMsgType.getFullName() + " (json)";
+	}
+
+	// --- package ---
+
+	JsonCodec(CompiledMessageType type) {
+		mRoot = compile(type, new IdentityHashMap<CompiledMessageType,JsonType>());
+	}
+
+	// --- private ---
+
+	private static JsonType compile(CompiledMessageType type, Map<CompiledMessageType,JsonType> jsonTypeMap) {
+		JsonType jsonType = jsonTypeMap.get(type);
+		if (jsonType != null) return jsonType;
+		jsonType = new JsonType(type);
+		jsonTypeMap.put(type, jsonType); // before linking, message types may be recursive
+		for (JsonField field : jsonType.mFields) {
+			if (field.mField.mMessageType != null) field.mMessageType = compile(field.mField.mMessageType, jsonTypeMap);
+		}
+		return jsonType;
+	}
+
+	private Message checkType(Message msg) {
+		Descriptor msgType = msg.getDescriptorForType();
+		if (msgType == mRoot.mMsgType) return msg;
+		if (!msgType.getFullName().equals(mRoot.mMsgType.getFullName())) {
+			throw new IllegalArgumentException("message type mismatch: " + msgType.getFullName() + ", expected " + mRoot.mMsgType.getFullName());
+		}
+		try { // same type, other descriptor instance (e.g. generated message)
+			return DynamicMessage.newBuilder(mRoot.mMsgType).mergeFrom(msg.toByteString()).buildPartial();
+		}
+		catch (InvalidProtocolBufferException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	private static void writeMessage(JsonType type, Message msg, Output out) {
+		out.write('{');
+		boolean first = true;
+		for (JsonField field : type.mFields) {
+			FieldDescriptor fd = field.mField.mDescriptor;
+			if (field.mField.mRepeated) {
+				int count = msg.getRepeatedFieldCount(fd);
+				if (count == 0) continue;
+				if (!first) out.write(',');
+				first = false;
+				out.write(field.mNameBytes);
+				out.write('[');
+				for (int i = 0; i < count; i++) {
+					if (i > 0) out.write(',');
+					writeValue(field, msg.getRepeatedField(fd, i), out);
+				}
+				out.write(']');
+			}
+			else {
+				if (!msg.hasField(fd)) continue;
+				if (!first) out.write(',');
+				first = false;
+				out.write(field.mNameBytes);
+				writeValue(field, msg.getField(fd), out);
+			}
+		}
+		out.write('}');
+	}
+
+	private static void writeValue(JsonField field, Object value, Output out) {
+		switch (field.mField.mType) {
+		case INT32: case SINT32: case SFIXED32: out.writeLong((Integer)value); break;
+		case UINT32: case FIXED32: out.writeLong((Integer)value & 0xffffffffL); break;
+		case INT64: case SINT64: case SFIXED64:
+			out.write('"');
+			out.writeLong((Long)value);
+			out.write('"');
+			break;
+		case UINT64: case FIXED64:
+			long bits = (Long)value;
+			out.write('"');
+			if (bits >= 0) out.writeLong(bits);
+			else out.writeAscii(BigInteger.valueOf(bits).add(UINT64_RANGE).toString());
+			out.write('"');
+			break;
+		case FLOAT: writeDouble((Float)value, Float.toString((Float)value), out); break;
+		case DOUBLE: writeDouble((Double)value, null, out); break;
+		case BOOL: out.write((Boolean)value ? TRUE : FALSE); break;
+		case STRING: out.writeString((String)value); break;
+		case BYTES: out.writeBase64((ByteString)value); break;
+		case ENUM: out.writeString(((EnumValueDescriptor)value).getName()); break;
+		default: writeMessage(field.mMessageType, (Message)value, out); // MESSAGE
+		}
+	}
+
+	private static void writeDouble(double value, String floatString, Output out) {
+		if (Double.isNaN(value)) out.write(NAN);
+		else if (value == Double.POSITIVE_INFINITY) out.write(INFINITY);
+		else if (value == Double.NEGATIVE_INFINITY) out.write(NEGATIVE_INFINITY);
+		else out.writeAscii(floatString != null ? floatString : Double.toString(value));
+	}
+
+	private static void readMessage(JsonType type, DynamicMessage.Builder builder, JsonReader reader, int depth) throws InvalidProtocolBufferException {
+		if (depth >= RECURSION_LIMIT) throw reader.error("message nesting too deep");
+		reader.expect('{');
+		if (reader.peek() == '}') {
+			reader.mPos++;
+			return;
+		}
+		while (true) {
+			JsonField field = reader.readFieldName(type);
+			reader.expect(':');
+			FieldDescriptor fd = field.mField.mDescriptor;
+			if (reader.readNull()) {
+				builder.clearField(fd); // null is the default value
+			}
+			else if (field.mField.mRepeated) {
+				builder.clearField(fd);
+				reader.expect('[');
+				if (reader.peek() == ']') {
+					reader.mPos++;
+				}
+				else {
+					do builder.addRepeatedField(fd, readValue(field, reader, depth));
+					while (reader.nextSeparator(']'));
+				}
+			}
+			else {
+				builder.setField(fd, readValue(field, reader, depth));
+			}
+			if (!reader.nextSeparator('}')) return;
+		}
+	}
+
+	private static Object readValue(JsonField field, JsonReader reader, int depth) throws InvalidProtocolBufferException {
+		switch (field.mField.mType) {
+		case INT32: case SINT32: case SFIXED32: return (int)reader.readInteger(Integer.MIN_VALUE, Integer.MAX_VALUE, false);
+		case UINT32: case FIXED32: return (int)reader.readInteger(0, 0xffffffffL, false);
+		case INT64: case SINT64: case SFIXED64: return reader.readInteger(Long.MIN_VALUE, Long.MAX_VALUE, false);
+		case UINT64: case FIXED64: return reader.readInteger(0, 0, true);
+		case FLOAT: return reader.readFloat();
+		case DOUBLE: return reader.readDouble();
+		case BOOL: return reader.readBoolean();
+		case STRING: return reader.readString();
+		case BYTES: return reader.readBase64();
+		case ENUM:
+			FieldDescriptor fd = field.mField.mDescriptor;
+			EnumValueDescriptor enumValue;
+			if (reader.peek() == '"') enumValue = fd.getEnumType().findValueByName(reader.readString());
+			else enumValue = fd.getEnumType().findValueByNumber((int)reader.readInteger(Integer.MIN_VALUE, Integer.MAX_VALUE, false));
+			if (enumValue == null) throw reader.error("unknown enum value for " + fd.getFullName());
+			return enumValue;
+		default: // MESSAGE
+			DynamicMessage.Builder msgBuilder = DynamicMessage.newBuilder(field.mMessageType.mMsgType);
+			readMessage(field.mMessageType, msgBuilder, reader, depth + 1);
+			return msgBuilder.buildPartial();
+		}
+	}
+
+	private static String toJsonName(String fieldName) {
+		StringBuilder sb = new StringBuilder(fieldName.length());
+		boolean upperCase = false;
+		for (int i = 0; i < fieldName.length(); i++) {
+			char c = fieldName.charAt(i);
+			if (c == '_') {
+				upperCase = true;
+			}
+			else {
+				sb.append(upperCase ? Character.toUpperCase(c) : c);
+				upperCase = false;
+			}
+		}
+		return sb.toString();
+	}
+
+	private static final int RECURSION_LIMIT = 64; // same as CodedInputStream
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final BigInteger UINT64_RANGE = BigInteger.ONE.shiftLeft(64);
+	private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+	private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+	private static final byte[] NAN = {'"', 'N', 'a', 'N', '"'};
+	private static final byte[] INFINITY = {'"', 'I', 'n', 'f', 'i', 'n', 'i', 't', 'y', '"'};
+	private static final byte[] NEGATIVE_INFINITY = {'"', '-', 'I', 'n', 'f', 'i', 'n', 'i', 't', 'y', '"'};
+	private static final byte[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes();
+
+	private final JsonType mRoot;
+
+	/**
+	 * JsonCodec.Output - growable UTF-8 byte buffer for encoded JSON, reusable with {@link #reset()}
+	 * (not thread safe)
+	 */
+	public static class Output
+	{
+		public Output() {
+			this(256);
+		}
+
+		public Output(int initialCapacity) {
+			mBuf = new byte[Math.max(initialCapacity, 16)];
+		}
+
+		public int size() {
+			return mSize;
+		}
+
+		/**
+		 * Returns the backing array, holding {@link #size()} bytes of JSON; valid until the next write
+		 * 
+		 * @return the backing array
+		 */
+		public byte[] getBuffer() {
+			return mBuf;
+		}
+
+		public byte[] toByteArray() {
+			byte[] bytes = new byte[mSize];
+			System.arraycopy(mBuf, 0, bytes, 0, mSize);
+			return bytes;
+		}
+
+		public void writeTo(OutputStream out) throws IOException {
+			out.write(mBuf, 0, mSize);
+		}
+
+		/**
+		 * Removes the bytes written, keeps the buffer for reuse
+		 * 
+		 * @return this
+		 */
+		public Output reset() {
+			mSize = 0;
+			return this;
+		}
+
+		public String toString() {
+			return UTF8.decode(ByteBuffer.wrap(mBuf, 0, mSize)).toString();
+		}
+
+		// --- package ---
+
+		void write(int b) {
+			if (mSize == mBuf.length) ensure(1);
+			mBuf[mSize++] = (byte)b;
+		}
+
+		void write(byte[] bytes) {
+			ensure(bytes.length);
+			System.arraycopy(bytes, 0, mBuf, mSize, bytes.length);
+			mSize += bytes.length;
+		}
+
+		void writeAscii(String s) {
+			int length = s.length();
+			ensure(length);
+			for (int i = 0; i < length; i++) mBuf[mSize++] = (byte)s.charAt(i);
+		}
+
+		void writeLong(long value) {
+			if (value == Long.MIN_VALUE) {
+				writeAscii("-9223372036854775808");
+				return;
+			}
+			ensure(20);
+			if (value < 0) {
+				mBuf[mSize++] = '-';
+				value = -value;
+			}
+			int digits = 1;
+			for (long v = value; v >= 10; v /= 10) digits++;
+			int pos = mSize + digits;
+			mSize = pos;
+			do {
+				mBuf[--pos] = (byte)('0' + (int)(value % 10));
+				value /= 10;
+			} while (value != 0);
+		}
+
+		void writeString(String s) {
+			int length = s.length();
+			ensure(length * 6 + 2); // worst case, all escaped
+			byte[] buf = mBuf;
+			int pos = mSize;
+			buf[pos++] = '"';
+			for (int i = 0; i < length; i++) {
+				char c = s.charAt(i);
+				if (c < 0x80) {
+					if (c >= 0x20 && c != '"' && c != '\\') {
+						buf[pos++] = (byte)c;
+						continue;
+					}
+					buf[pos++] = '\\';
+					switch (c) {
+					case '"': buf[pos++] = '"'; break;
+					case '\\': buf[pos++] = '\\'; break;
+					case '\b': buf[pos++] = 'b'; break;
+					case '\f': buf[pos++] = 'f'; break;
+					case '\n': buf[pos++] = 'n'; break;
+					case '\r': buf[pos++] = 'r'; break;
+					case '\t': buf[pos++] = 't'; break;
+					default:
+						buf[pos++] = 'u';
+						buf[pos++] = '0';
+						buf[pos++] = '0';
+						buf[pos++] = HEX[c >> 4];
+						buf[pos++] = HEX[c & 0xf];
+					}
+				}
+				else if (c < 0x800) {
+					buf[pos++] = (byte)(0xc0 | (c >> 6));
+					buf[pos++] = (byte)(0x80 | (c & 0x3f));
+				}
+				else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+					int codePoint = Character.toCodePoint(c, s.charAt(++i));
+					buf[pos++] = (byte)(0xf0 | (codePoint >> 18));
+					buf[pos++] = (byte)(0x80 | ((codePoint >> 12) & 0x3f));
+					buf[pos++] = (byte)(0x80 | ((codePoint >> 6) & 0x3f));
+					buf[pos++] = (byte)(0x80 | (codePoint & 0x3f));
+				}
+				else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+					buf[pos++] = '?'; // unpaired surrogate, as in String.getBytes()
+				}
+				else {
+					buf[pos++] = (byte)(0xe0 | (c >> 12));
+					buf[pos++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+					buf[pos++] = (byte)(0x80 | (c & 0x3f));
+				}
+			}
+			buf[pos++] = '"';
+			mSize = pos;
+		}
+
+		void writeBase64(ByteString bytes) {
+			int length = bytes.size();
+			ensure((length + 2) / 3 * 4 + 2);
+			byte[] buf = mBuf;
+			int pos = mSize;
+			buf[pos++] = '"';
+			int i = 0;
+			for (; i + 3 <= length; i += 3) {
+				int bits = (bytes.byteAt(i) & 0xff) << 16 | (bytes.byteAt(i + 1) & 0xff) << 8 | (bytes.byteAt(i + 2) & 0xff);
+				buf[pos++] = BASE64[bits >> 18];
+				buf[pos++] = BASE64[(bits >> 12) & 0x3f];
+				buf[pos++] = BASE64[(bits >> 6) & 0x3f];
+				buf[pos++] = BASE64[bits & 0x3f];
+			}
+			if (i < length) {
+				int bits = (bytes.byteAt(i) & 0xff) << 16 | (i + 1 < length ? (bytes.byteAt(i + 1) & 0xff) << 8 : 0);
+				buf[pos++] = BASE64[bits >> 18];
+				buf[pos++] = BASE64[(bits >> 12) & 0x3f];
+				buf[pos++] = (i + 1 < length ? BASE64[(bits >> 6) & 0x3f] : (byte)'=');
+				buf[pos++] = '=';
+			}
+			buf[pos++] = '"';
+			mSize = pos;
+		}
+
+		// --- private ---
+
+		private void ensure(int length) {
+			if (length <= mBuf.length - mSize) return;
+			byte[] buf = new byte[Math.max(mSize + length, mBuf.length * 2)];
+			System.arraycopy(mBuf, 0, buf, 0, mSize);
+			mBuf = buf;
+		}
+
+		private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+		private byte[] mBuf;
+		private int mSize;
+	}
+
+	/**
+	 * JsonCodec.JsonType - fields of a message type, with their JSON names
+	 */
+	private static class JsonType
+	{
+		public JsonType(CompiledMessageType type) {
+			mMsgType = type.mMsgType;
+			mFields = new JsonField[type.mFields.length];
+			int tableSize = 4;
+			while (tableSize < 4 * mFields.length) tableSize *= 2;
+			mNameKeys = new byte[tableSize][];
+			mNameTable = new JsonField[tableSize];
+			for (int i = 0; i < mFields.length; i++) {
+				CompiledField field = type.mFields[i];
+				String fieldName = field.mDescriptor.getName();
+				String jsonName = toJsonName(fieldName);
+				Output nameOut = new Output();
+				nameOut.writeString(jsonName);
+				nameOut.write(':');
+				mFields[i] = new JsonField(field, nameOut.toByteArray());
+				addName(jsonName, mFields[i]);
+				if (!jsonName.equals(fieldName)) addName(fieldName, mFields[i]);
+			}
+		}
+
+		public JsonField get(byte[] buf, int start, int end) {
+			int mask = mNameKeys.length - 1;
+			for (int i = hash(buf, start, end) & mask; ; i = (i + 1) & mask) {
+				byte[] key = mNameKeys[i];
+				if (key == null) return null;
+				if (key.length == end - start && equals(key, buf, start)) return mNameTable[i];
+			}
+		}
+
+		public JsonField get(String name) {
+			return mNameMap.get(name);
+		}
+
+		private void addName(String name, JsonField field) {
+			mNameMap.put(name, field);
+			byte[] key = ByteString.copyFromUtf8(name).toByteArray();
+			int mask = mNameKeys.length - 1;
+			int i = hash(key, 0, key.length) & mask;
+			while (mNameKeys[i] != null) i = (i + 1) & mask;
+			mNameKeys[i] = key;
+			mNameTable[i] = field;
+		}
+
+		private static int hash(byte[] buf, int start, int end) {
+			int hash = 0;
+			for (int i = start; i < end; i++) hash = 31 * hash + buf[i];
+			return hash ^ (hash >>> 16);
+		}
+
+		private static boolean equals(byte[] key, byte[] buf, int start) {
+			for (int i = 0; i < key.length; i++) {
+				if (key[i] != buf[start + i]) return false;
+			}
+			return true;
+		}
+
+		private final Descriptor mMsgType;
+		private final JsonField[] mFields;
+		private final byte[][] mNameKeys; // open addressing, JSON and original names
+		private final JsonField[] mNameTable;
+		private final Map<String,JsonField> mNameMap = new HashMap<String,JsonField>(); // escaped names
+	}
+
+	/**
+	 * JsonCodec.JsonField - field with its encoded name ("name":)
+	 */
+	private static class JsonField
+	{
+		public JsonField(CompiledField field, byte[] nameBytes) {
+			mField = field;
+			mNameBytes = nameBytes;
+		}
+
+		private final CompiledField mField;
+		private final byte[] mNameBytes;
+		private JsonType mMessageType;
+	}
+
+	/**
+	 * JsonCodec.JsonReader - JSON tokenizer over UTF-8 bytes
+	 */
+	private static class JsonReader
+	{
+		public JsonReader(byte[] buf, int offset, int length) {
+			mBuf = buf;
+			mStart = mPos = offset;
+			mLimit = offset + length;
+		}
+
+		/** Skips whitespace, returns the next byte (-1 at the end) */
+		public int peek() {
+			while (mPos < mLimit) {
+				byte b = mBuf[mPos];
+				if (b != ' ' && b != '\n' && b != '\r' && b != '\t') return b;
+				mPos++;
+			}
+			return -1;
+		}
+
+		public void expect(char c) throws InvalidProtocolBufferException {
+			if (peek() != c) throw error("'" + c + "' expected");
+			mPos++;
+		}
+
+		/** Reads a ',' (true) or the given closing bracket (false) */
+		public boolean nextSeparator(char close) throws InvalidProtocolBufferException {
+			int b = peek();
+			mPos++;
+			if (b == ',') return true;
+			if (b == close) return false;
+			mPos--;
+			throw error("',' or '" + close + "' expected");
+		}
+
+		public boolean readNull() {
+			if (peek() != 'n' || !matches(NULL)) return false;
+			mPos += NULL.length;
+			return true;
+		}
+
+		public boolean readBoolean() throws InvalidProtocolBufferException {
+			int b = peek();
+			if (b == 't' && matches(TRUE)) {
+				mPos += TRUE.length;
+				return true;
+			}
+			if (b == 'f' && matches(FALSE)) {
+				mPos += FALSE.length;
+				return false;
+			}
+			throw error("boolean expected");
+		}
+
+		public JsonField readFieldName(JsonType type) throws InvalidProtocolBufferException {
+			if (peek() != '"') throw error("field name expected");
+			int start = ++mPos;
+			for (int pos = start; pos < mLimit; pos++) { // fast path, no escapes
+				byte b = mBuf[pos];
+				if (b == '"') {
+					JsonField field = type.get(mBuf, start, pos);
+					if (field == null) throw error("unknown field " + asciiString(start, pos) + " in " + type.mMsgType.getFullName());
+					mPos = pos + 1;
+					return field;
+				}
+				if (b == '\\') break;
+			}
+			mPos = start - 1;
+			String name = readString();
+			JsonField field = type.get(name);
+			if (field == null) throw error("unknown field " + name + " in " + type.mMsgType.getFullName());
+			return field;
+		}
+
+		public String readString() throws InvalidProtocolBufferException {
+			expect('"');
+			char[] chars = mChars;
+			int n = 0;
+			while (true) {
+				if (mPos >= mLimit) throw error("unterminated string");
+				if (n + 2 > chars.length) {
+					char[] newChars = new char[chars.length * 2];
+					System.arraycopy(chars, 0, newChars, 0, n);
+					chars = mChars = newChars;
+				}
+				int b = mBuf[mPos++];
+				if (b == '"') break;
+				if (b >= 0x20 && b != '\\') {
+					chars[n++] = (char)b;
+				}
+				else if (b == '\\') {
+					if (mPos >= mLimit) throw error("unterminated string");
+					switch (mBuf[mPos++]) {
+					case '"': chars[n++] = '"'; break;
+					case '\\': chars[n++] = '\\'; break;
+					case '/': chars[n++] = '/'; break;
+					case 'b': chars[n++] = '\b'; break;
+					case 'f': chars[n++] = '\f'; break;
+					case 'n': chars[n++] = '\n'; break;
+					case 'r': chars[n++] = '\r'; break;
+					case 't': chars[n++] = '\t'; break;
+					case 'u': chars[n++] = readHexChar(); break;
+					default: throw error("invalid escape");
+					}
+				}
+				else if (b >= 0) {
+					throw error("control character in string");
+				}
+				else if ((b & 0xe0) == 0xc0) {
+					int c = (b & 0x1f) << 6 | readContinuation();
+					if (c < 0x80) throw error("invalid UTF-8");
+					chars[n++] = (char)c;
+				}
+				else if ((b & 0xf0) == 0xe0) {
+					int c = (b & 0x0f) << 12 | readContinuation() << 6 | readContinuation();
+					if (c < 0x800 || (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE)) throw error("invalid UTF-8");
+					chars[n++] = (char)c;
+				}
+				else if ((b & 0xf8) == 0xf0) {
+					int codePoint = (b & 0x07) << 18 | readContinuation() << 12 | readContinuation() << 6 | readContinuation();
+					if (codePoint < 0x10000 || codePoint > Character.MAX_CODE_POINT) throw error("invalid UTF-8");
+					n += Character.toChars(codePoint, chars, n);
+				}
+				else {
+					throw error("invalid UTF-8");
+				}
+			}
+			return new String(chars, 0, n);
+		}
+
+		/**
+		 * Reads an integer, or a string holding an integer
+		 * 
+		 * @param min the minimum value
+		 * @param max the maximum value
+		 * @param uint64 unsigned 64-bit (min and max ignored), returned as the bit pattern
+		 * @return the value
+		 * @throws InvalidProtocolBufferException
+		 */
+		public long readInteger(long min, long max, boolean uint64) throws InvalidProtocolBufferException {
+			boolean quoted = (peek() == '"');
+			if (quoted) mPos++;
+			int start = mPos;
+			while (mPos < mLimit && isNumberChar(mBuf[mPos])) mPos++;
+			int end = mPos;
+			if (quoted) {
+				if (mPos >= mLimit || mBuf[mPos] != '"') throw error("integer expected");
+				mPos++;
+			}
+			if (start == end) throw error("integer expected");
+
+			int i = start;
+			boolean negative = (mBuf[i] == '-');
+			if (negative) i++;
+			if (end - i > 0 && end - i <= 18) { // fast path, fits a long
+				long value = 0;
+				for (; i < end; i++) {
+					int digit = mBuf[i] - '0';
+					if (digit < 0 || digit > 9) break;
+					value = value * 10 + digit;
+				}
+				if (i == end) {
+					if (negative) value = -value;
+					if (uint64 ? value < 0 : (value < min || value > max)) throw error("integer out of range");
+					return value;
+				}
+			}
+			BigInteger value; // exponent, fraction or many digits
+			try {
+				value = new BigDecimal(asciiString(start, end)).toBigIntegerExact();
+			}
+			catch (NumberFormatException e) {
+				throw error("integer expected");
+			}
+			catch (ArithmeticException e) {
+				throw error("integer expected");
+			}
+			BigInteger minValue = (uint64 ? BigInteger.ZERO : BigInteger.valueOf(min));
+			BigInteger maxValue = (uint64 ? UINT64_RANGE.subtract(BigInteger.ONE) : BigInteger.valueOf(max));
+			if (value.compareTo(minValue) < 0 || value.compareTo(maxValue) > 0) throw error("integer out of range");
+			return value.longValue();
+		}
+
+		public double readDouble() throws InvalidProtocolBufferException {
+			String number;
+			if (peek() == '"') {
+				number = readString();
+				if (number.equals("NaN")) return Double.NaN;
+				if (number.equals("Infinity")) return Double.POSITIVE_INFINITY;
+				if (number.equals("-Infinity")) return Double.NEGATIVE_INFINITY;
+				for (int i = 0; i < number.length(); i++) { // JSON number syntax only, no Java float suffixes etc.
+					char c = number.charAt(i);
+					if (c >= 0x80 || !isNumberChar((byte)c)) throw error("number expected");
+				}
+			}
+			else {
+				int start = mPos;
+				while (mPos < mLimit && isNumberChar(mBuf[mPos])) mPos++;
+				number = asciiString(start, mPos);
+			}
+			try {
+				return Double.parseDouble(number);
+			}
+			catch (NumberFormatException e) {
+				throw error("number expected");
+			}
+		}
+
+		public float readFloat() throws InvalidProtocolBufferException {
+			double value = readDouble();
+			if (Double.isInfinite((float)value) && !Double.isInfinite(value)) throw error("float out of range");
+			return (float)value;
+		}
+
+		public ByteString readBase64() throws InvalidProtocolBufferException {
+			String s = readString();
+			int length = s.length();
+			while (length > 0 && s.charAt(length - 1) == '=') length--;
+			if (length % 4 == 1) throw error("invalid base64");
+			byte[] bytes = new byte[length * 3 / 4];
+			int bits = 0;
+			int n = 0;
+			for (int i = 0; i < length; i++) {
+				int value = base64Value(s.charAt(i));
+				if (value < 0) throw error("invalid base64");
+				bits = bits << 6 | value;
+				if ((i & 3) == 3) {
+					bytes[n++] = (byte)(bits >> 16);
+					bytes[n++] = (byte)(bits >> 8);
+					bytes[n++] = (byte)bits;
+					bits = 0;
+				}
+			}
+			switch (length & 3) {
+			case 2: bytes[n++] = (byte)(bits >> 4); break;
+			case 3:
+				bytes[n++] = (byte)(bits >> 10);
+				bytes[n++] = (byte)(bits >> 2);
+				break;
+			}
+			return ByteString.copyFrom(bytes, 0, n);
+		}
+
+		public InvalidProtocolBufferException error(String description) {
+			return new InvalidProtocolBufferException("invalid JSON: " + description + " at offset " + (mPos - mStart));
+		}
+
+		// --- private ---
+
+		private boolean matches(byte[] literal) {
+			if (literal.length > mLimit - mPos) return false;
+			for (int i = 0; i < literal.length; i++) {
+				if (mBuf[mPos + i] != literal[i]) return false;
+			}
+			return true;
+		}
+
+		private int readContinuation() throws InvalidProtocolBufferException {
+			if (mPos >= mLimit || (mBuf[mPos] & 0xc0) != 0x80) throw error("invalid UTF-8");
+			return mBuf[mPos++] & 0x3f;
+		}
+
+		private char readHexChar() throws InvalidProtocolBufferException {
+			if (mLimit - mPos < 4) throw error("invalid escape");
+			int c = 0;
+			for (int i = 0; i < 4; i++) {
+				int digit = Character.digit(mBuf[mPos++], 16);
+				if (digit < 0) throw error("invalid escape");
+				c = c << 4 | digit;
+			}
+			return (char)c;
+		}
+
+		private String asciiString(int start, int end) {
+			char[] chars = new char[end - start];
+			for (int i = start; i < end; i++) chars[i - start] = (char)(mBuf[i] & 0xff);
+			return new String(chars);
+		}
+
+		private static boolean isNumberChar(byte b) {
+			return (b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E';
+		}
+
+		private static int base64Value(char c) {
+			if (c >= 'A' && c <= 'Z') return c - 'A';
+			if (c >= 'a' && c <= 'z') return c - 'a' + 26;
+			if (c >= '0' && c <= '9') return c - '0' + 52;
+			if (c == '+' || c == '-') return 62; // standard or URL-safe
+			if (c == '/' || c == '_') return 63;
+			return -1;
+		}
+
+		private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+
+		private final byte[] mBuf;
+		private final int mStart;
+		private final int mLimit;
+		private int mPos;
+		private char[] mChars = new char[64];
+	}
+}
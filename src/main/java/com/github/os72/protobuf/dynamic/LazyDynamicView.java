@@ -0,0 +1,475 @@
+/*
+ * Copyright 2015 protobuf-dynamic developers
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.os72.protobuf.dynamic;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import com.github.os72.protobuf.dynamic.CompiledMessageType.CompiledField;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.ExtensionRegistry;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+
+/**
+ * LazyDynamicView - read-only view of a serialized message in a byte buffer (heap, direct or memory-mapped),
+ * fields accessed by field handle (not thread safe)
+ * <p>
+ * Nothing is parsed when the view is created. The first field access scans the message once, recording the
+ * offset of each known field without decoding values; a getter then decodes only the value it returns.
+ * Bytes fields (and the raw bytes of strings, see {@link #getStringBytes(int)}) are returned as read-only
+ * slices of the buffer, nested messages as views of the same buffer: no bytes are copied. The buffer must not
+ * be modified while the view is in use; its position and limit are not changed.
+ * <p>
+ * Singular fields occurring more than once read the last occurrence (for message fields too, not merged).
+ * Malformed messages fail the first access with an IllegalStateException, see {@link #index()} to check the
+ * top level of a message upfront; nested messages and packed runs are only checked when accessed.
+ */
+public class LazyDynamicView
+{
+	// --- public ---
+
+	public Descriptor getDescriptor() {
+		return mType.mMsgType;
+	}
+
+	/**
+	 * Resolves the given field name to a handle (same as {@link CompiledMessageType} handles)
+	 * 
+	 * @param fieldName the field name
+	 * @return the field handle (-1 if not found)
+	 */
+	public int getFieldHandle(String fieldName) {
+		return mType.getFieldHandle(fieldName);
+	}
+
+	/**
+	 * Indexes the fields of the message now, if not indexed yet (done on first field access otherwise); only
+	 * the top-level tags and value bounds are checked, nested messages are skipped without checking
+	 * 
+	 * @throws InvalidProtocolBufferException if the top level of the message is malformed
+	 */
+	public void index() throws InvalidProtocolBufferException {
+		if (mTagOffsets != null) return;
+		int fieldCount = mType.mFields.length;
+		int[] tagOffsets = new int[fieldCount];
+		Arrays.fill(tagOffsets, -1);
+		mRepeatedTagOffsets = new int[fieldCount][];
+		mRepeatedTagCounts = new int[fieldCount];
+		try {
+			int pos = mStart;
+			while (pos < mEnd) {
+				int tagOffset = pos;
+				int tag = (int)readVarint(pos);
+				if (WireFormat.getTagFieldNumber(tag) == 0) throw new InvalidProtocolBufferException("invalid tag: " + tag);
+				pos = skipValue(tag, mPos, 0);
+				CompiledField field = mType.getFieldByNumber(WireFormat.getTagFieldNumber(tag));
+				if (field == null) continue;
+				int wireType = tag & 7;
+				if (wireType != field.mWireType && !(field.mPackable && wireType == WireFormat.WIRETYPE_LENGTH_DELIMITED)) continue;
+				if (field.mRepeated) addRepeatedTagOffset(field.mHandle, tagOffset);
+				else tagOffsets[field.mHandle] = tagOffset;
+			}
+		}
+		catch (IllegalStateException e) { // thrown by the value readers
+			if (e.getCause() instanceof InvalidProtocolBufferException) throw (InvalidProtocolBufferException)e.getCause();
+			throw e;
+		}
+		mTagOffsets = tagOffsets;
+	}
+
+	/**
+	 * Checks if the given field is set (repeated fields: not empty)
+	 * 
+	 * @param fieldHandle the field handle
+	 * @return true if set
+	 */
+	public boolean has(int fieldHandle) {
+		if (mType.mFields[fieldHandle].mRepeated) return getRepeatedCount(fieldHandle) > 0;
+		return getTagOffsets()[fieldHandle] >= 0;
+	}
+
+	public int getInt(int fieldHandle) {
+		return (int)getBits(fieldHandle, FieldDescriptor.JavaType.INT);
+	}
+
+	public long getLong(int fieldHandle) {
+		return getBits(fieldHandle, FieldDescriptor.JavaType.LONG);
+	}
+
+	public float getFloat(int fieldHandle) {
+		return Float.intBitsToFloat((int)getBits(fieldHandle, FieldDescriptor.JavaType.FLOAT));
+	}
+
+	public double getDouble(int fieldHandle) {
+		return Double.longBitsToDouble(getBits(fieldHandle, FieldDescriptor.JavaType.DOUBLE));
+	}
+
+	public boolean getBoolean(int fieldHandle) {
+		return getBits(fieldHandle, FieldDescriptor.JavaType.BOOLEAN) != 0;
+	}
+
+	/**
+	 * Gets the enum number of an enum field
+	 * 
+	 * @param fieldHandle the field handle
+	 * @return the enum number
+	 */
+	public int getEnum(int fieldHandle) {
+		return (int)getBits(fieldHandle, FieldDescriptor.JavaType.ENUM);
+	}
+
+	/**
+	 * Gets the value of a string field (decoded)
+	 * 
+	 * @param fieldHandle the field handle
+	 * @return the string
+	 */
+	public String getString(int fieldHandle) {
+		CompiledField field = checkSingular(fieldHandle, FieldDescriptor.JavaType.STRING);
+		int tagOffset = getTagOffsets()[fieldHandle];
+		if (tagOffset < 0) return (String)field.mDefaultObject;
+		return decodeUtf8(valueSlice(valueOffset(tagOffset)));
+	}
+
+	/**
+	 * Gets the UTF-8 bytes of a string field, as a slice of the buffer
+	 * 
+	 * @param fieldHandle the field handle
+	 * @return the read-only slice (null if not set)
+	 */
+	public ByteBuffer getStringBytes(int fieldHandle) {
+		checkSingular(fieldHandle, FieldDescriptor.JavaType.STRING);
+		int tagOffset = getTagOffsets()[fieldHandle];
+		return (tagOffset < 0 ? null : valueSlice(valueOffset(tagOffset)));
+	}
+
+	/**
+	 * Gets the value of a bytes field, as a slice of the buffer
+	 * 
+	 * @param fieldHandle the field handle
+	 * @return the read-only slice (the field default if not set)
+	 */
+	public ByteBuffer getBytes(int fieldHandle) {
+		CompiledField field = checkSingular(fieldHandle, FieldDescriptor.JavaType.BYTE_STRING);
+		int tagOffset = getTagOffsets()[fieldHandle];
+		if (tagOffset < 0) return ((ByteString)field.mDefaultObject).asReadOnlyByteBuffer();
+		return valueSlice(valueOffset(tagOffset));
+	}
+
+	/**
+	 * Gets the value of a message field, as a view of the same buffer
+	 * 
+	 * @param fieldHandle the field handle
+	 * @return the message view (null if not set)
+	 */
+	public LazyDynamicView getMessage(int fieldHandle) {
+		CompiledField field = checkSingular(fieldHandle, FieldDescriptor.JavaType.MESSAGE);
+		int tagOffset = getTagOffsets()[fieldHandle];
+		if (tagOffset < 0) return null;
+		if (mMessages == null) mMessages = new LazyDynamicView[mType.mFields.length];
+		if (mMessages[fieldHandle] == null) mMessages[fieldHandle] = messageView(field, valueOffset(tagOffset));
+		return mMessages[fieldHandle];
+	}
+
+	public int getRepeatedCount(int fieldHandle) {
+		return getElementOffsets(checkRepeated(fieldHandle)).length;
+	}
+
+	/**
+	 * Gets an element of a repeated field: scalars boxed (enums as Integer numbers), strings decoded, bytes as
+	 * slices of the buffer, messages as views of the same buffer
+	 * 
+	 * @param fieldHandle the field handle
+	 * @param index the element index
+	 * @return the element
+	 */
+	public Object getRepeated(int fieldHandle, int index) {
+		CompiledField field = checkRepeated(fieldHandle);
+		int valueOffset = getElementOffsets(field)[index];
+		switch (field.mJavaType) {
+		case INT: case ENUM: return (int)readBits(field, valueOffset);
+		case LONG: return readBits(field, valueOffset);
+		case FLOAT: return Float.intBitsToFloat((int)readBits(field, valueOffset));
+		case DOUBLE: return Double.longBitsToDouble(readBits(field, valueOffset));
+		case BOOLEAN: return readBits(field, valueOffset) != 0;
+		case STRING: return decodeUtf8(valueSlice(valueOffset));
+		case BYTE_STRING: return valueSlice(valueOffset);
+		default: return messageView(field, valueOffset);
+		}
+	}
+
+	/**
+	 * Returns the serialized message, as a slice of the buffer (for forwarding without re-serializing)
+	 * 
+	 * @return the read-only slice
+	 */
+	public ByteBuffer toByteBuffer() {
+		return slice(mStart, mEnd);
+	}
+
+	public int getSerializedSize() {
+		return mEnd - mStart;
+	}
+
+	/**
+	 * Parses the whole message into a dynamic message
+	 * 
+	 * @return the dynamic message
+	 * @throws InvalidProtocolBufferException
+	 */
+	public DynamicMessage toDynamicMessage() throws InvalidProtocolBufferException {
+		try {
+			return DynamicMessage.newBuilder(mType.mMsgType)
+					.mergeFrom(DynamicSchema.newCodedInput(toByteBuffer()), ExtensionRegistry.getEmptyRegistry())
+					.buildPartial();
+		}
+		catch (InvalidProtocolBufferException e) {
+			throw e;
+		}
+		catch (IOException e) {
+			throw new IllegalStateException(e); // not thrown reading from a byte buffer
+		}
+	}
+
+	public String toString() {
+		return mType.mMsgType.getFullName() + ": " + getSerializedSize() + " bytes (lazy view)";
+	}
+
+	// --- package ---
+
+	LazyDynamicView(CompiledMessageType type, ByteBuffer buf) {
+		this(type, buf.asReadOnlyBuffer(), buf.position(), buf.limit());
+	}
+
+	// --- private ---
+
+	private LazyDynamicView(CompiledMessageType type, ByteBuffer buf, int start, int end) {
+		mType = type;
+		mBuf = buf;
+		mStart = start;
+		mEnd = end;
+	}
+
+	private int[] getTagOffsets() {
+		if (mTagOffsets == null) {
+			try {
+				index();
+			}
+			catch (InvalidProtocolBufferException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		return mTagOffsets;
+	}
+
+	private CompiledField checkSingular(int fieldHandle, FieldDescriptor.JavaType javaType) {
+		CompiledField field = mType.mFields[fieldHandle];
+		if (field.mJavaType != javaType || field.mRepeated) throw new IllegalArgumentException("field type mismatch: " + field.mDescriptor.getFullName());
+		return field;
+	}
+
+	private CompiledField checkRepeated(int fieldHandle) {
+		CompiledField field = mType.mFields[fieldHandle];
+		if (!field.mRepeated) throw new IllegalArgumentException("not a repeated field: " + field.mDescriptor.getFullName());
+		return field;
+	}
+
+	private long getBits(int fieldHandle, FieldDescriptor.JavaType javaType) {
+		CompiledField field = checkSingular(fieldHandle, javaType);
+		int tagOffset = getTagOffsets()[fieldHandle];
+		if (tagOffset < 0) return field.mDefaultBits;
+		return readBits(field, valueOffset(tagOffset));
+	}
+
+	private void addRepeatedTagOffset(int fieldHandle, int tagOffset) {
+		int[] offsets = mRepeatedTagOffsets[fieldHandle];
+		int count = mRepeatedTagCounts[fieldHandle];
+		if (offsets == null) mRepeatedTagOffsets[fieldHandle] = offsets = new int[4];
+		else if (count == offsets.length) mRepeatedTagOffsets[fieldHandle] = offsets = copyOf(offsets, count * 2);
+		offsets[count] = tagOffset;
+		mRepeatedTagCounts[fieldHandle] = count + 1;
+	}
+
+	private int[] getElementOffsets(CompiledField field) {
+		getTagOffsets();
+		int handle = field.mHandle;
+		if (mElementOffsets == null) mElementOffsets = new int[mType.mFields.length][];
+		if (mElementOffsets[handle] != null) return mElementOffsets[handle];
+
+		// expand packed runs into element offsets
+		int[] tagOffsets = mRepeatedTagOffsets[handle];
+		int tagCount = mRepeatedTagCounts[handle];
+		int[] elementOffsets = new int[Math.max(tagCount, 4)];
+		int count = 0;
+		for (int i = 0; i < tagCount; i++) {
+			int tag = (int)readVarint(tagOffsets[i]);
+			int pos = mPos;
+			if ((tag & 7) == field.mWireType) {
+				if (count == elementOffsets.length) elementOffsets = copyOf(elementOffsets, count * 2);
+				elementOffsets[count++] = pos;
+				continue;
+			}
+			int length = (int)readVarint(pos); // packed, bounds checked by index()
+			pos = mPos;
+			int end = pos + length;
+			while (pos < end) {
+				if (count == elementOffsets.length) elementOffsets = copyOf(elementOffsets, count * 2);
+				elementOffsets[count++] = pos;
+				pos = skipScalar(field.mWireType, pos);
+			}
+			if (pos != end) {
+				throw new IllegalStateException(new InvalidProtocolBufferException("packed run length mismatch"));
+			}
+		}
+		mElementOffsets[handle] = elementOffsets = copyOf(elementOffsets, count);
+		return elementOffsets;
+	}
+
+	private static int[] copyOf(int[] array, int length) {
+		int[] newArray = new int[length];
+		System.arraycopy(array, 0, newArray, 0, Math.min(array.length, length));
+		return newArray;
+	}
+
+	private int valueOffset(int tagOffset) {
+		readVarint(tagOffset);
+		return mPos;
+	}
+
+	private ByteBuffer valueSlice(int valueOffset) {
+		int length = (int)readVarint(valueOffset);
+		return slice(mPos, mPos + length);
+	}
+
+	private ByteBuffer slice(int start, int end) {
+		ByteBuffer dup = mBuf.duplicate();
+		dup.limit(end);
+		dup.position(start);
+		return dup.slice();
+	}
+
+	private LazyDynamicView messageView(CompiledField field, int valueOffset) {
+		int length = (int)readVarint(valueOffset);
+		return new LazyDynamicView(field.mMessageType, mBuf, mPos, mPos + length);
+	}
+
+	private long readBits(CompiledField field, int pos) {
+		switch (field.mType) {
+		case DOUBLE: case FIXED64: case SFIXED64: return readLittleEndian64(pos);
+		case FLOAT: case FIXED32: case SFIXED32: return readLittleEndian32(pos);
+		case INT64: case UINT64: return readVarint(pos);
+		case SINT64:
+			long n = readVarint(pos);
+			return (n >>> 1) ^ -(n & 1);
+		case SINT32:
+			int i = (int)readVarint(pos);
+			return (i >>> 1) ^ -(i & 1);
+		case BOOL: return readVarint(pos) != 0 ? 1 : 0;
+		default: return (int)readVarint(pos); // INT32, UINT32, ENUM
+		}
+	}
+
+	private long readVarint(int pos) {
+		long result = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			if (pos >= mEnd) throw new IllegalStateException(truncated());
+			byte b = mBuf.get(pos++);
+			result |= (long)(b & 0x7f) << shift;
+			if (b >= 0) {
+				mPos = pos;
+				return result;
+			}
+		}
+		throw new IllegalStateException(new InvalidProtocolBufferException("malformed varint"));
+	}
+
+	private int readLittleEndian32(int pos) {
+		if (pos + 4 > mEnd) throw new IllegalStateException(truncated());
+		return (mBuf.get(pos) & 0xff) | (mBuf.get(pos + 1) & 0xff) << 8 | (mBuf.get(pos + 2) & 0xff) << 16 | (mBuf.get(pos + 3) & 0xff) << 24;
+	}
+
+	private long readLittleEndian64(int pos) {
+		return (readLittleEndian32(pos) & 0xffffffffL) | (long)readLittleEndian32(pos + 4) << 32;
+	}
+
+	private int skipScalar(int wireType, int pos) {
+		switch (wireType) {
+		case WireFormat.WIRETYPE_FIXED64: return pos + 8;
+		case WireFormat.WIRETYPE_FIXED32: return pos + 4;
+		default: // VARINT
+			readVarint(pos);
+			return mPos;
+		}
+	}
+
+	private int skipValue(int tag, int pos, int depth) throws InvalidProtocolBufferException {
+		switch (tag & 7) {
+		case WireFormat.WIRETYPE_VARINT: readVarint(pos); pos = mPos; break;
+		case WireFormat.WIRETYPE_FIXED64: pos += 8; break;
+		case WireFormat.WIRETYPE_FIXED32: pos += 4; break;
+		case WireFormat.WIRETYPE_LENGTH_DELIMITED:
+			int length = (int)readVarint(pos);
+			if (length < 0) throw new InvalidProtocolBufferException("negative length");
+			pos = mPos + length;
+			break;
+		case WireFormat.WIRETYPE_START_GROUP:
+			if (depth >= RECURSION_LIMIT) throw new InvalidProtocolBufferException("message nesting too deep");
+			int endTag = (tag & ~7) | WireFormat.WIRETYPE_END_GROUP;
+			while (true) {
+				int groupTag = (int)readVarint(pos);
+				pos = mPos;
+				if (groupTag == endTag) break;
+				pos = skipValue(groupTag, pos, depth + 1);
+			}
+			break;
+		default:
+			throw new InvalidProtocolBufferException("invalid wire type: " + tag);
+		}
+		if (pos > mEnd || pos < 0) throw truncated();
+		return pos;
+	}
+
+	private static String decodeUtf8(ByteBuffer bytes) {
+		return UTF8.decode(bytes).toString();
+	}
+
+	private static InvalidProtocolBufferException truncated() {
+		return new InvalidProtocolBufferException("message truncated");
+	}
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int RECURSION_LIMIT = 64; // same as CodedInputStream
+
+	private final CompiledMessageType mType;
+	private final ByteBuffer mBuf; // read-only
+	private final int mStart;
+	private final int mEnd;
+	private int mPos; // read position after the last varint read
+
+	// field handle -> offset of the last tag (singular fields), offsets of the tags (repeated fields)
+	private int[] mTagOffsets; // null until indexed
+	private int[][] mRepeatedTagOffsets;
+	private int[] mRepeatedTagCounts;
+	private int[][] mElementOffsets; // repeated fields, packed runs expanded on first access
+	private LazyDynamicView[] mMessages;
+}
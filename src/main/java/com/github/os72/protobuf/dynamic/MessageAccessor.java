@@ -0,0 +1,215 @@
+/*
+ * Copyright 2015 protobuf-dynamic developers
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.os72.protobuf.dynamic;
+
+import java.util.List;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.MessageOrBuilder;
+
+/**
+ * MessageAccessor - field access by handle for the dynamic messages of a message type (thread safe)
+ * <p>
+ * Field handles are resolved once by name or number (see {@link #getFieldHandle(String)}), then getting or
+ * setting a field costs an array read, no name lookups. Handles are dense, 0 to {@link #getFieldCount()} - 1,
+ * in field declaration order.
+ */
+public class MessageAccessor
+{
+	// --- public ---
+
+	/**
+	 * Creates a new dynamic message builder for the message type
+	 * 
+	 * @return the message builder
+	 */
+	public DynamicMessage.Builder newBuilder() {
+		return DynamicMessage.newBuilder(mMsgType);
+	}
+
+	public Descriptor getDescriptor() {
+		return mMsgType;
+	}
+
+	public int getFieldCount() {
+		return mFields.length;
+	}
+
+	/**
+	 * Resolves the given field name to a handle
+	 * 
+	 * @param fieldName the field name
+	 * @return the field handle (-1 if not found)
+	 */
+	public int getFieldHandle(String fieldName) {
+		FieldDescriptor field = mMsgType.findFieldByName(fieldName);
+		return (field == null ? -1 : field.getIndex());
+	}
+
+	/**
+	 * Resolves the given field number to a handle
+	 * 
+	 * @param fieldNumber the field number
+	 * @return the field handle (-1 if not found)
+	 */
+	public int getFieldHandleByNumber(int fieldNumber) {
+		FieldDescriptor field = mMsgType.findFieldByNumber(fieldNumber);
+		return (field == null ? -1 : field.getIndex());
+	}
+
+	/**
+	 * Gets the field descriptor for the given field handle
+	 * 
+	 * @param fieldHandle the field handle
+	 * @return the field descriptor
+	 */
+	public FieldDescriptor getField(int fieldHandle) {
+		return mFields[fieldHandle];
+	}
+
+	public boolean has(MessageOrBuilder msg, int fieldHandle) {
+		return msg.hasField(mFields[fieldHandle]);
+	}
+
+	public Object get(MessageOrBuilder msg, int fieldHandle) {
+		return msg.getField(mFields[fieldHandle]);
+	}
+
+	public int getInt(MessageOrBuilder msg, int fieldHandle) {
+		return (Integer)msg.getField(mFields[fieldHandle]);
+	}
+
+	public long getLong(MessageOrBuilder msg, int fieldHandle) {
+		return (Long)msg.getField(mFields[fieldHandle]);
+	}
+
+	public float getFloat(MessageOrBuilder msg, int fieldHandle) {
+		return (Float)msg.getField(mFields[fieldHandle]);
+	}
+
+	public double getDouble(MessageOrBuilder msg, int fieldHandle) {
+		return (Double)msg.getField(mFields[fieldHandle]);
+	}
+
+	public boolean getBoolean(MessageOrBuilder msg, int fieldHandle) {
+		return (Boolean)msg.getField(mFields[fieldHandle]);
+	}
+
+	public String getString(MessageOrBuilder msg, int fieldHandle) {
+		return (String)msg.getField(mFields[fieldHandle]);
+	}
+
+	public ByteString getBytes(MessageOrBuilder msg, int fieldHandle) {
+		return (ByteString)msg.getField(mFields[fieldHandle]);
+	}
+
+	public EnumValueDescriptor getEnum(MessageOrBuilder msg, int fieldHandle) {
+		return (EnumValueDescriptor)msg.getField(mFields[fieldHandle]);
+	}
+
+	public int getRepeatedCount(MessageOrBuilder msg, int fieldHandle) {
+		return msg.getRepeatedFieldCount(mFields[fieldHandle]);
+	}
+
+	public Object getRepeated(MessageOrBuilder msg, int fieldHandle, int index) {
+		return msg.getRepeatedField(mFields[fieldHandle], index);
+	}
+
+	public DynamicMessage.Builder set(DynamicMessage.Builder builder, int fieldHandle, Object value) {
+		return builder.setField(mFields[fieldHandle], value);
+	}
+
+	/**
+	 * Sets a numeric field from an int: widened for 64-bit and floating point fields, enum fields by enum value
+	 * number (see {@link #setEnum(DynamicMessage.Builder, int, int)})
+	 * 
+	 * @param builder the message builder
+	 * @param fieldHandle the field handle
+	 * @param value the value
+	 * @return the message builder
+	 */
+	public DynamicMessage.Builder set(DynamicMessage.Builder builder, int fieldHandle, int value) {
+		FieldDescriptor field = mFields[fieldHandle];
+		switch (field.getJavaType()) {
+		case LONG: return builder.setField(field, (long)value);
+		case FLOAT: return builder.setField(field, (float)value);
+		case DOUBLE: return builder.setField(field, (double)value);
+		case ENUM: return setEnum(builder, fieldHandle, value);
+		default: return builder.setField(field, value);
+		}
+	}
+
+	public DynamicMessage.Builder set(DynamicMessage.Builder builder, int fieldHandle, long value) {
+		return builder.setField(mFields[fieldHandle], value);
+	}
+
+	public DynamicMessage.Builder set(DynamicMessage.Builder builder, int fieldHandle, float value) {
+		return builder.setField(mFields[fieldHandle], value);
+	}
+
+	public DynamicMessage.Builder set(DynamicMessage.Builder builder, int fieldHandle, double value) {
+		return builder.setField(mFields[fieldHandle], value);
+	}
+
+	public DynamicMessage.Builder set(DynamicMessage.Builder builder, int fieldHandle, boolean value) {
+		return builder.setField(mFields[fieldHandle], value);
+	}
+
+	/**
+	 * Sets an enum field by enum value number
+	 * 
+	 * @param builder the message builder
+	 * @param fieldHandle the field handle
+	 * @param enumNumber the enum value number
+	 * @return the message builder
+	 */
+	public DynamicMessage.Builder setEnum(DynamicMessage.Builder builder, int fieldHandle, int enumNumber) {
+		FieldDescriptor field = mFields[fieldHandle];
+		EnumValueDescriptor enumValue = field.getEnumType().findValueByNumber(enumNumber);
+		if (enumValue == null) throw new IllegalArgumentException("invalid enum number for " + field.getFullName() + ": " + enumNumber);
+		return builder.setField(field, enumValue);
+	}
+
+	public DynamicMessage.Builder addRepeated(DynamicMessage.Builder builder, int fieldHandle, Object value) {
+		return builder.addRepeatedField(mFields[fieldHandle], value);
+	}
+
+	public DynamicMessage.Builder clear(DynamicMessage.Builder builder, int fieldHandle) {
+		return builder.clearField(mFields[fieldHandle]);
+	}
+
+	public String toString() {
+		return mMsgType.getFullName() + ": " + mFields.length + " fields";
+	}
+
+	// --- package ---
+
+	MessageAccessor(Descriptor msgType) {
+		mMsgType = msgType;
+		List<FieldDescriptor> fieldList = msgType.getFields();
+		mFields = fieldList.toArray(new FieldDescriptor[fieldList.size()]);
+	}
+
+	// --- private ---
+
+	private final Descriptor mMsgType;
+	private final FieldDescriptor[] mFields;
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2015 protobuf-dynamic developers
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.os72.protobuf.dynamic;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.github.os72.protobuf.dynamic.CompiledMessageType.CompiledField;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+
+/**
+ * MessageStreamParser - parses serialized messages of a message type into {@link MessageVisitor} callbacks,
+ * without building messages (thread safe)
+ * <p>
+ * Field values are read straight from the input and pushed to the visitor, nothing is retained after a
+ * callback returns: no message objects, no boxed primitives. Packed and unpacked repeated fields are both
+ * accepted. Required fields are not checked.
+ */
+public class MessageStreamParser
+{
+	// --- public ---
+
+	public Descriptor getDescriptor() {
+		return mType.mMsgType;
+	}
+
+	/**
+	 * Parses a message from the given bytes
+	 * 
+	 * @param buf the serialized message
+	 * @param visitor the visitor
+	 * @throws InvalidProtocolBufferException
+	 */
+	public void parse(byte[] buf, MessageVisitor visitor) throws InvalidProtocolBufferException {
+		try {
+			parse(CodedInputStream.newInstance(buf), visitor);
+		}
+		catch (InvalidProtocolBufferException e) {
+			throw e;
+		}
+		catch (IOException e) {
+			throw new IllegalStateException(e); // not thrown reading from a byte array
+		}
+	}
+
+	/**
+	 * Parses a message from the remaining bytes of a byte buffer (heap, direct or memory-mapped);
+	 * the buffer position is not changed
+	 * 
+	 * @param buf the serialized message
+	 * @param visitor the visitor
+	 * @throws IOException
+	 */
+	public void parse(ByteBuffer buf, MessageVisitor visitor) throws IOException {
+		parse(DynamicSchema.newCodedInput(buf), visitor);
+	}
+
+	/**
+	 * Parses a message from the given input, up to the end of the input (or the current limit)
+	 * 
+	 * @param input the input
+	 * @param visitor the visitor
+	 * @throws IOException
+	 */
+	public void parse(CodedInputStream input, MessageVisitor visitor) throws IOException {
+		parseFields(mType, input, visitor, 0);
+		input.checkLastTagWas(0);
+	}
+
+	/**
+	 * Parses a length-delimited message from the given input (see {@link com.google.protobuf.MessageLite#writeDelimitedTo})
+	 * 
+	 * @param input the input
+	 * @param visitor the visitor
+	 * @return false if at the end of the input (no message)
+	 * @throws IOException
+	 */
+	public boolean parseDelimited(CodedInputStream input, MessageVisitor visitor) throws IOException {
+		if (input.isAtEnd()) return false;
+		int oldLimit = input.pushLimit(input.readRawVarint32());
+		parse(input, visitor);
+		input.popLimit(oldLimit);
+		input.resetSizeCounter(); // streams of records may exceed the size limit in total
+		return true;
+	}
+
+	public String toString() {
+		return mType.mMsgType.getFullName() + " (stream parser)";
+	}
+
+	// --- package ---
+
+	MessageStreamParser(CompiledMessageType type) {
+		mType = type;
+	}
+
+	// --- private ---
+
+	private static void parseFields(CompiledMessageType type, CodedInputStream input, MessageVisitor visitor, int depth) throws IOException {
+		while (true) {
+			int tag = input.readTag();
+			if (tag == 0) return;
+			CompiledField field = type.getFieldByNumber(WireFormat.getTagFieldNumber(tag));
+			int wireType = tag & 7;
+			if (field != null && wireType == field.mWireType) {
+				visitValue(field, input, visitor, depth);
+			}
+			else if (field != null && field.mPackable && wireType == WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+				int oldLimit = input.pushLimit(input.readRawVarint32());
+				while (input.getBytesUntilLimit() > 0) visitValue(field, input, visitor, depth);
+				input.popLimit(oldLimit);
+			}
+			else if (!input.skipField(tag)) {
+				return; // end group
+			}
+		}
+	}
+
+	private static void visitValue(CompiledField field, CodedInputStream input, MessageVisitor visitor, int depth) throws IOException {
+		FieldDescriptor fd = field.mDescriptor;
+		switch (field.mJavaType) {
+		case INT: visitor.onInt32(fd, (int)CompiledMessage.readBits(field, input)); break;
+		case LONG: visitor.onInt64(fd, CompiledMessage.readBits(field, input)); break;
+		case FLOAT: visitor.onFloat(fd, Float.intBitsToFloat((int)CompiledMessage.readBits(field, input))); break;
+		case DOUBLE: visitor.onDouble(fd, Double.longBitsToDouble(CompiledMessage.readBits(field, input))); break;
+		case BOOLEAN: visitor.onBool(fd, CompiledMessage.readBits(field, input) != 0); break;
+		case ENUM: visitor.onEnum(fd, input.readRawVarint32()); break;
+		case STRING: visitor.onString(fd, input.readBytes()); break;
+		case BYTE_STRING: visitor.onBytes(fd, input.readBytes()); break;
+		default: // MESSAGE
+			int length = input.readRawVarint32();
+			if (depth >= RECURSION_LIMIT) throw new InvalidProtocolBufferException("message nesting too deep");
+			if (!visitor.startMessage(fd)) {
+				input.skipRawBytes(length);
+				break;
+			}
+			int oldLimit = input.pushLimit(length);
+			parseFields(field.mMessageType, input, visitor, depth + 1);
+			input.checkLastTagWas(0);
+			input.popLimit(oldLimit);
+			visitor.endMessage(fd);
+		}
+	}
+
+	private static final int RECURSION_LIMIT = 64; // same as CodedInputStream
+
+	private final CompiledMessageType mType;
+}
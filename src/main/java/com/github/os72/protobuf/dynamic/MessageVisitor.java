@@ -0,0 +1,88 @@
+/*
+ * Copyright 2015 protobuf-dynamic developers
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.os72.protobuf.dynamic;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+
+/**
+ * MessageVisitor - callbacks of a {@link MessageStreamParser}, one per field value in wire order (repeated
+ * fields: one per element); override the callbacks of interest, the others ignore their value
+ * <p>
+ * Values are passed unboxed, by Java type: int32, uint32, sint32, fixed32 and sfixed32 fields to
+ * {@link #onInt32}, the 64-bit integer types to {@link #onInt64} (unsigned types as signed values, as in
+ * protobuf-java), enums by number. Nested messages are bracketed by {@link #startMessage} and
+ * {@link #endMessage}. Unknown fields are skipped.
+ */
+public abstract class MessageVisitor
+{
+	// --- public ---
+
+	/**
+	 * Called for a nested message value, before its fields
+	 * 
+	 * @param field the message field
+	 * @return true to visit the fields of the nested message, false to skip it (endMessage is not called)
+	 */
+	public boolean startMessage(FieldDescriptor field) {
+		return true;
+	}
+
+	/**
+	 * Called for a nested message value, after its fields
+	 * 
+	 * @param field the message field
+	 */
+	public void endMessage(FieldDescriptor field) {
+	}
+
+	public void onInt32(FieldDescriptor field, int value) {
+	}
+
+	public void onInt64(FieldDescriptor field, long value) {
+	}
+
+	public void onFloat(FieldDescriptor field, float value) {
+	}
+
+	public void onDouble(FieldDescriptor field, double value) {
+	}
+
+	public void onBool(FieldDescriptor field, boolean value) {
+	}
+
+	/**
+	 * Called for an enum value (possibly a number unknown to the enum type)
+	 * 
+	 * @param field the enum field
+	 * @param enumNumber the enum number
+	 */
+	public void onEnum(FieldDescriptor field, int enumNumber) {
+	}
+
+	/**
+	 * Called for a string value, as UTF-8 bytes (decode with {@link ByteString#toStringUtf8()} if needed)
+	 * 
+	 * @param field the string field
+	 * @param utf8 the UTF-8 bytes
+	 */
+	public void onString(FieldDescriptor field, ByteString utf8) {
+	}
+
+	public void onBytes(FieldDescriptor field, ByteString value) {
+	}
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2015 protobuf-dynamic developers
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.os72.protobuf.dynamic;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.protobuf.Descriptors.Descriptor;
+
+/**
+ * ReloadingSchemaRegistry - schemas loaded from the descriptor files (*.desc) of a directory, reloaded when
+ * the files change (thread safe)
+ * <p>
+ * The directory is polled in the background, changed files are parsed (fully built) off the reader path and
+ * published with a single atomic swap: readers never block and never see a partially built schema. Schemas
+ * are named after their file, without the .desc extension. A file that fails to parse keeps its previous
+ * schema and is not retried (nor counted again as an error) until it changes; a file rewritten with identical
+ * content keeps its schema object (and type handles).
+ */
+public class ReloadingSchemaRegistry implements Closeable
+{
+	// --- public ---
+
+	/**
+	 * Creates a registry and loads the descriptor files of the given directory; the directory is
+	 * polled for changes every pollIntervalMillis (no polling if 0, see {@link #reload()})
+	 * 
+	 * @param dir the descriptor directory
+	 * @param pollIntervalMillis the poll interval in milliseconds
+	 */
+	public ReloadingSchemaRegistry(File dir, long pollIntervalMillis) {
+		if (pollIntervalMillis < 0) throw new IllegalArgumentException("invalid poll interval: " + pollIntervalMillis);
+		mDir = dir;
+		reload();
+		if (pollIntervalMillis == 0) {
+			mPoller = null;
+			return;
+		}
+		mPoller = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "ReloadingSchemaRegistry-" + mDir.getName());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		mPoller.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				reload();
+			}
+		}, pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Gets the current schema for the given name (never blocks)
+	 * 
+	 * @param schemaName the schema name (descriptor file name without .desc)
+	 * @return the schema object (null if not found)
+	 */
+	public DynamicSchema getSchema(String schemaName) {
+		SchemaEntry entry = mSchemaMapRef.get().get(schemaName);
+		return (entry == null ? null : entry.mSchema);
+	}
+
+	/**
+	 * Gets the protobuf message descriptor for the given schema and message type (never blocks)
+	 * 
+	 * @param schemaName the schema name
+	 * @param msgTypeName the message type name
+	 * @return the message descriptor (null if not found)
+	 */
+	public Descriptor getMessageDescriptor(String schemaName, String msgTypeName) {
+		DynamicSchema schema = getSchema(schemaName);
+		if (schema == null) return null;
+		return schema.getMessageDescriptor(msgTypeName);
+	}
+
+	/**
+	 * Returns the names of the current schemas
+	 * 
+	 * @return the set of schema names
+	 */
+	public Set<String> getSchemaNames() {
+		return Collections.unmodifiableSet(new TreeSet<String>(mSchemaMapRef.get().keySet()));
+	}
+
+	/**
+	 * Rescans the directory now: new and changed files are (re)loaded, schemas of deleted files are removed
+	 * 
+	 * @return true if any schema was added, replaced or removed
+	 */
+	public synchronized boolean reload() {
+		Map<String,SchemaEntry> schemaMap = mSchemaMapRef.get();
+		Map<String,SchemaEntry> newSchemaMap = new HashMap<String,SchemaEntry>();
+		Map<String,SchemaEntry> newFailedFileMap = new HashMap<String,SchemaEntry>();
+		boolean changed = false;
+
+		File[] files = mDir.listFiles();
+		if (files == null) {
+			mErrorCount++;
+			return false; // directory missing or unreadable, keep the current schemas
+		}
+		for (File file : files) {
+			String fileName = file.getName();
+			if (!fileName.endsWith(DESC_SUFFIX) || !file.isFile()) continue;
+			String schemaName = fileName.substring(0, fileName.length() - DESC_SUFFIX.length());
+			SchemaEntry entry = schemaMap.get(schemaName);
+			long lastModified = file.lastModified();
+			long length = file.length();
+			if (entry != null && entry.mLastModified == lastModified && entry.mLength == length) {
+				newSchemaMap.put(schemaName, entry);
+				continue;
+			}
+			SchemaEntry failedEntry = mFailedFileMap.get(schemaName);
+			if (failedEntry != null && failedEntry.mLastModified == lastModified && failedEntry.mLength == length) {
+				if (entry != null) newSchemaMap.put(schemaName, entry); // failed version unchanged, not retried
+				newFailedFileMap.put(schemaName, failedEntry);
+				continue;
+			}
+
+			try {
+				byte[] schemaDescBuf = DynamicSchema.readFile(file);
+				Fingerprint fingerprint = Fingerprint.of(schemaDescBuf);
+				if (entry != null && entry.mFingerprint.equals(fingerprint)) { // touched, content unchanged
+					newSchemaMap.put(schemaName, new SchemaEntry(entry.mSchema, fingerprint, lastModified, length));
+					continue;
+				}
+				DynamicSchema schema = DynamicSchema.parseFrom(schemaDescBuf);
+				newSchemaMap.put(schemaName, new SchemaEntry(schema, fingerprint, lastModified, length));
+				mReloadCount++;
+				changed = true;
+			}
+			catch (Exception e) {
+				if (entry != null) newSchemaMap.put(schemaName, entry); // keep the previous schema
+				newFailedFileMap.put(schemaName, new SchemaEntry(null, null, lastModified, length));
+				mErrorCount++;
+			}
+		}
+		if (!newSchemaMap.keySet().containsAll(schemaMap.keySet())) changed = true;
+		mFailedFileMap = newFailedFileMap;
+
+		mSchemaMapRef.set(Collections.unmodifiableMap(newSchemaMap));
+		return changed;
+	}
+
+	/**
+	 * Stops polling the directory, the current schemas remain available
+	 */
+	public void close() {
+		if (mPoller != null) mPoller.shutdownNow();
+	}
+
+	public synchronized long getReloadCount() {
+		return mReloadCount;
+	}
+
+	public synchronized long getErrorCount() {
+		return mErrorCount;
+	}
+
+	public String toString() {
+		return "dir: " + mDir + ", schemas: " + getSchemaNames();
+	}
+
+	// --- private ---
+
+	private static final String DESC_SUFFIX = ".desc";
+
+	private final File mDir;
+	private final ScheduledExecutorService mPoller;
+	private final AtomicReference<Map<String,SchemaEntry>> mSchemaMapRef =
+			new AtomicReference<Map<String,SchemaEntry>>(Collections.<String,SchemaEntry>emptyMap());
+	private Map<String,SchemaEntry> mFailedFileMap = Collections.emptyMap(); // file state only, no schema
+	private long mReloadCount;
+	private long mErrorCount;
+
+	/**
+	 * ReloadingSchemaRegistry.SchemaEntry - schema and the state of the file it was loaded from
+	 */
+	private static class SchemaEntry
+	{
+		public SchemaEntry(DynamicSchema schema, Fingerprint fingerprint, long lastModified, long length) {
+			mSchema = schema;
+			mFingerprint = fingerprint;
+			mLastModified = lastModified;
+			mLength = length;
+		}
+
+		private final DynamicSchema mSchema;
+		private final Fingerprint mFingerprint;
+		private final long mLastModified;
+		private final long mLength;
+	}
+}
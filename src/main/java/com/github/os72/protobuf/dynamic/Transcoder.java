@@ -0,0 +1,491 @@
+/*
+ * Copyright 2015 protobuf-dynamic developers
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.os72.protobuf.dynamic;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+
+/**
+ * Transcoder - rewrites serialized messages of one message type into another version of the type (e.g. from
+ * two schema versions) at the wire level, without building messages (thread safe)
+ * <p>
+ * Fields are matched by name (renumbered fields), then by number (renamed fields); source fields without
+ * a match are dropped. Matched fields must have wire compatible types, e.g. int32 and int64, string and bytes,
+ * or message types that are transcoded in turn. The mapping is compiled once; each message is then rewritten
+ * in a single pass when no nested message is rewritten and no tag grows (the output is no larger than the
+ * input), otherwise in two passes (a sizing pass records the sizes of the rewritten nested messages): fields
+ * with unchanged numbers are copied verbatim, renumbered fields are re-tagged, and message fields whose types
+ * differ are rewritten recursively.
+ * Unknown fields of the source type are kept unless their number is a field of the target type. Enum values
+ * are copied by number.
+ */
+public class Transcoder
+{
+	// --- public static ---
+
+	/**
+	 * Compiles a transcoder between the given message types
+	 * 
+	 * @param srcType the source message type
+	 * @param dstType the target message type
+	 * @return the transcoder
+	 * @throws IllegalArgumentException if fields matched by name have incompatible types
+	 */
+	public static Transcoder compile(Descriptor srcType, Descriptor dstType) {
+		Map<String,TranscodeNode> nodeMap = new HashMap<String,TranscodeNode>();
+		TranscodeNode root = compile(srcType, dstType, nodeMap);
+		link(nodeMap.values());
+		return new Transcoder(root);
+	}
+
+	// --- public ---
+
+	public Descriptor getSourceType() {
+		return mRoot.mSrcType;
+	}
+
+	public Descriptor getTargetType() {
+		return mRoot.mDstType;
+	}
+
+	/**
+	 * Returns whether serialized messages are the same in both versions of the message type (copied as is)
+	 * 
+	 * @return true if the transcoder does not change messages
+	 */
+	public boolean isIdentity() {
+		return mRoot.mIdentity;
+	}
+
+	/**
+	 * Transcodes a serialized message
+	 * 
+	 * @param msg the serialized message of the source type
+	 * @return the serialized message of the target type
+	 * @throws InvalidProtocolBufferException
+	 */
+	public byte[] transcode(byte[] msg) throws InvalidProtocolBufferException {
+		return transcode(ByteBuffer.wrap(msg));
+	}
+
+	/**
+	 * Transcodes a serialized message, in the remaining bytes of a byte buffer (heap, direct or memory-mapped);
+	 * the buffer position is not changed
+	 * 
+	 * @param msg the serialized message of the source type
+	 * @return the serialized message of the target type
+	 * @throws InvalidProtocolBufferException
+	 */
+	public byte[] transcode(ByteBuffer msg) throws InvalidProtocolBufferException {
+		Pass pass = new Pass(msg);
+		if (mRoot.mShrinking) { // single pass, into an input sized buffer
+			byte[] buf = new byte[msg.remaining()];
+			ByteBuffer out = ByteBuffer.wrap(buf);
+			pass.write(mRoot, out);
+			if (out.position() == buf.length) return buf;
+			byte[] trimmedBuf = new byte[out.position()];
+			System.arraycopy(buf, 0, trimmedBuf, 0, trimmedBuf.length);
+			return trimmedBuf;
+		}
+		byte[] buf = new byte[pass.size(mRoot)];
+		pass.write(mRoot, ByteBuffer.wrap(buf));
+		return buf;
+	}
+
+	/**
+	 * Transcodes a serialized message, in the remaining bytes of a byte buffer, into the given output buffer
+	 * from its position (the position is advanced); the input buffer position is not changed
+	 * 
+	 * @param msg the serialized message of the source type
+	 * @param out the output buffer
+	 * @return the size of the serialized message of the target type
+	 * @throws InvalidProtocolBufferException
+	 * @throws BufferOverflowException if the output buffer is too small (nothing written)
+	 */
+	public int transcode(ByteBuffer msg, ByteBuffer out) throws InvalidProtocolBufferException {
+		Pass pass = new Pass(msg);
+		if (mRoot.mShrinking && msg.remaining() <= out.remaining()) { // single pass
+			int start = out.position();
+			try {
+				pass.write(mRoot, out);
+			}
+			catch (InvalidProtocolBufferException e) {
+				out.position(start);
+				throw e;
+			}
+			return out.position() - start;
+		}
+		int size = pass.size(mRoot);
+		if (size > out.remaining()) throw new BufferOverflowException();
+		pass.write(mRoot, out);
+		return size;
+	}
+
+	public String toString() {
+		return mRoot.mSrcType.getFullName() + " -> " + mRoot.mDstType.getFullName() + (mRoot.mIdentity ? " (identity)" : "");
+	}
+
+	// --- private ---
+
+	private Transcoder(TranscodeNode root) {
+		mRoot = root;
+	}
+
+	private static TranscodeNode compile(Descriptor srcType, Descriptor dstType, Map<String,TranscodeNode> nodeMap) {
+		String key = srcType.getFullName() + " -> " + dstType.getFullName();
+		TranscodeNode node = nodeMap.get(key);
+		if (node != null) return node;
+		node = new TranscodeNode(srcType, dstType);
+		nodeMap.put(key, node); // before mapping fields, message types may be recursive
+
+		List<FieldMapping> mappingList = new ArrayList<FieldMapping>();
+		for (FieldDescriptor srcField : srcType.getFields()) {
+			FieldDescriptor dstField = dstType.findFieldByName(srcField.getName());
+			if (dstField != null) {
+				if (!isCompatible(srcField, dstField)) {
+					throw new IllegalArgumentException("incompatible field types: " + srcField.getFullName() + " (" + srcField.getType() + ") -> "
+							+ dstField.getFullName() + " (" + dstField.getType() + ")");
+				}
+			}
+			else { // renamed: same number, name not in the source type
+				dstField = dstType.findFieldByNumber(srcField.getNumber());
+				if (dstField != null && (srcType.findFieldByName(dstField.getName()) != null || !isCompatible(srcField, dstField))) dstField = null;
+			}
+			FieldMapping mapping = new FieldMapping(srcField.getNumber(), dstField == null ? 0 : dstField.getNumber());
+			if (dstField != null && srcField.getJavaType() == FieldDescriptor.JavaType.MESSAGE) {
+				mapping.mChild = compile(srcField.getMessageType(), dstField.getMessageType(), nodeMap);
+			}
+			mappingList.add(mapping);
+		}
+		for (FieldDescriptor dstField : dstType.getFields()) { // unknown source fields with these numbers are dropped
+			if (srcType.findFieldByNumber(dstField.getNumber()) == null) mappingList.add(new FieldMapping(dstField.getNumber(), 0));
+		}
+		node.init(mappingList);
+		return node;
+	}
+
+	private static boolean isCompatible(FieldDescriptor srcField, FieldDescriptor dstField) {
+		if (srcField.getJavaType() == FieldDescriptor.JavaType.MESSAGE) return srcField.getType() == dstField.getType(); // message or group
+		return wireClass(srcField.getType()) == wireClass(dstField.getType());
+	}
+
+	private static int wireClass(FieldDescriptor.Type type) {
+		switch (type) {
+		case INT32: case INT64: case UINT32: case UINT64: case BOOL: case ENUM: return 0;
+		case SINT32: case SINT64: return 1;
+		case FIXED32: case SFIXED32: return 2;
+		case FIXED64: case SFIXED64: return 3;
+		case FLOAT: return 4;
+		case DOUBLE: return 5;
+		case STRING: case BYTES: return 6;
+		default: return 7; // MESSAGE, GROUP
+		}
+	}
+
+	/**
+	 * Marks the nodes that change nothing (up to nested messages), these are copied verbatim, and the nodes
+	 * that cannot grow messages, these are transcoded in a single pass
+	 */
+	private static void link(Iterable<TranscodeNode> nodes) {
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (TranscodeNode node : nodes) {
+				if (!node.mIdentity) continue;
+				for (FieldMapping mapping : node.mMappings) {
+					if (mapping.mChild != null && !mapping.mChild.mIdentity) {
+						node.mIdentity = false;
+						changed = true;
+						break;
+					}
+				}
+			}
+		}
+		for (TranscodeNode node : nodes) {
+			for (FieldMapping mapping : node.mMappings) {
+				if (mapping.mChild != null && mapping.mChild.mIdentity) mapping.mChild = null;
+			}
+			node.mShrinking = true;
+			for (FieldMapping mapping : node.mMappings) {
+				if (mapping.mChild != null || (mapping.mDstNumber != 0
+						&& CodedOutputStream.computeRawVarint32Size(mapping.mDstNumber << 3) > CodedOutputStream.computeRawVarint32Size(mapping.mSrcNumber << 3))) {
+					node.mShrinking = false;
+					break;
+				}
+			}
+		}
+	}
+
+	private static final int RECURSION_LIMIT = 64; // same as CodedInputStream
+
+	private final TranscodeNode mRoot;
+
+	/**
+	 * Transcoder.TranscodeNode - field mappings of a message type to another version of the type
+	 */
+	private static class TranscodeNode
+	{
+		public TranscodeNode(Descriptor srcType, Descriptor dstType) {
+			mSrcType = srcType;
+			mDstType = dstType;
+		}
+
+		public void init(List<FieldMapping> mappingList) {
+			mMappings = mappingList.toArray(new FieldMapping[mappingList.size()]);
+			int maxNumber = 0;
+			mIdentity = true;
+			for (FieldMapping mapping : mMappings) {
+				maxNumber = Math.max(maxNumber, mapping.mSrcNumber);
+				if (mapping.mDstNumber != mapping.mSrcNumber) mIdentity = false;
+			}
+			if (maxNumber <= Math.max(64, 2 * mMappings.length)) {
+				mByNumber = new FieldMapping[maxNumber + 1];
+				for (FieldMapping mapping : mMappings) mByNumber[mapping.mSrcNumber] = mapping;
+			}
+			else { // sparse field numbers
+				mSortedByNumber = mMappings.clone();
+				mSortedNumbers = new int[mSortedByNumber.length];
+				for (int i = 0; i < mSortedByNumber.length; i++) mSortedNumbers[i] = mSortedByNumber[i].mSrcNumber;
+				sortByNumber(mSortedNumbers, mSortedByNumber);
+			}
+		}
+
+		public FieldMapping get(int fieldNumber) {
+			if (mByNumber != null) return (fieldNumber < mByNumber.length ? mByNumber[fieldNumber] : null);
+			int idx = Arrays.binarySearch(mSortedNumbers, fieldNumber);
+			return (idx < 0 ? null : mSortedByNumber[idx]);
+		}
+
+		private static void sortByNumber(int[] numbers, FieldMapping[] mappings) { // insertion sort
+			for (int i = 1; i < numbers.length; i++) {
+				for (int j = i; j > 0 && numbers[j - 1] > numbers[j]; j--) {
+					int number = numbers[j]; numbers[j] = numbers[j - 1]; numbers[j - 1] = number;
+					FieldMapping mapping = mappings[j]; mappings[j] = mappings[j - 1]; mappings[j - 1] = mapping;
+				}
+			}
+		}
+
+		private final Descriptor mSrcType;
+		private final Descriptor mDstType;
+		private FieldMapping[] mMappings;
+		private boolean mIdentity;
+		private boolean mShrinking; // no nested message rewritten, no tag longer
+		private FieldMapping[] mByNumber;
+		private int[] mSortedNumbers;
+		private FieldMapping[] mSortedByNumber;
+	}
+
+	/**
+	 * Transcoder.FieldMapping - source field number, target field number (0: dropped), nested message mapping
+	 * (null: copied verbatim)
+	 */
+	private static class FieldMapping
+	{
+		public FieldMapping(int srcNumber, int dstNumber) {
+			mSrcNumber = srcNumber;
+			mDstNumber = dstNumber;
+		}
+
+		private final int mSrcNumber;
+		private final int mDstNumber;
+		private TranscodeNode mChild;
+	}
+
+	/**
+	 * Transcoder.Pass - one message being transcoded: a sizing pass, which records the sizes of rewritten
+	 * nested messages (skipped if none), then a writing pass
+	 */
+	private static class Pass
+	{
+		public Pass(ByteBuffer in) {
+			mIn = in;
+			mCopyBuf = in.duplicate();
+			mStart = in.position();
+			mEnd = in.limit();
+		}
+
+		public int size(TranscodeNode root) throws InvalidProtocolBufferException {
+			if (root.mIdentity) return mEnd - mStart;
+			mOut = null;
+			mPos = mStart;
+			return transcodeFields(root, mEnd, 0, 0);
+		}
+
+		public void write(TranscodeNode root, ByteBuffer out) throws InvalidProtocolBufferException {
+			mOut = out;
+			if (root.mIdentity) {
+				copy(mStart, mEnd);
+				return;
+			}
+			mPos = mStart;
+			mSizeIndex = 0;
+			transcodeFields(root, mEnd, 0, 0);
+		}
+
+		/**
+		 * Transcodes fields up to the end, or the end of the given group
+		 * 
+		 * @return the size of the transcoded fields
+		 */
+		private int transcodeFields(TranscodeNode node, int end, int groupNumber, int depth) throws InvalidProtocolBufferException {
+			int size = 0;
+			while (mPos < end) {
+				int tagPos = mPos;
+				int tag = readVarint32(end);
+				int number = WireFormat.getTagFieldNumber(tag);
+				int wireType = tag & 7;
+				if (number == 0) throw new InvalidProtocolBufferException("invalid tag");
+				if (wireType == WireFormat.WIRETYPE_END_GROUP) {
+					if (number != groupNumber) throw new InvalidProtocolBufferException("unmatched end group");
+					return size;
+				}
+				FieldMapping mapping = (node == null ? null : node.get(number));
+				if (mapping == null || (mapping.mDstNumber == number && mapping.mChild == null)) { // verbatim
+					skipValue(wireType, end, depth);
+					size += copy(tagPos, mPos);
+				}
+				else if (mapping.mDstNumber == 0) { // dropped
+					skipValue(wireType, end, depth);
+				}
+				else if (wireType == WireFormat.WIRETYPE_START_GROUP) { // re-tagged group, and its end tag
+					int dstNumber = mapping.mDstNumber;
+					size += writeVarint((dstNumber << 3) | WireFormat.WIRETYPE_START_GROUP);
+					if (depth >= RECURSION_LIMIT) throw new InvalidProtocolBufferException("message nesting too deep");
+					size += transcodeFields(mapping.mChild, end, number, depth + 1);
+					size += writeVarint((dstNumber << 3) | WireFormat.WIRETYPE_END_GROUP);
+				}
+				else if (mapping.mChild == null || wireType != WireFormat.WIRETYPE_LENGTH_DELIMITED) { // re-tagged
+					int valuePos = mPos;
+					skipValue(wireType, end, depth);
+					size += writeVarint((mapping.mDstNumber << 3) | wireType) + copy(valuePos, mPos);
+				}
+				else { // rewritten message
+					int length = readVarint32(end);
+					if (length < 0 || length > end - mPos) throw new InvalidProtocolBufferException("message truncated");
+					if (depth >= RECURSION_LIMIT) throw new InvalidProtocolBufferException("message nesting too deep");
+					size += writeVarint((mapping.mDstNumber << 3) | wireType);
+					int msgSize;
+					if (mOut == null) {
+						int sizeIndex = mSizeCount++;
+						if (sizeIndex == mSizes.length) {
+							int[] sizes = new int[mSizes.length * 2];
+							System.arraycopy(mSizes, 0, sizes, 0, sizeIndex);
+							mSizes = sizes;
+						}
+						msgSize = transcodeFields(mapping.mChild, mPos + length, 0, depth + 1);
+						mSizes[sizeIndex] = msgSize;
+					}
+					else {
+						msgSize = mSizes[mSizeIndex++];
+						writeVarint(msgSize);
+						transcodeFields(mapping.mChild, mPos + length, 0, depth + 1);
+					}
+					size += CodedOutputStream.computeRawVarint32Size(msgSize) + msgSize;
+				}
+			}
+			if (groupNumber != 0) throw new InvalidProtocolBufferException("group truncated");
+			return size;
+		}
+
+		private void skipValue(int wireType, int end, int depth) throws InvalidProtocolBufferException {
+			switch (wireType) {
+			case WireFormat.WIRETYPE_VARINT:
+				for (int i = 0; ; i++) {
+					if (mPos >= end || i == 10) throw new InvalidProtocolBufferException("malformed varint");
+					if (mIn.get(mPos++) >= 0) break;
+				}
+				break;
+			case WireFormat.WIRETYPE_FIXED64: skipBytes(8, end); break;
+			case WireFormat.WIRETYPE_FIXED32: skipBytes(4, end); break;
+			case WireFormat.WIRETYPE_LENGTH_DELIMITED: skipBytes(readVarint32(end), end); break;
+			case WireFormat.WIRETYPE_START_GROUP:
+				if (depth >= RECURSION_LIMIT) throw new InvalidProtocolBufferException("message nesting too deep");
+				skipGroup(end, depth + 1);
+				break;
+			default: throw new InvalidProtocolBufferException("invalid wire type");
+			}
+		}
+
+		private void skipGroup(int end, int depth) throws InvalidProtocolBufferException {
+			while (true) {
+				if (mPos >= end) throw new InvalidProtocolBufferException("group truncated");
+				int tag = readVarint32(end);
+				int wireType = tag & 7;
+				if (wireType == WireFormat.WIRETYPE_END_GROUP) return;
+				skipValue(wireType, end, depth);
+			}
+		}
+
+		private void skipBytes(int length, int end) throws InvalidProtocolBufferException {
+			if (length < 0 || length > end - mPos) throw new InvalidProtocolBufferException("message truncated");
+			mPos += length;
+		}
+
+		private int readVarint32(int end) throws InvalidProtocolBufferException {
+			int value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				if (mPos >= end) throw new InvalidProtocolBufferException("message truncated");
+				byte b = mIn.get(mPos++);
+				if (shift < 32) value |= (b & 0x7f) << shift;
+				if (b >= 0) return value;
+			}
+			throw new InvalidProtocolBufferException("malformed varint");
+		}
+
+		private int writeVarint(int value) {
+			int size = CodedOutputStream.computeRawVarint32Size(value);
+			if (mOut != null) {
+				while ((value & ~0x7f) != 0) {
+					mOut.put((byte)((value & 0x7f) | 0x80));
+					value >>>= 7;
+				}
+				mOut.put((byte)value);
+			}
+			return size;
+		}
+
+		private int copy(int start, int end) {
+			if (mOut != null) {
+				mCopyBuf.limit(end);
+				mCopyBuf.position(start);
+				mOut.put(mCopyBuf);
+			}
+			return end - start;
+		}
+
+		private final ByteBuffer mIn;
+		private final ByteBuffer mCopyBuf;
+		private final int mStart;
+		private final int mEnd;
+		private int mPos;
+		private ByteBuffer mOut; // null in the sizing pass
+		private int[] mSizes = new int[16]; // sizes of rewritten nested messages, in order
+		private int mSizeCount;
+		private int mSizeIndex;
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 protobuf-dynamic developers
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.os72.protobuf.dynamic;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * TypeIndex - immutable open-addressing hash table of type names (full and short) to type handles
+ * <p>
+ * Handles are the positions of the types in the full name array the index is built from. Short names
+ * shared by several types are ambiguous and not indexed; a short name takes precedence over an identical
+ * full name of another type. The table is at most half full, lookups mostly take a single probe.
+ */
+final class TypeIndex
+{
+	// --- package static ---
+
+	static TypeIndex build(String[] fullNames, String[] shortNames) {
+		Set<String> shortNameSet = new HashSet<String>();
+		Set<String> ambiguousNameSet = new HashSet<String>();
+		for (String shortName : shortNames) {
+			if (!shortNameSet.add(shortName)) ambiguousNameSet.add(shortName);
+		}
+
+		int capacity = Integer.highestOneBit(Math.max(4 * fullNames.length, 2) - 1) << 1; // load factor <= 0.5
+		TypeIndex index = new TypeIndex(capacity);
+		for (int i = 0; i < fullNames.length; i++) index.put(fullNames[i], i);
+		for (int i = 0; i < shortNames.length; i++) {
+			if (!ambiguousNameSet.contains(shortNames[i])) index.put(shortNames[i], i);
+		}
+		return index;
+	}
+
+	// --- package ---
+
+	/**
+	 * Returns the handle of the given type name, -1 if not found
+	 */
+	int get(String name) {
+		int hash = hash(name);
+		for (int i = hash & mMask; ; i = (i + 1) & mMask) {
+			String key = mKeys[i];
+			if (key == null) return -1;
+			if (mHashes[i] == hash && (key == name || key.equals(name))) return mHandles[i];
+		}
+	}
+
+	// --- private ---
+
+	private TypeIndex(int capacity) {
+		mKeys = new String[capacity];
+		mHashes = new int[capacity];
+		mHandles = new int[capacity];
+		mMask = capacity - 1;
+	}
+
+	private void put(String name, int handle) {
+		int hash = hash(name);
+		int i = hash & mMask;
+		while (mKeys[i] != null && !(mHashes[i] == hash && mKeys[i].equals(name))) i = (i + 1) & mMask;
+		mKeys[i] = name;
+		mHashes[i] = hash;
+		mHandles[i] = handle;
+	}
+
+	private static int hash(String name) {
+		int h = name.hashCode() * 0x9e3779b9; // String caches its hash code, spread it over the low bits
+		return h ^ (h >>> 16);
+	}
+
+	private final String[] mKeys;
+	private final int[] mHashes;
+	private final int[] mHandles;
+	private final int mMask;
+}
@@ -16,14 +16,40 @@
 
 package com.github.os72.protobuf.dynamic;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.junit.Test;
 import org.junit.Assert;
 
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
 import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.DescriptorValidationException;
+import com.google.protobuf.Descriptors.EnumDescriptor;
 import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
 import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.UnknownFieldSet;
 
 public class DynamicSchemaTest
 {
@@ -247,6 +273,61 @@ public class DynamicSchemaTest
 		Assert.assertNotNull(ex);
 	}
 
+	/**
+	 * testSchemaExtend - incremental schema extension
+	 */
+	@Test
+	public void testSchemaExtend() throws Exception {
+		log("--- testSchemaExtend ---");
+		
+		DynamicSchema schema1 = DynamicSchema.parseFrom(new FileInputStream("src/test/resources/Schema1.desc"));
+		
+		DynamicSchema.Builder schemaBuilder = DynamicSchema.newBuilder().setName("Schema4.proto").setPackage("package4");
+		schemaBuilder.addDependency("Schema1.proto");
+		schemaBuilder.addMessageDefinition(MessageDefinition.newBuilder("Msg4").addField("optional", "Msg1", "msg1", 1).build());
+		DynamicSchema schema2 = schema1.extend(schemaBuilder);
+		log(schema2);
+		
+		// Existing descriptors are reused
+		Assert.assertSame(schema1.getMessageDescriptor("Msg1"), schema2.getMessageDescriptor("Msg1"));
+		Assert.assertSame(schema1.getMessageDescriptor("Msg1"), schema2.getMessageDescriptor("Msg4").findFieldByName("msg1").getMessageType());
+		Assert.assertEquals(schema1.getFileDescriptorSet().getFileCount() + 1, schema2.getFileDescriptorSet().getFileCount());
+		
+		// Base schema is unchanged
+		Assert.assertNotNull(schema2.getMessageDescriptor("Msg4"));
+		Assert.assertNull(schema1.getMessageDescriptor("Msg4"));
+		
+		// Short name lookup honors ambiguity across base and new files
+		DynamicSchema schema5 = schema2.extend(DynamicSchema.newBuilder().setName("Schema5.proto").setPackage("package5")
+				.addMessageDefinition(MessageDefinition.newBuilder("Msg4").build()));
+		Assert.assertNull(schema5.getMessageDescriptor("Msg4"));
+		Assert.assertNotNull(schema5.getMessageDescriptor("package4.Msg4"));
+		Assert.assertNotNull(schema5.getMessageDescriptor("package5.Msg4"));
+		DynamicSchema schema2Lazy = DynamicSchema.parseFromLazy(schema2.toByteArray());
+		Assert.assertNotNull(schema2Lazy.getMessageDescriptor("Msg4")); // resolved before extending
+		Assert.assertNull(schema2Lazy.extend(schema5.getFileDescriptorSet()).getMessageDescriptor("Msg4"));
+		
+		// Extended schema is equivalent to one built from scratch
+		DynamicSchema schema3 = DynamicSchema.parseFrom(schema2.toByteArray());
+		Assert.assertEquals(schema3.toString(), schema2.toString());
+		
+		// Files identical to existing ones are skipped, lazy schemas can be extended too
+		DynamicSchema schema4 = DynamicSchema.parseFromLazy(schema1.toByteArray()).extend(schema2.getFileDescriptorSet());
+		Assert.assertEquals(schema2.toString(), schema4.toString());
+		Assert.assertNotNull(schema4.getMessageDescriptor("Msg4").findFieldByName("msg1"));
+		
+		// Trying to add a different file with an existing name should throw exception
+		IllegalArgumentException ex = null;
+		try {
+			schema2.extend(DynamicSchema.newBuilder().setName("Schema4.proto"));
+		}
+		catch (IllegalArgumentException e) {
+			log("expected: " + e);
+			ex = e;
+		}
+		Assert.assertNotNull(ex);
+	}
+
 	/**
 	 * testSchemaSerialization - serialization, deserialization, protoc output parsing 
 	 */
@@ -265,6 +346,31 @@ public class DynamicSchemaTest
 		Assert.assertEquals(schema1.toString(), schema2.toString());
 	}
 
+	/**
+	 * testSchemaSerializationBuffer - deserialization from file and byte buffers
+	 */
+	@Test
+	public void testSchemaSerializationBuffer() throws Exception {
+		log("--- testSchemaSerializationBuffer ---");
+		
+		DynamicSchema schema1 = DynamicSchema.parseFrom(new FileInputStream("src/test/resources/Schema1.desc"));
+		DynamicSchema schema2 = DynamicSchema.parseFrom(new File("src/test/resources/Schema1.desc")); // memory-mapped
+		Assert.assertEquals(schema1.toString(), schema2.toString());
+		
+		byte[] descBuf = schema1.toByteArray();
+		ByteBuffer heapBuf = ByteBuffer.allocate(descBuf.length + 10);
+		heapBuf.position(3);
+		heapBuf.put(descBuf).flip().position(3);
+		heapBuf = heapBuf.slice();
+		Assert.assertEquals(schema1.toString(), DynamicSchema.parseFrom(heapBuf).toString());
+		Assert.assertEquals(0, heapBuf.position());
+		
+		ByteBuffer directBuf = ByteBuffer.allocateDirect(descBuf.length);
+		directBuf.put(descBuf).flip();
+		Assert.assertEquals(schema1.toString(), DynamicSchema.parseFrom(directBuf).toString());
+		Assert.assertEquals(0, directBuf.position());
+	}
+
 	/**
 	 * testSchemaDependency - nested dependencies (imports)
 	 */
@@ -306,6 +412,1604 @@ public class DynamicSchemaTest
 		Assert.assertNotNull(ex);
 	}
 
+	/**
+	 * testSchemaDependencyScaling - many files, imports listed in reverse dependency order
+	 */
+	@Test
+	public void testSchemaDependencyScaling() throws Exception {
+		log("--- testSchemaDependencyScaling ---");
+		
+		// file_i.proto imports file_(i-1).proto, Msg_i refers to Msg_(i-1); worst case order for resolution
+		int fileCount = 10000;
+		FileDescriptorSet.Builder fileDescSetBuilder = FileDescriptorSet.newBuilder();
+		for (int i = fileCount - 1; i >= 0; i--) {
+			DescriptorProto.Builder msgTypeBuilder = DescriptorProto.newBuilder().setName("Msg_" + i);
+			FileDescriptorProto.Builder fdProtoBuilder = FileDescriptorProto.newBuilder().setName("file_" + i + ".proto");
+			if (i > 0) {
+				fdProtoBuilder.addDependency("file_" + (i - 1) + ".proto");
+				msgTypeBuilder.addField(newMsgField("prev", 1, "Msg_" + (i - 1)));
+			}
+			fileDescSetBuilder.addFile(fdProtoBuilder.addMessageType(msgTypeBuilder));
+		}
+		
+		long t0 = System.currentTimeMillis();
+		DynamicSchema schema = DynamicSchema.parseFrom(fileDescSetBuilder.build().toByteArray());
+		log(fileCount + " files: " + (System.currentTimeMillis() - t0) + " ms");
+		
+		Assert.assertEquals(fileCount, schema.getMessageTypes().size());
+		Descriptor lastDesc = schema.getMessageDescriptor("Msg_" + (fileCount - 1));
+		Assert.assertEquals("Msg_" + (fileCount - 2), lastDesc.findFieldByName("prev").getMessageType().getFullName());
+	}
+
+	/**
+	 * testSchemaDependencyCycle - cyclic dependencies (imports)
+	 */
+	@Test
+	public void testSchemaDependencyCycle() throws Exception {
+		log("--- testSchemaDependencyCycle ---");
+		
+		FileDescriptorSet fileDescSet = FileDescriptorSet.newBuilder()
+				.addFile(FileDescriptorProto.newBuilder().setName("a.proto").addDependency("b.proto"))
+				.addFile(FileDescriptorProto.newBuilder().setName("b.proto").addDependency("c.proto"))
+				.addFile(FileDescriptorProto.newBuilder().setName("c.proto").addDependency("a.proto"))
+				.addFile(FileDescriptorProto.newBuilder().setName("d.proto").addDependency("a.proto"))
+				.build();
+		
+		// Trying to parse schema descriptor with an import cycle should throw exception
+		IllegalArgumentException ex = null;
+		try {
+			DynamicSchema.parseFrom(fileDescSet.toByteArray());
+		}
+		catch (IllegalArgumentException e) {
+			log("expected: " + e);
+			ex = e;
+		}
+		Assert.assertNotNull(ex);
+		Assert.assertTrue(ex.getMessage().contains("a.proto -> b.proto -> c.proto -> a.proto"));
+	}
+
+	/**
+	 * testSchemaParallelBuild - independent files built in parallel
+	 */
+	@Test
+	public void testSchemaParallelBuild() throws Exception {
+		log("--- testSchemaParallelBuild ---");
+		
+		// common.proto <- file_i.proto (i = 0..n-1) <- top.proto
+		int fileCount = 500;
+		FileDescriptorSet.Builder fileDescSetBuilder = FileDescriptorSet.newBuilder();
+		FileDescriptorProto.Builder topProtoBuilder = FileDescriptorProto.newBuilder().setName("top.proto");
+		DescriptorProto.Builder topMsgTypeBuilder = DescriptorProto.newBuilder().setName("Top");
+		for (int i = 0; i < fileCount; i++) {
+			fileDescSetBuilder.addFile(FileDescriptorProto.newBuilder()
+					.setName("file_" + i + ".proto")
+					.addDependency("common.proto")
+					.addMessageType(DescriptorProto.newBuilder().setName("Msg_" + i).addField(newMsgField("common", 1, "Common"))));
+			topProtoBuilder.addDependency("file_" + i + ".proto");
+			topMsgTypeBuilder.addField(newMsgField("msg_" + i, i + 1, "Msg_" + i));
+		}
+		fileDescSetBuilder.addFile(topProtoBuilder.addMessageType(topMsgTypeBuilder));
+		fileDescSetBuilder.addFile(FileDescriptorProto.newBuilder().setName("common.proto").addMessageType(DescriptorProto.newBuilder().setName("Common")));
+		byte[] descBuf = fileDescSetBuilder.build().toByteArray();
+		
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			DynamicSchema schema1 = DynamicSchema.parseFrom(descBuf);
+			DynamicSchema schema2 = DynamicSchema.parseFrom(descBuf, executor);
+			Assert.assertEquals(fileCount + 2, schema2.getMessageTypes().size());
+			Assert.assertEquals(schema1.getMessageTypes(), schema2.getMessageTypes());
+			Descriptor topDesc = schema2.getMessageDescriptor("Top");
+			Assert.assertSame(schema2.getMessageDescriptor("Common"), 
+					topDesc.findFieldByName("msg_7").getMessageType().findFieldByName("common").getMessageType());
+			
+			DynamicSchema.Builder schemaBuilder = DynamicSchema.newBuilder().setName("PersonSchemaDynamic.proto");
+			schemaBuilder.addDependency("top.proto").addSchema(schema1);
+			schemaBuilder.addMessageDefinition(MessageDefinition.newBuilder("Person").addField("required", "Top", "top", 1).build());
+			Assert.assertNotNull(schemaBuilder.build(executor).getMessageDescriptor("Person"));
+			
+			// Validation errors in any of the parallel builds should be reported
+			fileDescSetBuilder.getFileBuilder(fileCount / 2).getMessageTypeBuilder(0).addField(newMsgField("undefined", 2, "Undefined"));
+			DescriptorValidationException ex = null;
+			try {
+				DynamicSchema.parseFrom(fileDescSetBuilder.build().toByteArray(), executor);
+			}
+			catch (DescriptorValidationException e) {
+				log("expected: " + e);
+				ex = e;
+			}
+			Assert.assertNotNull(ex);
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * testSchemaLazy - lazy mode, files built on first lookup
+	 */
+	@Test
+	public void testSchemaLazy() throws Exception {
+		log("--- testSchemaLazy ---");
+		
+		DynamicSchema schema1 = DynamicSchema.parseFrom(new FileInputStream("src/test/resources/Schema1.desc"));
+		DynamicSchema schema2 = DynamicSchema.parseFromLazy(new FileInputStream("src/test/resources/Schema1.desc"));
+		log(schema2);
+		
+		// Type names are known up front
+		Assert.assertEquals(schema1.getMessageTypes(), schema2.getMessageTypes());
+		Assert.assertEquals(schema1.getEnumTypes(), schema2.getEnumTypes());
+		
+		Descriptor msg2Desc = schema2.getMessageDescriptor("Msg2");
+		Assert.assertSame(schema2.getMessageDescriptor("Person"), msg2Desc.findFieldByName("person").getMessageType());
+		Assert.assertSame(schema2.getMessageDescriptor("Msg3"), msg2Desc.findFieldByName("msg3").getMessageType());
+		Assert.assertNotNull(schema2.getMessageDescriptor("Person.PhoneNumber"));
+		Assert.assertEquals("WORK", schema2.getEnumValue("Person.PhoneType", 2).getName());
+		Assert.assertNull(schema2.getMessageDescriptor("Undefined"));
+		
+		// Invalid files are only reported when one of their types is looked up
+		FileDescriptorSet fileDescSet = FileDescriptorSet.newBuilder()
+				.addFile(FileDescriptorProto.newBuilder().setName("a.proto").setPackage("pkg_a")
+						.addMessageType(DescriptorProto.newBuilder().setName("Msg")))
+				.addFile(FileDescriptorProto.newBuilder().setName("b.proto").setPackage("pkg_b")
+						.addMessageType(DescriptorProto.newBuilder().setName("Msg").addField(newMsgField("undefined", 1, "Undefined"))))
+				.build();
+		DynamicSchema schema3 = DynamicSchema.parseFromLazy(fileDescSet.toByteArray());
+		Assert.assertNull(schema3.getMessageDescriptor("Msg")); // ambiguous
+		Assert.assertNotNull(schema3.getMessageDescriptor("pkg_a.Msg"));
+		IllegalArgumentException ex = null;
+		try {
+			schema3.getMessageDescriptor("pkg_b.Msg");
+		}
+		catch (IllegalArgumentException e) {
+			log("expected: " + e);
+			ex = e;
+		}
+		Assert.assertNotNull(ex);
+	}
+
+	/**
+	 * testSchemaPool - file descriptors shared across schemas
+	 */
+	@Test
+	public void testSchemaPool() throws Exception {
+		log("--- testSchemaPool ---");
+		
+		FileDescriptorPool pool = new FileDescriptorPool();
+		byte[] descBuf1 = DynamicSchema.parseFrom(new FileInputStream("src/test/resources/Schema1.desc")).toByteArray();
+		byte[] descBuf2 = DynamicSchema.parseFrom(new FileInputStream("src/test/resources/Schema2.desc")).toByteArray();
+		
+		DynamicSchema schema1 = DynamicSchema.parseFrom(descBuf1, pool);
+		DynamicSchema schema2 = DynamicSchema.parseFrom(descBuf2, pool);
+		DynamicSchema schema3 = DynamicSchema.parseFromLazy(descBuf1, pool);
+		log(pool);
+		
+		// Schema2.proto and its imports are shared, Schema1.proto only with the lazy schema
+		Assert.assertSame(schema1.getMessageDescriptor("Person"), schema2.getMessageDescriptor("Person"));
+		Assert.assertSame(schema1.getMessageDescriptor("Msg2"), schema2.getMessageDescriptor("Msg2"));
+		Assert.assertSame(schema1.getMessageDescriptor("Msg1"), schema3.getMessageDescriptor("Msg1"));
+		Assert.assertEquals(4, pool.size());
+		Assert.assertEquals(4, pool.getMissCount());
+		Assert.assertEquals(7, pool.getHitCount());
+		
+		// Same file name, different content: not shared
+		DynamicSchema.Builder schemaBuilder = DynamicSchema.newBuilder().setName("PersonSchema.proto");
+		schemaBuilder.addMessageDefinition(MessageDefinition.newBuilder("Person").addField("required", "int32", "id", 1).build());
+		DynamicSchema schema4 = schemaBuilder.build(pool);
+		Assert.assertNotSame(schema1.getMessageDescriptor("Person"), schema4.getMessageDescriptor("Person"));
+		Assert.assertSame(schema4.getMessageDescriptor("Person"), schemaBuilder.build(pool).getMessageDescriptor("Person"));
+		Assert.assertEquals(5, pool.size());
+		
+		// Same file content, different dependency content: not shared
+		DynamicSchema.Builder schemaBuilder2 = DynamicSchema.newBuilder().setName("Schema3.proto");
+		schemaBuilder2.addMessageDefinition(MessageDefinition.newBuilder("Msg3").addField("optional", "int32", "id", 1).build());
+		FileDescriptorSet.Builder fileDescSetBuilder = FileDescriptorSet.newBuilder();
+		for (FileDescriptorProto fdProto : schema2.getFileDescriptorSet().getFileList()) {
+			if (fdProto.getName().equals("Schema3.proto")) fdProto = schemaBuilder2.build().getFileDescriptorSet().getFile(0);
+			fileDescSetBuilder.addFile(fdProto);
+		}
+		FileDescriptorSet fileDescSet = fileDescSetBuilder.build();
+		DynamicSchema schema5 = DynamicSchema.parseFrom(fileDescSet.toByteArray(), pool);
+		Assert.assertSame(schema2.getMessageDescriptor("Person"), schema5.getMessageDescriptor("Person"));
+		Assert.assertNotSame(schema2.getMessageDescriptor("Msg2"), schema5.getMessageDescriptor("Msg2"));
+		Assert.assertNotNull(schema5.getMessageDescriptor("Msg3").findFieldByName("id"));
+	}
+
+	/**
+	 * testSchemaCache - repeated parsing of identical schema descriptors
+	 */
+	@Test
+	public void testSchemaCache() throws Exception {
+		log("--- testSchemaCache ---");
+		
+		DynamicSchemaCache cache = new DynamicSchemaCache(2);
+		byte[] descBuf1 = DynamicSchema.parseFrom(new FileInputStream("src/test/resources/Schema1.desc")).toByteArray();
+		byte[] descBuf2 = DynamicSchema.parseFrom(new FileInputStream("src/test/resources/PersonSchema.desc")).toByteArray();
+		byte[] descBuf3 = DynamicSchema.parseFrom(new FileInputStream("src/test/resources/Schema2.desc")).toByteArray();
+		
+		DynamicSchema schema1 = cache.parseFrom(descBuf1);
+		Assert.assertSame(schema1, cache.parseFrom(descBuf1.clone()));
+		Assert.assertNotNull(cache.parseFrom(descBuf2).getMessageDescriptor("Person"));
+		Assert.assertSame(schema1, cache.parseFrom(descBuf1)); // most recently used
+		cache.parseFrom(descBuf3); // evicts descBuf2 schema
+		Assert.assertSame(schema1, cache.parseFrom(descBuf1));
+		log(cache);
+		
+		Assert.assertEquals(2, cache.size());
+		Assert.assertEquals(3, cache.getHitCount());
+		Assert.assertEquals(3, cache.getMissCount());
+		Assert.assertEquals(1, cache.getEvictionCount());
+		
+		cache.parseFrom(descBuf2);
+		Assert.assertEquals(4, cache.getMissCount());
+	}
+
+	/**
+	 * testFingerprint - known answers of the reference MurmurHash3 x64 128 (seed 0), input bytes 0, 1, .. len-1
+	 */
+	@Test
+	public void testFingerprint() throws Exception {
+		log("--- testFingerprint ---");
+		
+		int[] lengths = { 0, 1, 15, 16, 17, 31 };
+		String[] expectedHashes = { // canonical byte order: h1, h2 little endian
+				"00000000000000000000000000000000",
+				"b55cff6ee5ab10468335f878aa2d6251",
+				"e92549fd98152347e97dc688ee6d84cd",
+				"303f9091b524494445e82f76566490ab",
+				"0ec2e79f0ff4765c24a8da9e6b025fc1",
+				"94d02ca3e1d33d05905400b4ef9ae59e" };
+		String[] expectedStrings = { // h1, h2 as hex numbers
+				"00000000000000000000000000000000",
+				"4610abe56eff5cb551622daa78f83583",
+				"47231598fd4925e9cd846dee88c67de9",
+				"444924b591903f30ab906456762fe845",
+				"5c76f40f9fe7c20ec15f026b9edaa824",
+				"053dd3e1a32cd0949ee59aefb4005490" };
+		
+		for (int i = 0; i < lengths.length; i++) {
+			byte[] buf = new byte[lengths[i] + 3];
+			for (int j = 0; j < lengths[i]; j++) buf[j + 3] = (byte)j;
+			Fingerprint fingerprint = Fingerprint.of(buf, 3, lengths[i]);
+			StringBuilder hash = new StringBuilder();
+			for (byte b : fingerprint.toByteArray()) hash.append(String.format("%02x", b & 0xff));
+			log(lengths[i] + ": " + hash);
+			Assert.assertEquals(expectedHashes[i], hash.toString());
+			Assert.assertEquals(expectedStrings[i], fingerprint.toString());
+			
+			byte[] buf2 = new byte[lengths[i]];
+			System.arraycopy(buf, 3, buf2, 0, lengths[i]);
+			Assert.assertEquals(fingerprint, Fingerprint.of(buf2));
+		}
+	}
+
+	/**
+	 * testSchemaTypeIndex - type lookup by full and short names, nested and ambiguous names
+	 */
+	@Test
+	public void testSchemaTypeIndex() throws Exception {
+		log("--- testSchemaTypeIndex ---");
+		
+		FileDescriptorSet fileDescSet = FileDescriptorSet.newBuilder()
+				.addFile(FileDescriptorProto.newBuilder().setName("a.proto").setPackage("pkg_a")
+						.addMessageType(DescriptorProto.newBuilder().setName("Msg")
+								.addNestedType(DescriptorProto.newBuilder().setName("Inner"))))
+				.addFile(FileDescriptorProto.newBuilder().setName("b.proto")
+						.addMessageType(DescriptorProto.newBuilder().setName("Msg")))
+				.build();
+		
+		for (DynamicSchema schema : new DynamicSchema[] {
+				DynamicSchema.parseFrom(fileDescSet.toByteArray()), DynamicSchema.parseFromLazy(fileDescSet.toByteArray()) }) {
+			// "Msg" is the short name of pkg_a.Msg and the full (and short) name of Msg: ambiguous short name,
+			// the full name still resolves
+			Assert.assertEquals("Msg", schema.getMessageDescriptor("Msg").getFullName());
+			Assert.assertEquals("pkg_a.Msg", schema.getMessageDescriptor("pkg_a.Msg").getFullName());
+			Assert.assertEquals("pkg_a.Msg.Inner", schema.getMessageDescriptor("Msg.Inner").getFullName());
+			Assert.assertSame(schema.getMessageDescriptor("Msg.Inner"), schema.getMessageDescriptor("pkg_a.Msg.Inner"));
+			Assert.assertNull(schema.getMessageDescriptor("Inner"));
+			Assert.assertNull(schema.getMessageDescriptor("pkg_a"));
+			Assert.assertNull(schema.getEnumDescriptor("Msg"));
+			Assert.assertEquals(3, schema.getMessageTypes().size());
+		}
+		
+		// Many types, every full and short name resolves
+		DynamicSchema.Builder schemaBuilder = DynamicSchema.newBuilder().setName("Many.proto").setPackage("many");
+		for (int i = 0; i < 1000; i++) schemaBuilder.addMessageDefinition(MessageDefinition.newBuilder("Msg_" + i).build());
+		DynamicSchema schema = schemaBuilder.build();
+		for (int i = 0; i < 1000; i++) {
+			Assert.assertSame(schema.getMessageDescriptor("Msg_" + i), schema.getMessageDescriptor("many.Msg_" + i));
+			Assert.assertNotNull(schema.getMessageDescriptor("Msg_" + i));
+		}
+		Assert.assertNull(schema.getMessageDescriptor("Msg_1000"));
+	}
+
+	/**
+	 * testSchemaTypeHandles - type lookup by handle
+	 */
+	@Test
+	public void testSchemaTypeHandles() throws Exception {
+		log("--- testSchemaTypeHandles ---");
+		
+		byte[] schemaDescBuf = DynamicSchema.parseFrom(new FileInputStream("src/test/resources/Schema1.desc")).toByteArray();
+		for (DynamicSchema schema : new DynamicSchema[] { DynamicSchema.parseFrom(schemaDescBuf), DynamicSchema.parseFromLazy(schemaDescBuf) }) {
+			Set<Integer> msgTypeHandles = new HashSet<Integer>();
+			for (String msgTypeName : schema.getMessageTypes()) {
+				int msgTypeHandle = schema.resolveMessageType(msgTypeName);
+				Assert.assertTrue(msgTypeHandle >= 0 && msgTypeHandle < schema.getMessageTypes().size());
+				Assert.assertTrue(msgTypeHandles.add(msgTypeHandle));
+				Assert.assertSame(schema.getMessageDescriptor(msgTypeName), schema.getMessageDescriptor(msgTypeHandle));
+				Assert.assertSame(schema.getMessageDescriptor(msgTypeHandle), schema.newMessageBuilder(msgTypeHandle).getDescriptorForType());
+			}
+			Assert.assertEquals(schema.resolveMessageType("Msg1"), schema.resolveMessageType(schema.getMessageDescriptor("Msg1").getFullName()));
+			Assert.assertEquals(-1, schema.resolveMessageType("Undefined"));
+			Assert.assertEquals(-1, schema.resolveEnumType("Msg1"));
+			
+			for (String enumTypeName : schema.getEnumTypes()) {
+				int enumTypeHandle = schema.resolveEnumType(enumTypeName);
+				EnumDescriptor enumType = schema.getEnumDescriptor(enumTypeHandle);
+				Assert.assertSame(schema.getEnumDescriptor(enumTypeName), enumType);
+				EnumValueDescriptor enumValue = enumType.getValues().get(0);
+				Assert.assertSame(enumValue, schema.getEnumValue(enumTypeHandle, enumValue.getName()));
+				Assert.assertSame(enumValue, schema.getEnumValue(enumTypeHandle, enumValue.getNumber()));
+			}
+		}
+	}
+
+	/**
+	 * testSchemaTypeListing - sorted type name views, prefix queries
+	 */
+	@Test
+	public void testSchemaTypeListing() throws Exception {
+		log("--- testSchemaTypeListing ---");
+		
+		FileDescriptorSet fileDescSet = FileDescriptorSet.newBuilder()
+				.addFile(FileDescriptorProto.newBuilder().setName("billing.proto").setPackage("com.acme.billing")
+						.addMessageType(DescriptorProto.newBuilder().setName("Invoice").addNestedType(DescriptorProto.newBuilder().setName("Line")))
+						.addMessageType(DescriptorProto.newBuilder().setName("Account")))
+				.addFile(FileDescriptorProto.newBuilder().setName("billing_ext.proto").setPackage("com.acme.billingext")
+						.addMessageType(DescriptorProto.newBuilder().setName("Ext")))
+				.addFile(FileDescriptorProto.newBuilder().setName("zoo.proto").setPackage("zoo")
+						.addMessageType(DescriptorProto.newBuilder().setName("Animal")))
+				.build();
+		DynamicSchema schema = DynamicSchema.parseFrom(fileDescSet.toByteArray());
+		
+		Assert.assertEquals("[com.acme.billing.Account, com.acme.billing.Invoice, com.acme.billing.Invoice.Line, com.acme.billingext.Ext, zoo.Animal]",
+				schema.getMessageTypes().toString());
+		Assert.assertSame(schema.getMessageTypes(), schema.getMessageTypes());
+		Assert.assertTrue(schema.getMessageTypes().contains("zoo.Animal"));
+		Assert.assertFalse(schema.getMessageTypes().contains("Animal"));
+		
+		Set<String> billingTypes = schema.getMessageTypes("com.acme.billing.");
+		Assert.assertEquals("[com.acme.billing.Account, com.acme.billing.Invoice, com.acme.billing.Invoice.Line]", billingTypes.toString());
+		Assert.assertTrue(billingTypes.contains("com.acme.billing.Account"));
+		Assert.assertFalse(billingTypes.contains("zoo.Animal"));
+		Assert.assertEquals(4, schema.getMessageTypes("com.acme.").size());
+		Assert.assertEquals(5, schema.getMessageTypes("").size());
+		Assert.assertTrue(schema.getMessageTypes("org.").isEmpty());
+		Assert.assertTrue(schema.getMessageTypes("zz").isEmpty());
+		Assert.assertTrue(schema.getEnumTypes("com.").isEmpty());
+		
+		UnsupportedOperationException ex = null;
+		try {
+			schema.getMessageTypes().remove("zoo.Animal");
+		}
+		catch (UnsupportedOperationException e) {
+			ex = e;
+		}
+		Assert.assertNotNull(ex);
+	}
+
+	/**
+	 * testSchemaSnapshot - write and load schema snapshots
+	 */
+	@Test
+	public void testSchemaSnapshot() throws Exception {
+		log("--- testSchemaSnapshot ---");
+		
+		DynamicSchema schema1 = DynamicSchema.parseFrom(new FileInputStream("src/test/resources/Schema2.desc"));
+		ByteArrayOutputStream snapshotOut = new ByteArrayOutputStream();
+		schema1.writeSnapshot(snapshotOut);
+		byte[] snapshotBuf = snapshotOut.toByteArray();
+		DynamicSchema schema2 = DynamicSchema.loadSnapshot(snapshotBuf);
+		
+		Assert.assertEquals(schema1.getMessageTypes(), schema2.getMessageTypes());
+		Assert.assertEquals(schema1.getEnumTypes(), schema2.getEnumTypes());
+		for (String msgTypeName : schema1.getMessageTypes()) {
+			Assert.assertEquals(schema1.getMessageDescriptor(msgTypeName).toProto(), schema2.getMessageDescriptor(msgTypeName).toProto());
+		}
+		
+		// Corrupted or truncated snapshots are rejected
+		for (int pos : new int[] { 0, snapshotBuf.length / 2, snapshotBuf.length - 1 }) {
+			byte[] corruptBuf = snapshotBuf.clone();
+			corruptBuf[pos] ^= 1;
+			IOException ex = null;
+			try {
+				DynamicSchema.loadSnapshot(corruptBuf);
+			}
+			catch (IOException e) {
+				log("expected: " + e);
+				ex = e;
+			}
+			Assert.assertNotNull(ex);
+		}
+		
+		// Cold start: snapshot of a large schema, from file
+		int fileCount = 3000;
+		FileDescriptorSet.Builder fileDescSetBuilder = FileDescriptorSet.newBuilder();
+		for (int i = 0; i < fileCount; i++) {
+			DescriptorProto.Builder msgTypeBuilder = DescriptorProto.newBuilder().setName("Msg_" + i);
+			FileDescriptorProto.Builder fdProtoBuilder = FileDescriptorProto.newBuilder().setName("file_" + i + ".proto").setPackage("pkg_" + (i % 10));
+			if (i > 0) {
+				fdProtoBuilder.addDependency("file_" + (i - 1) + ".proto");
+				msgTypeBuilder.addField(newMsgField("prev", 1, "pkg_" + ((i - 1) % 10) + ".Msg_" + (i - 1)));
+			}
+			fileDescSetBuilder.addFile(fdProtoBuilder.addMessageType(msgTypeBuilder));
+		}
+		File snapshotFile = File.createTempFile("schema", ".snapshot");
+		snapshotFile.deleteOnExit();
+		FileOutputStream snapshotFileOut = new FileOutputStream(snapshotFile);
+		DynamicSchema.parseFrom(fileDescSetBuilder.build().toByteArray()).writeSnapshot(snapshotFileOut);
+		snapshotFileOut.close();
+		
+		long t0 = System.currentTimeMillis();
+		DynamicSchema schema3 = DynamicSchema.loadSnapshot(snapshotFile);
+		log(fileCount + " files, load snapshot: " + (System.currentTimeMillis() - t0) + " ms");
+		Assert.assertEquals(fileCount, schema3.getMessageTypes().size());
+		Assert.assertEquals("pkg_8.Msg_8", schema3.getMessageDescriptor("Msg_9").findFieldByName("prev").getMessageType().getFullName());
+	}
+
+	/**
+	 * testReloadingSchemaRegistry - schemas reloaded from a directory of descriptor files
+	 */
+	@Test
+	public void testReloadingSchemaRegistry() throws Exception {
+		log("--- testReloadingSchemaRegistry ---");
+		
+		File dir = File.createTempFile("schemas", "");
+		dir.delete();
+		dir.mkdir();
+		File descFile = new File(dir, "schema.desc");
+		writeFile(descFile, DynamicSchema.readFile(new File("src/test/resources/Schema2.desc")));
+		writeFile(new File(dir, "ignored.txt"), new byte[] { 1, 2, 3 });
+		
+		ReloadingSchemaRegistry registry = new ReloadingSchemaRegistry(dir, 0);
+		try {
+			log(registry);
+			Assert.assertEquals(Collections.singleton("schema"), registry.getSchemaNames());
+			DynamicSchema schema1 = registry.getSchema("schema");
+			Assert.assertNotNull(registry.getMessageDescriptor("schema", "Msg2"));
+			Assert.assertNull(registry.getMessageDescriptor("schema", "Msg1"));
+			Assert.assertNull(registry.getSchema("ignored"));
+			Assert.assertFalse(registry.reload());
+			
+			// Unchanged content keeps the schema object
+			descFile.setLastModified(descFile.lastModified() - 10000);
+			Assert.assertFalse(registry.reload());
+			Assert.assertSame(schema1, registry.getSchema("schema"));
+			
+			// Changed content is reloaded
+			writeFile(descFile, DynamicSchema.readFile(new File("src/test/resources/Schema1.desc")));
+			Assert.assertTrue(registry.reload());
+			Assert.assertNotSame(schema1, registry.getSchema("schema"));
+			Assert.assertNotNull(registry.getMessageDescriptor("schema", "Msg1"));
+			
+			// Invalid content keeps the previous schema
+			DynamicSchema schema2 = registry.getSchema("schema");
+			writeFile(descFile, new byte[] { 1, 2, 3 });
+			Assert.assertFalse(registry.reload());
+			Assert.assertSame(schema2, registry.getSchema("schema"));
+			Assert.assertEquals(1, registry.getErrorCount());
+			
+			// Failed version not retried until it changes, each failed version counted once
+			Assert.assertFalse(registry.reload());
+			Assert.assertEquals(1, registry.getErrorCount());
+			writeFile(descFile, new byte[] { 1, 2, 3, 4 });
+			Assert.assertFalse(registry.reload());
+			Assert.assertFalse(registry.reload());
+			Assert.assertSame(schema2, registry.getSchema("schema"));
+			Assert.assertEquals(2, registry.getErrorCount());
+			File brokenFile = new File(dir, "broken.desc");
+			writeFile(brokenFile, new byte[] { 1, 2, 3 });
+			Assert.assertFalse(registry.reload());
+			Assert.assertFalse(registry.reload());
+			Assert.assertNull(registry.getSchema("broken"));
+			Assert.assertEquals(3, registry.getErrorCount());
+			writeFile(brokenFile, DynamicSchema.readFile(new File("src/test/resources/Schema2.desc")));
+			Assert.assertTrue(registry.reload());
+			Assert.assertNotNull(registry.getMessageDescriptor("broken", "Msg2"));
+			Assert.assertEquals(3, registry.getErrorCount());
+			brokenFile.delete();
+			Assert.assertTrue(registry.reload());
+			
+			// Deleted files are removed
+			descFile.delete();
+			Assert.assertTrue(registry.reload());
+			Assert.assertNull(registry.getSchema("schema"));
+		}
+		finally {
+			registry.close();
+			for (File file : dir.listFiles()) file.delete();
+			dir.delete();
+		}
+		
+		// Background polling
+		dir.mkdir();
+		registry = new ReloadingSchemaRegistry(dir, 10);
+		try {
+			writeFile(descFile, DynamicSchema.readFile(new File("src/test/resources/Schema1.desc")));
+			for (int i = 0; i < 500 && registry.getSchema("schema") == null; i++) Thread.sleep(10);
+			Assert.assertNotNull(registry.getMessageDescriptor("schema", "Msg1"));
+		}
+		finally {
+			registry.close();
+			descFile.delete();
+			dir.delete();
+		}
+	}
+
+	/**
+	 * testSchemaRegistry - schemas by id, idle eviction
+	 */
+	@Test
+	public void testSchemaRegistry() throws Exception {
+		log("--- testSchemaRegistry ---");
+		
+		DynamicSchema schema1 = DynamicSchema.parseFrom(new FileInputStream("src/test/resources/Schema1.desc"));
+		DynamicSchema schema2 = DynamicSchema.parseFrom(new FileInputStream("src/test/resources/Schema2.desc"));
+		
+		DynamicSchemaRegistry registry = new DynamicSchemaRegistry();
+		Assert.assertNull(registry.register("tenant1", schema1));
+		Assert.assertSame(schema1, registry.registerIfAbsent("tenant1", schema2));
+		Assert.assertSame(schema2, registry.registerIfAbsent("tenant2", schema2));
+		Assert.assertSame(schema1, registry.get("tenant1"));
+		Assert.assertSame(schema1.getMessageDescriptor("Msg1"), registry.getMessageDescriptor("tenant1", "Msg1"));
+		Assert.assertNull(registry.getMessageDescriptor("tenant2", "Msg1"));
+		Assert.assertNull(registry.getMessageDescriptor("tenant3", "Msg1"));
+		Assert.assertEquals(2, registry.size());
+		
+		// Schemas not looked up between two sweeps are evicted
+		Assert.assertEquals(0, registry.evictIdle());
+		registry.get("tenant1");
+		Assert.assertEquals(1, registry.evictIdle());
+		Assert.assertNull(registry.get("tenant2"));
+		Assert.assertEquals(1, registry.evictIdle());
+		Assert.assertEquals(0, registry.size());
+		Assert.assertEquals(2, registry.getEvictionCount());
+		
+		Assert.assertNull(registry.register("tenant1", schema1));
+		Assert.assertSame(schema1, registry.register("tenant1", schema2));
+		Assert.assertSame(schema2, registry.unregister("tenant1"));
+		Assert.assertNull(registry.unregister("tenant1"));
+		log(registry);
+		
+		// Background eviction
+		registry = new DynamicSchemaRegistry(10);
+		try {
+			registry.register("tenant1", schema1);
+			for (int i = 0; i < 500 && registry.size() > 0; i++) Thread.sleep(10);
+			Assert.assertNull(registry.get("tenant1"));
+		}
+		finally {
+			registry.close();
+		}
+	}
+
+	/**
+	 * testMessageAccessor - field access by handle
+	 */
+	@Test
+	public void testMessageAccessor() throws Exception {
+		log("--- testMessageAccessor ---");
+		
+		DynamicSchema schema = DynamicSchema.parseFrom(new FileInputStream("src/test/resources/PersonSchema.desc"));
+		MessageAccessor accessor = schema.getMessageAccessor("Person");
+		log(accessor);
+		Assert.assertSame(accessor, schema.getMessageAccessor(schema.resolveMessageType("Person")));
+		Assert.assertNull(schema.getMessageAccessor("Undefined"));
+		
+		int idField = accessor.getFieldHandle("id");
+		int nameField = accessor.getFieldHandle("name");
+		int emailField = accessor.getFieldHandleByNumber(3);
+		int phoneField = accessor.getFieldHandle("phone");
+		Assert.assertEquals(-1, accessor.getFieldHandle("undefined"));
+		Assert.assertEquals(-1, accessor.getFieldHandleByNumber(100));
+		Assert.assertEquals("email", accessor.getField(emailField).getName());
+		
+		MessageAccessor phoneAccessor = schema.getMessageAccessor("Person.PhoneNumber");
+		DynamicMessage.Builder phoneBuilder = phoneAccessor.newBuilder();
+		phoneAccessor.set(phoneBuilder, phoneAccessor.getFieldHandle("number"), "+44 1234");
+		phoneAccessor.setEnum(phoneBuilder, phoneAccessor.getFieldHandle("type"), 2);
+		
+		DynamicMessage.Builder msgBuilder = accessor.newBuilder();
+		accessor.set(msgBuilder, idField, 1);
+		accessor.set(msgBuilder, nameField, "Alan Turing");
+		accessor.set(msgBuilder, emailField, "at@sis.gov.uk");
+		accessor.addRepeated(msgBuilder, phoneField, phoneBuilder.build());
+		DynamicMessage msg = msgBuilder.build();
+		
+		PersonSchema.Person person = PersonSchema.Person.parseFrom(msg.toByteArray());
+		Assert.assertEquals(1, person.getId());
+		Assert.assertEquals("at@sis.gov.uk", person.getEmail());
+		Assert.assertEquals(PersonSchema.Person.PhoneType.WORK, person.getPhone(0).getType());
+		
+		Assert.assertEquals(1, accessor.getInt(msg, idField));
+		Assert.assertEquals("Alan Turing", accessor.getString(msg, nameField));
+		Assert.assertTrue(accessor.has(msg, emailField));
+		Assert.assertEquals(1, accessor.getRepeatedCount(msg, phoneField));
+		Assert.assertEquals("WORK", phoneAccessor.getEnum((DynamicMessage)accessor.getRepeated(msg, phoneField, 0), 1).getName());
+		Assert.assertFalse(accessor.has(accessor.clear(msg.toBuilder(), emailField), emailField));
+		
+		// int values for 64-bit, floating point and enum fields
+		phoneBuilder = phoneAccessor.newBuilder();
+		phoneAccessor.set(phoneBuilder, phoneAccessor.getFieldHandle("type"), 2);
+		Assert.assertEquals("WORK", phoneAccessor.getEnum(phoneBuilder, phoneAccessor.getFieldHandle("type")).getName());
+		DynamicSchema.Builder schemaBuilder = DynamicSchema.newBuilder();
+		schemaBuilder.setName("NumberSchema.proto");
+		schemaBuilder.addMessageDefinition(MessageDefinition.newBuilder("Numbers")
+				.addField("optional", "int64", "long_value", 1)
+				.addField("optional", "float", "float_value", 2)
+				.addField("optional", "double", "double_value", 3)
+				.build());
+		MessageAccessor numbersAccessor = schemaBuilder.build().getMessageAccessor("Numbers");
+		DynamicMessage.Builder numbersBuilder = numbersAccessor.newBuilder();
+		numbersAccessor.set(numbersBuilder, 0, 1);
+		numbersAccessor.set(numbersBuilder, 1, 2);
+		numbersAccessor.set(numbersBuilder, 2, 3);
+		Assert.assertEquals(1L, numbersAccessor.getLong(numbersBuilder, 0));
+		Assert.assertEquals(2f, numbersAccessor.getFloat(numbersBuilder, 1), 0);
+		Assert.assertEquals(3d, numbersAccessor.getDouble(numbersBuilder, 2), 0);
+	}
+
+	/**
+	 * testCompiledMessage - compiled message type: parse, serialize, convert
+	 */
+	@Test
+	public void testCompiledMessage() throws Exception {
+		log("--- testCompiledMessage ---");
+		
+		DynamicSchema schema = DynamicSchema.parseFrom(new FileInputStream("src/test/resources/PersonSchema.desc"));
+		CompiledMessageType personType = schema.getCompiledMessageType("Person");
+		log(personType);
+		Assert.assertSame(personType, schema.getCompiledMessageType(schema.resolveMessageType("Person")));
+		Assert.assertNull(schema.getCompiledMessageType("Undefined"));
+		
+		int idField = personType.getFieldHandle("id");
+		int nameField = personType.getFieldHandle("name");
+		int homeAddrField = personType.getFieldHandle("home_addr");
+		int workAddrField = personType.getFieldHandleByNumber(5);
+		int phoneField = personType.getFieldHandle("phone");
+		Assert.assertEquals(-1, personType.getFieldHandleByNumber(100));
+		
+		PersonSchema.Person person = PersonSchema.Person.newBuilder()
+				.setId(1)
+				.setName("Alan Turing")
+				.setHomeAddr("Bletchley Park")
+				.addPhone(PersonSchema.Person.PhoneNumber.newBuilder().setNumber("+44 1234").setType(PersonSchema.Person.PhoneType.WORK))
+				.addPhone(PersonSchema.Person.PhoneNumber.newBuilder().setNumber("+44 5678"))
+				.build();
+		
+		// parse
+		CompiledMessage msg = personType.parseFrom(person.toByteArray());
+		log(msg);
+		Assert.assertEquals(1, msg.getInt(idField));
+		Assert.assertEquals("Alan Turing", msg.getString(nameField));
+		Assert.assertEquals("Bletchley Park", msg.getString(homeAddrField));
+		Assert.assertFalse(msg.has(workAddrField));
+		Assert.assertEquals(2, msg.getRepeatedCount(phoneField));
+		CompiledMessage phone = (CompiledMessage)msg.getRepeated(phoneField, 1);
+		CompiledMessageType phoneType = phone.getType();
+		Assert.assertSame(phoneType, schema.getCompiledMessageType("Person.PhoneNumber"));
+		Assert.assertFalse(phone.has(phoneType.getFieldHandle("type")));
+		Assert.assertEquals(1, phone.getEnum(phoneType.getFieldHandle("type"))); // default HOME
+		Assert.assertTrue(msg.isInitialized());
+		
+		// serialize, convert
+		Assert.assertEquals(person.toByteString(), ByteString.copyFrom(msg.toByteArray()));
+		Assert.assertEquals(person.toByteString(), msg.toDynamicMessage().toByteString());
+		Assert.assertEquals(person, PersonSchema.Person.parseFrom(personType.fromMessage(person).toByteArray()));
+		Assert.assertEquals(person.toByteString(), personType.fromMessage(msg.toDynamicMessage()).toDynamicMessage().toByteString());
+		
+		// set: oneof, type checks
+		msg.setString(workAddrField, "Hanslope Park");
+		Assert.assertFalse(msg.has(homeAddrField));
+		try {
+			msg.setLong(idField, 1);
+			Assert.fail();
+		}
+		catch (IllegalArgumentException e) {
+			log("expected: " + e);
+		}
+		CompiledMessage newPhone = phoneType.newMessage();
+		Assert.assertFalse(newPhone.isInitialized());
+		msg.addRepeated(phoneField, newPhone.setString(phoneType.getFieldHandle("number"), "+44 0000").setEnum(phoneType.getFieldHandle("type"), 0));
+		PersonSchema.Person person2 = PersonSchema.Person.parseFrom(msg.toByteArray());
+		Assert.assertEquals("Hanslope Park", person2.getWorkAddr());
+		Assert.assertEquals(PersonSchema.Person.PhoneType.MOBILE, person2.getPhone(2).getType());
+		
+		// unknown fields are kept
+		DynamicMessage unknownMsg = DynamicMessage.parseFrom(schema.getMessageDescriptor("Person"), person.toByteArray()).toBuilder()
+				.setUnknownFields(UnknownFieldSet.newBuilder().mergeVarintField(100, 42).build())
+				.build();
+		CompiledMessage msg2 = personType.parseFrom(unknownMsg.toByteArray());
+		Assert.assertEquals(unknownMsg.toByteString(), ByteString.copyFrom(msg2.toByteArray()));
+		Assert.assertEquals(unknownMsg, msg2.toDynamicMessage());
+	}
+
+	/**
+	 * testCompiledMessageReuse - clear and rebuild a compiled message, storage reused
+	 */
+	@Test
+	public void testCompiledMessageReuse() throws Exception {
+		log("--- testCompiledMessageReuse ---");
+		
+		DynamicSchema.Builder schemaBuilder = DynamicSchema.newBuilder();
+		schemaBuilder.setName("ReuseSchema.proto");
+		schemaBuilder.addMessageDefinition(MessageDefinition.newBuilder("Inner")
+				.addField("optional", "string", "name", 1)
+				.addField("optional", "int32", "value", 2)
+				.build());
+		schemaBuilder.addMessageDefinition(MessageDefinition.newBuilder("Outer")
+				.addField("optional", "Inner", "inner", 1)
+				.addField("repeated", "string", "tag", 2)
+				.addField("optional", "int64", "id", 3)
+				.build());
+		DynamicSchema schema = schemaBuilder.build();
+		CompiledMessageType outerType = schema.getCompiledMessageType("Outer");
+		CompiledMessageType innerType = schema.getCompiledMessageType("Inner");
+		
+		CompiledMessage msg = outerType.newMessage();
+		CompiledMessage inner = msg.getOrCreateMessage(0);
+		inner.setString(0, "first").setInt(1, 1);
+		msg.addRepeated(1, "a").addRepeated(1, "b").setLong(2, 100);
+		DynamicMessage msg1 = DynamicMessage.parseFrom(schema.getMessageDescriptor("Outer"), msg.toByteArray());
+		Assert.assertEquals("first", ((DynamicMessage)msg1.getField(msg1.getDescriptorForType().findFieldByName("inner"))).getField(innerType.getField(0)));
+		
+		msg.clear();
+		Assert.assertFalse(msg.has(0));
+		Assert.assertNull(msg.getMessage(0));
+		Assert.assertEquals(0, msg.getRepeatedCount(1));
+		Assert.assertEquals(0, msg.getLong(2));
+		Assert.assertEquals(0, msg.toByteArray().length);
+		
+		Assert.assertSame(inner, msg.getOrCreateMessage(0)); // nested message reused, cleared
+		Assert.assertFalse(inner.has(0));
+		inner.setInt(1, 2);
+		msg.addRepeated(1, "c");
+		DynamicMessage msg2 = DynamicMessage.parseFrom(schema.getMessageDescriptor("Outer"), msg.toByteArray());
+		log(msg2);
+		Assert.assertEquals(outerType.parseFrom(msg.toByteArray()).toDynamicMessage(), msg2);
+		Assert.assertEquals("c", msg.getRepeated(1, 0));
+		Assert.assertFalse(msg2.hasField(msg2.getDescriptorForType().findFieldByName("id")));
+		
+		// parsing into a cleared message reuses the nested message too
+		msg.clear().mergeFrom(msg2.toByteArray());
+		Assert.assertSame(inner, msg.getMessage(0));
+		Assert.assertEquals(2, inner.getInt(1));
+		Assert.assertEquals(1, msg.getRepeatedCount(1));
+		
+		// a nested message set by the caller is shared, never cleared or merged into
+		CompiledMessage shared = innerType.newMessage().setString(0, "shared").setInt(1, 3);
+		byte[] sharedBytes = shared.toByteArray();
+		CompiledMessage otherParent = outerType.newMessage().setMessage(0, shared);
+		msg.setMessage(0, shared);
+		msg.mergeFrom(msg2.toByteArray()); // merges inner
+		Assert.assertEquals(2, msg.getMessage(0).getInt(1));
+		Assert.assertEquals("shared", msg.getMessage(0).getString(0));
+		Assert.assertNotSame(shared, msg.getMessage(0));
+		msg.setMessage(0, shared);
+		msg.clear().mergeFrom(msg2.toByteArray());
+		Assert.assertNotSame(shared, msg.getMessage(0));
+		msg.clear().getOrCreateMessage(0).setInt(1, 4);
+		Assert.assertArrayEquals(sharedBytes, shared.toByteArray());
+		Assert.assertSame(shared, otherParent.getMessage(0));
+	}
+
+	/**
+	 * testCompiledMessageTypeGroup - compiling a type that reaches a group field fails, every time
+	 */
+	@Test
+	public void testCompiledMessageTypeGroup() throws Exception {
+		log("--- testCompiledMessageTypeGroup ---");
+		
+		FieldDescriptorProto.Builder fieldBuilder = FieldDescriptorProto.newBuilder().setLabel(FieldDescriptorProto.Label.LABEL_OPTIONAL);
+		FileDescriptorSet fileDescSet = FileDescriptorSet.newBuilder()
+				.addFile(FileDescriptorProto.newBuilder().setName("GroupSchema.proto")
+						.addMessageType(DescriptorProto.newBuilder().setName("A")
+								.addField(fieldBuilder.clone().setName("c").setNumber(1).setType(FieldDescriptorProto.Type.TYPE_MESSAGE).setTypeName("C"))
+								.addField(fieldBuilder.clone().setName("b").setNumber(2).setType(FieldDescriptorProto.Type.TYPE_MESSAGE).setTypeName("B")))
+						.addMessageType(DescriptorProto.newBuilder().setName("B")
+								.addNestedType(DescriptorProto.newBuilder().setName("G"))
+								.addField(fieldBuilder.clone().setName("g").setNumber(1).setType(FieldDescriptorProto.Type.TYPE_GROUP).setTypeName("B.G")))
+						.addMessageType(DescriptorProto.newBuilder().setName("C")
+								.addField(fieldBuilder.clone().setName("x").setNumber(1).setType(FieldDescriptorProto.Type.TYPE_INT32))))
+				.build();
+		DynamicSchema schema = DynamicSchema.parseFrom(fileDescSet.toByteArray());
+		
+		for (int i = 0; i < 2; i++) { // no partly linked type left behind by the first attempt
+			try {
+				schema.getCompiledMessageType("A");
+				Assert.fail();
+			}
+			catch (IllegalArgumentException e) {
+				log("expected: " + e);
+			}
+		}
+		try {
+			schema.getJsonCodec("A");
+			Assert.fail();
+		}
+		catch (IllegalArgumentException e) {
+			log("expected: " + e);
+		}
+		
+		CompiledMessageType cType = schema.getCompiledMessageType("C");
+		Assert.assertEquals(5, cType.parseFrom(new byte[] {0x08, 0x05}).getInt(0));
+	}
+
+	/**
+	 * testMessageStreamParser - stream parsing into visitor callbacks
+	 */
+	@Test
+	public void testMessageStreamParser() throws Exception {
+		log("--- testMessageStreamParser ---");
+		
+		DynamicSchema schema = DynamicSchema.parseFrom(new FileInputStream("src/test/resources/PersonSchema.desc"));
+		MessageStreamParser parser = schema.newStreamParser("Person");
+		log(parser);
+		Assert.assertNull(schema.newStreamParser("Undefined"));
+		
+		PersonSchema.Person person = PersonSchema.Person.newBuilder()
+				.setId(1)
+				.setName("Alan Turing")
+				.addPhone(PersonSchema.Person.PhoneNumber.newBuilder().setNumber("+44 1234").setType(PersonSchema.Person.PhoneType.WORK))
+				.addPhone(PersonSchema.Person.PhoneNumber.newBuilder().setNumber("+44 5678"))
+				.build();
+		
+		final StringBuilder events = new StringBuilder();
+		MessageVisitor visitor = new MessageVisitor() {
+			public boolean startMessage(FieldDescriptor field) {
+				events.append(field.getName()).append("{");
+				return true;
+			}
+			public void endMessage(FieldDescriptor field) {
+				events.append("}");
+			}
+			public void onInt32(FieldDescriptor field, int value) {
+				events.append(field.getName()).append("=").append(value).append(";");
+			}
+			public void onEnum(FieldDescriptor field, int enumNumber) {
+				events.append(field.getName()).append("=").append(enumNumber).append(";");
+			}
+			public void onString(FieldDescriptor field, ByteString utf8) {
+				events.append(field.getName()).append("=").append(utf8.toStringUtf8()).append(";");
+			}
+		};
+		parser.parse(person.toByteArray(), visitor);
+		log(events);
+		Assert.assertEquals("id=1;name=Alan Turing;phone{number=+44 1234;type=2;}phone{number=+44 5678;}", events.toString());
+		
+		// direct byte buffer, unknown fields skipped
+		events.setLength(0);
+		DynamicMessage unknownMsg = DynamicMessage.parseFrom(schema.getMessageDescriptor("Person"), person.toByteArray()).toBuilder()
+				.setUnknownFields(UnknownFieldSet.newBuilder().mergeVarintField(100, 42).build())
+				.build();
+		byte[] unknownBuf = unknownMsg.toByteArray();
+		ByteBuffer directBuf = ByteBuffer.allocateDirect(unknownBuf.length);
+		directBuf.put(unknownBuf).flip();
+		parser.parse(directBuf, visitor);
+		Assert.assertEquals("id=1;name=Alan Turing;phone{number=+44 1234;type=2;}phone{number=+44 5678;}", events.toString());
+		
+		// delimited stream, nested messages skipped
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = 0; i < 3; i++) person.toBuilder().setId(i).build().writeDelimitedTo(out);
+		final int[] counts = new int[2];
+		MessageVisitor countingVisitor = new MessageVisitor() {
+			public boolean startMessage(FieldDescriptor field) {
+				counts[1]++;
+				return false;
+			}
+			public void onInt32(FieldDescriptor field, int value) {
+				counts[0] += value;
+			}
+		};
+		CodedInputStream cis = CodedInputStream.newInstance(out.toByteArray());
+		int msgCount = 0;
+		while (parser.parseDelimited(cis, countingVisitor)) msgCount++;
+		Assert.assertEquals(3, msgCount);
+		Assert.assertEquals(0 + 1 + 2, counts[0]);
+		Assert.assertEquals(3 * 2, counts[1]);
+	}
+
+	/**
+	 * testFieldProjection - parse only the given field paths
+	 */
+	@Test
+	public void testFieldProjection() throws Exception {
+		log("--- testFieldProjection ---");
+		
+		DynamicSchema schema = DynamicSchema.parseFrom(new FileInputStream("src/test/resources/PersonSchema.desc"));
+		PersonSchema.Person person = PersonSchema.Person.newBuilder()
+				.setId(1)
+				.setName("Alan Turing")
+				.setEmail("at@sis.gov.uk")
+				.setWorkAddr("Bletchley Park")
+				.addPhone(PersonSchema.Person.PhoneNumber.newBuilder().setNumber("+44 1234").setType(PersonSchema.Person.PhoneType.WORK))
+				.addPhone(PersonSchema.Person.PhoneNumber.newBuilder().setNumber("+44 5678"))
+				.build();
+		
+		FieldProjection projection = schema.newProjection("Person", "id", "phone[].type");
+		log(projection);
+		Assert.assertNull(schema.newProjection("Undefined", "id"));
+		DynamicMessage msg = projection.parseFrom(person.toByteArray());
+		log(msg);
+		Assert.assertSame(schema.getMessageDescriptor("Person"), msg.getDescriptorForType());
+		PersonSchema.Person projected = PersonSchema.Person.newBuilder().mergeFrom(msg.toByteArray()).buildPartial();
+		Assert.assertEquals(1, projected.getId());
+		Assert.assertFalse(projected.hasName());
+		Assert.assertFalse(projected.hasEmail());
+		Assert.assertEquals(2, projected.getPhoneCount());
+		Assert.assertEquals(PersonSchema.Person.PhoneType.WORK, projected.getPhone(0).getType());
+		Assert.assertFalse(projected.getPhone(0).hasNumber());
+		Assert.assertFalse(projected.getPhone(1).hasType());
+		
+		// whole message field overrides narrower paths, direct buffer
+		projection = schema.newProjection("Person", "phone[].number", "phone", "work_addr");
+		ByteBuffer directBuf = ByteBuffer.allocateDirect(person.getSerializedSize());
+		directBuf.put(person.toByteArray()).flip();
+		projected = PersonSchema.Person.newBuilder().mergeFrom(projection.parseFrom(directBuf).toByteArray()).buildPartial();
+		Assert.assertEquals(person.getPhoneList(), projected.getPhoneList());
+		Assert.assertEquals("Bletchley Park", projected.getWorkAddr());
+		Assert.assertFalse(projected.hasId());
+		
+		// invalid paths
+		String[][] invalidPaths = { { "undefined" }, { "id.value" }, { "name[]" }, { "phone[].undefined" }, {} };
+		for (String[] fieldPaths : invalidPaths) {
+			try {
+				schema.newProjection("Person", fieldPaths);
+				Assert.fail();
+			}
+			catch (IllegalArgumentException e) {
+				log("expected: " + e);
+			}
+		}
+	}
+
+	/**
+	 * testLazyDynamicView - lazy read-only view over a byte buffer
+	 */
+	@Test
+	public void testLazyDynamicView() throws Exception {
+		log("--- testLazyDynamicView ---");
+		
+		DynamicSchema schema = DynamicSchema.parseFrom(new FileInputStream("src/test/resources/PersonSchema.desc"));
+		PersonSchema.Person person = PersonSchema.Person.newBuilder()
+				.setId(-1)
+				.setName("Alan Turing")
+				.setWorkAddr("Bletchley Park")
+				.addPhone(PersonSchema.Person.PhoneNumber.newBuilder().setNumber("+44 1234").setType(PersonSchema.Person.PhoneType.WORK))
+				.addPhone(PersonSchema.Person.PhoneNumber.newBuilder().setNumber("+44 5678"))
+				.build();
+		byte[] personBuf = person.toByteArray();
+		
+		// direct buffer, with other bytes around the message
+		ByteBuffer directBuf = ByteBuffer.allocateDirect(personBuf.length + 8);
+		directBuf.position(4);
+		directBuf.put(personBuf).position(4).limit(4 + personBuf.length);
+		LazyDynamicView view = schema.newLazyView("Person", directBuf);
+		log(view);
+		Assert.assertNull(schema.newLazyView("Undefined", directBuf));
+		Assert.assertEquals(-1, view.getInt(view.getFieldHandle("id")));
+		Assert.assertEquals("Alan Turing", view.getString(view.getFieldHandle("name")));
+		Assert.assertEquals(ByteBuffer.wrap("Alan Turing".getBytes("UTF-8")), view.getStringBytes(view.getFieldHandle("name")));
+		Assert.assertFalse(view.has(view.getFieldHandle("email")));
+		Assert.assertEquals("", view.getString(view.getFieldHandle("email")));
+		Assert.assertNull(view.getStringBytes(view.getFieldHandle("home_addr")));
+		Assert.assertEquals("Bletchley Park", view.getString(view.getFieldHandle("work_addr")));
+		Assert.assertEquals(4, directBuf.position());
+		
+		int phoneField = view.getFieldHandle("phone");
+		Assert.assertEquals(2, view.getRepeatedCount(phoneField));
+		LazyDynamicView phone = (LazyDynamicView)view.getRepeated(phoneField, 0);
+		Assert.assertEquals("+44 1234", phone.getString(phone.getFieldHandle("number")));
+		Assert.assertEquals(2, phone.getEnum(phone.getFieldHandle("type")));
+		phone = (LazyDynamicView)view.getRepeated(phoneField, 1);
+		Assert.assertEquals(1, phone.getEnum(phone.getFieldHandle("type"))); // default HOME
+		
+		Assert.assertEquals(ByteBuffer.wrap(personBuf), view.toByteBuffer());
+		Assert.assertEquals(person.toByteString(), view.toDynamicMessage().toByteString());
+		try {
+			view.getLong(view.getFieldHandle("id"));
+			Assert.fail();
+		}
+		catch (IllegalArgumentException e) {
+			log("expected: " + e);
+		}
+		
+		// packed repeated field, heap buffer
+		DynamicSchema.Builder schemaBuilder = DynamicSchema.newBuilder();
+		schemaBuilder.setName("PackedSchema.proto");
+		MessageDefinition msgDef = MessageDefinition.newBuilder("Packed")
+				.addField("repeated", "sint32", "num", 1)
+				.addField("repeated", "bytes", "data", 2)
+				.addField("optional", "double", "value", 3)
+				.build();
+		schemaBuilder.addMessageDefinition(msgDef);
+		DynamicSchema packedSchema = schemaBuilder.build();
+		Descriptor packedDesc = packedSchema.getMessageDescriptor("Packed");
+		DynamicMessage packedMsg = DynamicMessage.newBuilder(packedDesc)
+				.addRepeatedField(packedDesc.findFieldByName("num"), -3)
+				.addRepeatedField(packedDesc.findFieldByName("num"), 300)
+				.addRepeatedField(packedDesc.findFieldByName("data"), ByteString.copyFromUtf8("xyz"))
+				.setField(packedDesc.findFieldByName("value"), 2.5)
+				.build();
+		byte[] packedBuf = packedMsg.toByteArray();
+		ByteArrayOutputStream packedOut = new ByteArrayOutputStream(); // packed encoding of num
+		packedOut.write(new byte[] { 0x0a, 3, 5, (byte)0xd8, 4 });
+		packedOut.write(packedBuf);
+		LazyDynamicView packedView = packedSchema.newLazyView("Packed", ByteBuffer.wrap(packedOut.toByteArray()));
+		Assert.assertEquals(4, packedView.getRepeatedCount(0));
+		Assert.assertEquals(-3, packedView.getRepeated(0, 0));
+		Assert.assertEquals(300, packedView.getRepeated(0, 1));
+		Assert.assertEquals(-3, packedView.getRepeated(0, 2));
+		Assert.assertEquals(ByteBuffer.wrap("xyz".getBytes("UTF-8")), packedView.getRepeated(1, 0));
+		Assert.assertEquals(2.5, packedView.getDouble(2), 0);
+		
+		// malformed
+		LazyDynamicView truncatedView = schema.newLazyView("Person", ByteBuffer.wrap(personBuf, 0, personBuf.length - 1));
+		try {
+			truncatedView.index();
+			Assert.fail();
+		}
+		catch (InvalidProtocolBufferException e) {
+			log("expected: " + e);
+		}
+		
+		// malformed packed runs: length not a multiple of the fixed32 size, varint overrunning the run
+		schemaBuilder = DynamicSchema.newBuilder();
+		schemaBuilder.setName("PackedSchema2.proto");
+		schemaBuilder.addMessageDefinition(MessageDefinition.newBuilder("Packed2")
+				.addField("repeated", "fixed32", "fixed", 1)
+				.addField("repeated", "int32", "num", 2)
+				.build());
+		DynamicSchema packedSchema2 = schemaBuilder.build();
+		byte[][] malformedBufs = {
+				{ 0x0a, 5, 1, 2, 3, 4, 5 },
+				{ 0x12, 1, (byte)0x80, 0x08, 1 } };
+		int[] malformedHandles = { 0, 1 };
+		for (int i = 0; i < malformedBufs.length; i++) {
+			LazyDynamicView malformedView = packedSchema2.newLazyView("Packed2", ByteBuffer.wrap(malformedBufs[i]));
+			malformedView.index();
+			try {
+				malformedView.getRepeatedCount(malformedHandles[i]);
+				Assert.fail();
+			}
+			catch (IllegalStateException e) {
+				Assert.assertTrue(e.getCause() instanceof InvalidProtocolBufferException);
+				log("expected: " + e);
+			}
+		}
+	}
+
+	/**
+	 * testDelimitedMessageReader - length-delimited messages decoded in parallel
+	 */
+	@Test
+	public void testDelimitedMessageReader() throws Exception {
+		log("--- testDelimitedMessageReader ---");
+		
+		DynamicSchema schema = DynamicSchema.parseFrom(new FileInputStream("src/test/resources/PersonSchema.desc"));
+		int msgCount = 2000;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = 0; i < msgCount; i++) {
+			PersonSchema.Person.newBuilder().setId(i).setName("Person " + i).build().writeDelimitedTo(out);
+		}
+		byte[] delimitedBuf = out.toByteArray();
+		FieldDescriptor idField = schema.getMessageDescriptor("Person").findFieldByName("id");
+		Assert.assertNull(schema.newDelimitedReader("Undefined", new ByteArrayInputStream(delimitedBuf), null, true));
+		
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			// ordered, input stream
+			DelimitedMessageReader reader = schema.newDelimitedReader("Person", new ByteArrayInputStream(delimitedBuf), executor, true);
+			log(reader);
+			for (int i = 0; i < msgCount; i++) Assert.assertEquals(i, reader.read().getField(idField));
+			Assert.assertNull(reader.read());
+			reader.close();
+			
+			// unordered, direct byte buffer
+			ByteBuffer directBuf = ByteBuffer.allocateDirect(delimitedBuf.length);
+			directBuf.put(delimitedBuf).flip();
+			reader = schema.newDelimitedReader("Person", directBuf, executor, false);
+			log(reader);
+			Set<Object> idSet = new HashSet<Object>();
+			for (List<DynamicMessage> batch = reader.readBatch(); !batch.isEmpty(); batch = reader.readBatch()) {
+				for (DynamicMessage msg : batch) idSet.add(msg.getField(idField));
+			}
+			Assert.assertEquals(msgCount, idSet.size());
+			Assert.assertEquals(0, directBuf.position());
+			
+			// no executor, heap byte buffer
+			reader = schema.newDelimitedReader("Person", ByteBuffer.wrap(delimitedBuf), null, false);
+			int count = 0;
+			while (reader.read() != null) count++;
+			Assert.assertEquals(msgCount, count);
+			
+			// truncated input
+			reader = schema.newDelimitedReader("Person", ByteBuffer.wrap(delimitedBuf, 0, delimitedBuf.length - 1), executor, true);
+			try {
+				while (reader.read() != null);
+				Assert.fail();
+			}
+			catch (InvalidProtocolBufferException e) {
+				log("expected: " + e);
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * testDynamicMessageWriter - length-delimited messages written through a reusable buffer
+	 */
+	@Test
+	public void testDynamicMessageWriter() throws Exception {
+		log("--- testDynamicMessageWriter ---");
+		
+		DynamicSchema schema = DynamicSchema.parseFrom(new FileInputStream("src/test/resources/PersonSchema.desc"));
+		Descriptor personDesc = schema.getMessageDescriptor("Person");
+		FieldDescriptor idField = personDesc.findFieldByName("id");
+		FieldDescriptor nameField = personDesc.findFieldByName("name");
+		List<DynamicMessage> msgList = new ArrayList<DynamicMessage>();
+		for (int i = 0; i < 1000; i++) {
+			msgList.add(DynamicMessage.newBuilder(personDesc).setField(idField, i).setField(nameField, "Person " + i).build());
+		}
+		CompiledMessageType personType = schema.getCompiledMessageType("Person");
+		CompiledMessage compiledMsg = personType.newMessage().setInt(personType.getFieldHandle("id"), 1000).setString(personType.getFieldHandle("name"), "Person 1000");
+		Assert.assertNull(schema.newMessageWriter("Undefined", new ByteArrayOutputStream()));
+		
+		// file channel
+		File file = File.createTempFile("DynamicMessageWriter", ".bin");
+		try {
+			FileOutputStream fileOut = new FileOutputStream(file);
+			DynamicMessageWriter writer = schema.newMessageWriter("Person", fileOut.getChannel());
+			writer.writeAll(msgList);
+			writer.write(compiledMsg);
+			writer.write(PersonSchema.Person.newBuilder().setId(1001).setName("Person 1001").build());
+			log(writer);
+			Assert.assertEquals(1002, writer.getMessageCount());
+			Assert.assertEquals(file.length(), 0); // buffered
+			writer.close();
+			Assert.assertEquals(writer.getBytesWritten(), file.length());
+			
+			FileInputStream fileIn = new FileInputStream(file);
+			for (int i = 0; i < 1002; i++) Assert.assertEquals(i, PersonSchema.Person.parseDelimitedFrom(fileIn).getId());
+			Assert.assertNull(PersonSchema.Person.parseDelimitedFrom(fileIn));
+			fileIn.close();
+		}
+		finally {
+			file.delete();
+		}
+		
+		// direct byte buffer, full
+		ByteBuffer directBuf = ByteBuffer.allocateDirect(100);
+		DynamicMessageWriter writer = schema.newMessageWriter("Person", directBuf);
+		int count = 0;
+		try {
+			for (DynamicMessage msg : msgList) {
+				writer.write(msg);
+				count++;
+			}
+			Assert.fail();
+		}
+		catch (BufferOverflowException e) {
+			log("expected: " + e);
+		}
+		writer.flush();
+		Assert.assertEquals(writer.getBytesWritten(), directBuf.position());
+		directBuf.flip();
+		DelimitedMessageReader reader = schema.newDelimitedReader("Person", directBuf, null, true);
+		for (int i = 0; i < count; i++) Assert.assertEquals(msgList.get(i), reader.read());
+		Assert.assertNull(reader.read());
+		
+		try {
+			writer.write(DynamicMessage.getDefaultInstance(schema.getMessageDescriptor("Person.PhoneNumber")));
+			Assert.fail();
+		}
+		catch (IllegalArgumentException e) {
+			log("expected: " + e);
+		}
+		
+		// failed stream write: not counted
+		writer = schema.newMessageWriter("Person", new OutputStream() {
+			public void write(int b) throws IOException {
+				throw new IOException("stream closed");
+			}
+		});
+		StringBuilder longName = new StringBuilder();
+		while (longName.length() <= DynamicMessageWriter.CHUNK_SIZE) longName.append("Person ");
+		try {
+			writer.write(DynamicMessage.newBuilder(personDesc).setField(idField, 1).setField(nameField, longName.toString()).build());
+			Assert.fail();
+		}
+		catch (IOException e) {
+			log("expected: " + e);
+		}
+		Assert.assertEquals(0, writer.getMessageCount());
+		Assert.assertEquals(0, writer.getBytesWritten());
+	}
+
+	/**
+	 * testColumnBatch - messages decoded into primitive columns, nested fields flattened
+	 */
+	@Test
+	public void testColumnBatch() throws Exception {
+		log("--- testColumnBatch ---");
+		
+		DynamicSchema.Builder schemaBuilder = DynamicSchema.newBuilder();
+		schemaBuilder.setName("ColumnSchema.proto");
+		schemaBuilder.addMessageDefinition(MessageDefinition.newBuilder("Customer")
+				.addField("optional", "int32", "id", 1)
+				.addField("optional", "string", "name", 2)
+				.build());
+		schemaBuilder.addMessageDefinition(MessageDefinition.newBuilder("Order")
+				.addField("optional", "int64", "id", 1)
+				.addField("optional", "Customer", "customer", 2)
+				.addField("optional", "double", "amount", 3)
+				.addField("optional", "bool", "paid", 4)
+				.addField("repeated", "string", "item", 5)
+				.build());
+		DynamicSchema schema = schemaBuilder.build();
+		Descriptor orderDesc = schema.getMessageDescriptor("Order");
+		Descriptor customerDesc = schema.getMessageDescriptor("Customer");
+		
+		ColumnBatch batch = schema.newColumnBatch("Order", "id", "customer.id", "customer.name", "amount", "paid", "customer");
+		log(batch);
+		for (int i = 0; i < 100; i++) {
+			DynamicMessage.Builder orderBuilder = DynamicMessage.newBuilder(orderDesc);
+			orderBuilder.setField(orderDesc.findFieldByName("id"), 1000L + i);
+			orderBuilder.addRepeatedField(orderDesc.findFieldByName("item"), "item " + i); // not a column, skipped
+			if (i % 2 == 0) orderBuilder.setField(orderDesc.findFieldByName("amount"), i * 1.5);
+			if (i % 3 == 0) orderBuilder.setField(orderDesc.findFieldByName("paid"), true);
+			if (i % 5 != 0) {
+				orderBuilder.setField(orderDesc.findFieldByName("customer"), DynamicMessage.newBuilder(customerDesc)
+						.setField(customerDesc.findFieldByName("id"), i)
+						.setField(customerDesc.findFieldByName("name"), "Customer " + i)
+						.build());
+			}
+			batch.addRow(orderBuilder.build().toByteArray());
+		}
+		Assert.assertEquals(100, batch.getRowCount());
+		
+		long[] ids = batch.getColumn("id").getLongs();
+		ColumnBatch.Column amountColumn = batch.getColumn(3);
+		double[] amounts = amountColumn.getDoubles();
+		int[] paid = batch.getColumn("paid").getInts();
+		ColumnBatch.Column customerIdColumn = batch.getColumn("customer.id");
+		ColumnBatch.Column customerNameColumn = batch.getColumn("customer.name");
+		long idSum = 0;
+		double amountSum = 0;
+		for (int i = 0; i < batch.getRowCount(); i++) {
+			idSum += ids[i];
+			amountSum += amounts[i];
+			Assert.assertEquals(i % 2 != 0, amountColumn.isNull(i));
+			Assert.assertEquals(i % 3 == 0 ? 1 : 0, paid[i]);
+			Assert.assertEquals(i % 5 == 0, customerIdColumn.isNull(i));
+			Assert.assertEquals(i % 5 == 0 ? 0 : i, customerIdColumn.getInts()[i]);
+			Assert.assertEquals(i % 5 == 0 ? null : "Customer " + i, customerNameColumn.getString(i));
+		}
+		Assert.assertEquals(100 * 1000 + 4950, idSum);
+		Assert.assertEquals(1.5 * 2450, amountSum, 0);
+		Assert.assertEquals(50, amountColumn.getNullCount());
+		Assert.assertEquals(20, customerNameColumn.getNullCount());
+		Assert.assertEquals(DynamicMessage.newBuilder(customerDesc)
+				.setField(customerDesc.findFieldByName("id"), 1)
+				.setField(customerDesc.findFieldByName("name"), "Customer 1").build().toByteString(), batch.getColumn("customer").getBytes(1));
+		Assert.assertEquals(FieldDescriptor.JavaType.STRING, customerNameColumn.getJavaType());
+		
+		// reuse, malformed row not added
+		batch.clear();
+		Assert.assertEquals(0, batch.getRowCount());
+		batch.addRow(ByteBuffer.wrap(DynamicMessage.newBuilder(orderDesc).setField(orderDesc.findFieldByName("id"), 7L).build().toByteArray()));
+		try {
+			batch.addRow(new byte[] {0x12, 0x05, 0x08});
+			Assert.fail();
+		}
+		catch (InvalidProtocolBufferException e) {
+			log("expected: " + e);
+		}
+		Assert.assertEquals(1, batch.getRowCount());
+		Assert.assertEquals(7L, batch.getColumn("id").getLongs()[0]);
+		Assert.assertTrue(batch.getColumn("customer.id").isNull(0));
+		Assert.assertEquals(1, batch.getColumn("customer").getNullCount());
+		Assert.assertEquals(0, batch.getColumn("id").getNullCount());
+		
+		try {
+			batch.getColumn("id").getInts();
+			Assert.fail();
+		}
+		catch (IllegalStateException e) {
+			log("expected: " + e);
+		}
+		String[][] invalidPaths = {{"item"}, {"customer.undefined"}, {"id.value"}, {"id", "id"}, {}};
+		for (String[] columnPaths : invalidPaths) {
+			try {
+				schema.newColumnBatch("Order", columnPaths);
+				Assert.fail();
+			}
+			catch (IllegalArgumentException e) {
+				log("expected: " + e);
+			}
+		}
+		Assert.assertNull(schema.newColumnBatch("Undefined", "id"));
+	}
+
+	/**
+	 * testJsonCodec - JSON encoding and parsing of dynamic messages
+	 */
+	@Test
+	public void testJsonCodec() throws Exception {
+		log("--- testJsonCodec ---");
+		
+		DynamicSchema schema = DynamicSchema.parseFrom(new FileInputStream("src/test/resources/PersonSchema.desc"));
+		JsonCodec personCodec = schema.getJsonCodec("Person");
+		Assert.assertSame(personCodec, schema.getJsonCodec("Person"));
+		Assert.assertNull(schema.getJsonCodec("Undefined"));
+		
+		PersonSchema.Person person = PersonSchema.Person.newBuilder()
+				.setId(1)
+				.setName("Alan \"Al\" Turing\n\u00e9\u4e2d\ud83d\ude00")
+				.setWorkAddr("Bletchley Park")
+				.addPhone(PersonSchema.Person.PhoneNumber.newBuilder().setNumber("555-1212").setType(PersonSchema.Person.PhoneType.MOBILE))
+				.addPhone(PersonSchema.Person.PhoneNumber.newBuilder().setNumber("555-1213"))
+				.build();
+		String json = personCodec.toJson(person);
+		log(json);
+		Assert.assertEquals("{\"id\":1,\"name\":\"Alan \\\"Al\\\" Turing\\n\u00e9\u4e2d\ud83d\ude00\",\"workAddr\":\"Bletchley Park\","
+				+ "\"phone\":[{\"number\":\"555-1212\",\"type\":\"MOBILE\"},{\"number\":\"555-1213\"}]}", json);
+		DynamicMessage msg = personCodec.parse(json);
+		Assert.assertEquals(person, PersonSchema.Person.parseFrom(msg.toByteArray()));
+		Assert.assertArrayEquals(personCodec.toJsonBytes(person), personCodec.toJsonBytes(msg));
+		
+		// reusable output, original field names, escapes, whitespace, enum numbers
+		JsonCodec.Output out = new JsonCodec.Output();
+		personCodec.encode(msg, out);
+		out.reset();
+		personCodec.encode(msg, out);
+		Assert.assertEquals(json, out.toString());
+		msg = personCodec.parse(" { \"id\" : 2 , \"na\\u006de\" : \"\\u00e9\" , \"home_addr\" : \"x\" , \"email\" : null ,"
+				+ " \"phone\" : [ { \"number\" : \"1\" , \"type\" : 2 } ] } ");
+		Assert.assertEquals(PersonSchema.Person.newBuilder().setId(2).setName("\u00e9").setHomeAddr("x")
+				.addPhone(PersonSchema.Person.PhoneNumber.newBuilder().setNumber("1").setType(PersonSchema.Person.PhoneType.WORK)).build(), 
+				PersonSchema.Person.parseFrom(msg.toByteArray()));
+		
+		// scalar types
+		DynamicSchema.Builder schemaBuilder = DynamicSchema.newBuilder();
+		schemaBuilder.setName("JsonSchema.proto");
+		schemaBuilder.addMessageDefinition(MessageDefinition.newBuilder("Scalars")
+				.addField("optional", "int64", "long_value", 1)
+				.addField("optional", "uint64", "ulong_value", 2)
+				.addField("optional", "uint32", "uint_value", 3)
+				.addField("optional", "double", "double_value", 4)
+				.addField("repeated", "float", "float_value", 5)
+				.addField("optional", "bool", "bool_value", 6)
+				.addField("optional", "bytes", "bytes_value", 7)
+				.addField("optional", "Scalars", "child", 8)
+				.build());
+		DynamicSchema scalarSchema = schemaBuilder.build();
+		Descriptor scalarsDesc = scalarSchema.getMessageDescriptor("Scalars");
+		JsonCodec scalarsCodec = scalarSchema.getJsonCodec("Scalars");
+		DynamicMessage scalars = DynamicMessage.newBuilder(scalarsDesc)
+				.setField(scalarsDesc.findFieldByName("long_value"), Long.MIN_VALUE)
+				.setField(scalarsDesc.findFieldByName("ulong_value"), -1L)
+				.setField(scalarsDesc.findFieldByName("uint_value"), -1)
+				.setField(scalarsDesc.findFieldByName("double_value"), Double.NaN)
+				.addRepeatedField(scalarsDesc.findFieldByName("float_value"), 1.5f)
+				.addRepeatedField(scalarsDesc.findFieldByName("float_value"), Float.NEGATIVE_INFINITY)
+				.setField(scalarsDesc.findFieldByName("bool_value"), true)
+				.setField(scalarsDesc.findFieldByName("bytes_value"), ByteString.copyFrom(new byte[] {0, 1, 2, (byte)0xff}))
+				.setField(scalarsDesc.findFieldByName("child"), DynamicMessage.newBuilder(scalarsDesc).setField(scalarsDesc.findFieldByName("long_value"), 7L).build())
+				.build();
+		json = scalarsCodec.toJson(scalars);
+		log(json);
+		Assert.assertEquals("{\"longValue\":\"-9223372036854775808\",\"ulongValue\":\"18446744073709551615\",\"uintValue\":4294967295,"
+				+ "\"doubleValue\":\"NaN\",\"floatValue\":[1.5,\"-Infinity\"],\"boolValue\":true,\"bytesValue\":\"AAEC/w==\",\"child\":{\"longValue\":\"7\"}}", json);
+		Assert.assertEquals(scalars.toByteString(), scalarsCodec.parse(json).toByteString());
+		Assert.assertEquals(100L, scalarsCodec.parse("{\"long_value\":1e2}").getField(scalarsDesc.findFieldByName("long_value")));
+		
+		String[] invalidJson = {
+				"", "{", "[]", "{\"id\":1,\"name\":\"x\"", "{\"id\":1,\"name\":\"x\"} x", "{\"undefined\":1}", "{\"id\":1.5,\"name\":\"x\"}", 
+				"{\"id\":2147483648,\"name\":\"x\"}", "{\"id\":1}", "{\"id\":1,\"name\":\"x\",\"phone\":[{\"number\":\"1\",\"type\":\"FAX\"}]}",
+				"{\"id\":1,\"name\":\"x\\q\"}", "{\"id\":1 \"name\":\"x\"}"};
+		for (String s : invalidJson) {
+			try {
+				personCodec.parse(s);
+				Assert.fail(s);
+			}
+			catch (InvalidProtocolBufferException e) {
+				log("expected: " + e);
+			}
+		}
+		
+		// float range, quoted numbers in JSON syntax only
+		Assert.assertEquals(Float.MAX_VALUE, scalarsCodec.parse("{\"floatValue\":[3.4028235e38]}").getRepeatedField(scalarsDesc.findFieldByName("float_value"), 0));
+		Assert.assertEquals(2.5, scalarsCodec.parse("{\"doubleValue\":\"2.5e0\"}").getField(scalarsDesc.findFieldByName("double_value")));
+		String[] invalidScalarsJson = {
+				"{\"floatValue\":[1e300]}", "{\"floatValue\":[\"-1e39\"]}", "{\"doubleValue\":\"1d\"}", "{\"doubleValue\":\"0x1p3\"}",
+				"{\"doubleValue\":\" 1\"}", "{\"doubleValue\":\"\"}"};
+		for (String s : invalidScalarsJson) {
+			try {
+				scalarsCodec.parse(s);
+				Assert.fail(s);
+			}
+			catch (InvalidProtocolBufferException e) {
+				log("expected: " + e);
+			}
+		}
+		try {
+			personCodec.toJson(scalars);
+			Assert.fail();
+		}
+		catch (IllegalArgumentException e) {
+			log("expected: " + e);
+		}
+	}
+
+	/**
+	 * testTranscoder - messages rewritten between schema versions at the wire level
+	 */
+	@Test
+	public void testTranscoder() throws Exception {
+		log("--- testTranscoder ---");
+		
+		DynamicSchema.Builder schemaBuilder1 = DynamicSchema.newBuilder();
+		schemaBuilder1.setName("OrderSchema.proto");
+		schemaBuilder1.addMessageDefinition(MessageDefinition.newBuilder("Item")
+				.addField("optional", "string", "sku", 1)
+				.addField("optional", "int32", "qty", 2)
+				.addField("optional", "double", "price", 3)
+				.build());
+		schemaBuilder1.addMessageDefinition(MessageDefinition.newBuilder("Order")
+				.addField("optional", "int64", "id", 1)
+				.addField("optional", "string", "name", 2)
+				.addField("optional", "int32", "legacy", 3)
+				.addField("repeated", "Item", "item", 4)
+				.addField("optional", "string", "note", 5)
+				.build());
+		DynamicSchema schema1 = schemaBuilder1.build();
+		
+		DynamicSchema.Builder schemaBuilder2 = DynamicSchema.newBuilder();
+		schemaBuilder2.setName("OrderSchema.proto");
+		schemaBuilder2.addMessageDefinition(MessageDefinition.newBuilder("Item")
+				.addField("optional", "string", "sku", 1)
+				.addField("optional", "int64", "qty", 2)			// widened
+				.addField("optional", "string", "discount", 3)		// price dropped, number reused
+				.build());
+		schemaBuilder2.addMessageDefinition(MessageDefinition.newBuilder("Order")
+				.addField("optional", "int64", "id", 1)
+				.addField("optional", "string", "title", 2)			// renamed
+				.addField("repeated", "Item", "item", 6)			// renumbered
+				.addField("optional", "string", "note", 7)			// renumbered
+				.addField("optional", "int64", "created", 8)		// added
+				.build());
+		DynamicSchema schema2 = schemaBuilder2.build();
+		
+		Descriptor order1 = schema1.getMessageDescriptor("Order");
+		Descriptor item1 = schema1.getMessageDescriptor("Item");
+		DynamicMessage.Builder orderBuilder = DynamicMessage.newBuilder(order1)
+				.setField(order1.findFieldByName("id"), 42L)
+				.setField(order1.findFieldByName("name"), "order 42")
+				.setField(order1.findFieldByName("legacy"), 7)
+				.setField(order1.findFieldByName("note"), "fragile");
+		for (int i = 0; i < 3; i++) {
+			orderBuilder.addRepeatedField(order1.findFieldByName("item"), DynamicMessage.newBuilder(item1)
+					.setField(item1.findFieldByName("sku"), "sku-" + i)
+					.setField(item1.findFieldByName("qty"), i + 1)
+					.setField(item1.findFieldByName("price"), 9.99)
+					.build());
+		}
+		orderBuilder.setUnknownFields(UnknownFieldSet.newBuilder()
+				.addField(100, UnknownFieldSet.Field.newBuilder().addVarint(1).build())		// kept
+				.addField(8, UnknownFieldSet.Field.newBuilder().addVarint(2).build())		// dropped, created in the target
+				.build());
+		byte[] msg1 = orderBuilder.build().toByteArray();
+		
+		Transcoder transcoder = schema1.newTranscoder("Order", schema2, "Order");
+		log(transcoder);
+		Assert.assertFalse(transcoder.isIdentity());
+		byte[] msg2 = transcoder.transcode(msg1);
+		
+		Descriptor order2 = schema2.getMessageDescriptor("Order");
+		Descriptor item2 = schema2.getMessageDescriptor("Item");
+		DynamicMessage.Builder expectedBuilder = DynamicMessage.newBuilder(order2)
+				.setField(order2.findFieldByName("id"), 42L)
+				.setField(order2.findFieldByName("title"), "order 42")
+				.setField(order2.findFieldByName("note"), "fragile")
+				.setUnknownFields(UnknownFieldSet.newBuilder().addField(100, UnknownFieldSet.Field.newBuilder().addVarint(1).build()).build());
+		for (int i = 0; i < 3; i++) {
+			expectedBuilder.addRepeatedField(order2.findFieldByName("item"), DynamicMessage.newBuilder(item2)
+					.setField(item2.findFieldByName("sku"), "sku-" + i)
+					.setField(item2.findFieldByName("qty"), i + 1L)
+					.build());
+		}
+		DynamicMessage expected = expectedBuilder.build();
+		Assert.assertEquals(expected, DynamicMessage.parseFrom(order2, msg2));
+		Assert.assertEquals(expected.getSerializedSize(), msg2.length);
+		
+		// into a direct byte buffer
+		ByteBuffer out = ByteBuffer.allocateDirect(msg2.length);
+		Assert.assertEquals(msg2.length, transcoder.transcode(ByteBuffer.wrap(msg1), out));
+		Assert.assertEquals(0, out.remaining());
+		out.flip();
+		Assert.assertEquals(ByteString.copyFrom(msg2), ByteString.copyFrom(out));
+		try {
+			transcoder.transcode(ByteBuffer.wrap(msg1), ByteBuffer.allocate(msg2.length - 1));
+			Assert.fail();
+		}
+		catch (BufferOverflowException e) {
+			log("expected: " + e);
+		}
+		
+		// no nested message rewritten: single pass, output trimmed
+		Transcoder itemTranscoder = schema1.newTranscoder("Item", schema2, "Item");
+		byte[] item1Buf = ((DynamicMessage)orderBuilder.getRepeatedField(order1.findFieldByName("item"), 1)).toByteArray();
+		byte[] item2Buf = ((DynamicMessage)expected.getRepeatedField(order2.findFieldByName("item"), 1)).toByteArray();
+		Assert.assertArrayEquals(item2Buf, itemTranscoder.transcode(item1Buf));
+		out = ByteBuffer.allocate(item1Buf.length);
+		Assert.assertEquals(item2Buf.length, itemTranscoder.transcode(ByteBuffer.wrap(item1Buf), out));
+		Assert.assertEquals(item2Buf.length, out.position());
+		out.clear();
+		try {
+			itemTranscoder.transcode(ByteBuffer.wrap(item1Buf, 0, item1Buf.length - 1), out);
+			Assert.fail();
+		}
+		catch (InvalidProtocolBufferException e) {
+			Assert.assertEquals(0, out.position());
+			log("expected: " + e);
+		}
+		
+		// same schema: copied as is
+		Transcoder identity = schema1.newTranscoder("Order", DynamicSchema.parseFrom(schema1.toByteArray()), "Order");
+		Assert.assertTrue(identity.isIdentity());
+		Assert.assertArrayEquals(msg1, identity.transcode(msg1));
+		
+		try {
+			byte[] truncated = new byte[msg1.length - 1];
+			System.arraycopy(msg1, 0, truncated, 0, truncated.length);
+			transcoder.transcode(truncated);
+			Assert.fail();
+		}
+		catch (InvalidProtocolBufferException e) {
+			log("expected: " + e);
+		}
+		try {
+			DynamicSchema.Builder schemaBuilder3 = DynamicSchema.newBuilder();
+			schemaBuilder3.addMessageDefinition(MessageDefinition.newBuilder("Order").addField("optional", "string", "id", 1).build());
+			schema1.newTranscoder("Order", schemaBuilder3.build(), "Order");
+			Assert.fail();
+		}
+		catch (IllegalArgumentException e) {
+			log("expected: " + e);
+		}
+		Assert.assertNull(schema1.newTranscoder("Order", schema2, "Undefined"));
+	}
+
+	static void writeFile(File file, byte[] buf) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(buf);
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	static FieldDescriptorProto.Builder newMsgField(String name, int num, String typeName) {
+		return FieldDescriptorProto.newBuilder()
+				.setName(name).setNumber(num).setTypeName(typeName)
+				.setType(FieldDescriptorProto.Type.TYPE_MESSAGE)
+				.setLabel(FieldDescriptorProto.Label.LABEL_OPTIONAL);
+	}
+
 	static void log(Object o) {
 		System.out.println(o);
 	}
@@ -0,0 +1,776 @@
+// Generated by the protocol buffer compiler.  DO NOT EDIT!
+// source: Schema1.proto
+
+package com.github.os72.protobuf.dynamic;
+
+public final class Schema1 {
+  private Schema1() {}
+  public static void registerAllExtensions(
+      com.google.protobuf.ExtensionRegistry registry) {
+  }
+  public interface Msg1OrBuilder extends
+      // @@protoc_insertion_point(interface_extends:Msg1)
+      com.google.protobuf.MessageOrBuilder {
+
+    /**
+     * <code>optional .Person person = 1;</code>
+     */
+    boolean hasPerson();
+    /**
+     * <code>optional .Person person = 1;</code>
+     */
+    com.github.os72.protobuf.dynamic.PersonSchema.Person getPerson();
+    /**
+     * <code>optional .Person person = 1;</code>
+     */
+    com.github.os72.protobuf.dynamic.PersonSchema.PersonOrBuilder getPersonOrBuilder();
+
+    /**
+     * <code>optional .Msg2 msg2 = 2;</code>
+     */
+    boolean hasMsg2();
+    /**
+     * <code>optional .Msg2 msg2 = 2;</code>
+     */
+    com.github.os72.protobuf.dynamic.Schema2.Msg2 getMsg2();
+    /**
+     * <code>optional .Msg2 msg2 = 2;</code>
+     */
+    com.github.os72.protobuf.dynamic.Schema2.Msg2OrBuilder getMsg2OrBuilder();
+  }
+  /**
+   * Protobuf type {@code Msg1}
+   */
+  public static final class Msg1 extends
+      com.google.protobuf.GeneratedMessage implements
+      // @@protoc_insertion_point(message_implements:Msg1)
+      Msg1OrBuilder {
+    // Use Msg1.newBuilder() to construct.
+    private Msg1(com.google.protobuf.GeneratedMessage.Builder<?> builder) {
+      super(builder);
+      this.unknownFields = builder.getUnknownFields();
+    }
+    private Msg1(boolean noInit) { this.unknownFields = com.google.protobuf.UnknownFieldSet.getDefaultInstance(); }
+
+    private static final Msg1 defaultInstance;
+    public static Msg1 getDefaultInstance() {
+      return defaultInstance;
+    }
+
+    public Msg1 getDefaultInstanceForType() {
+      return defaultInstance;
+    }
+
+    private final com.google.protobuf.UnknownFieldSet unknownFields;
+    @java.lang.Override
+    public final com.google.protobuf.UnknownFieldSet
+        getUnknownFields() {
+      return this.unknownFields;
+    }
+    private Msg1(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      initFields();
+      int mutable_bitField0_ = 0;
+      com.google.protobuf.UnknownFieldSet.Builder unknownFields =
+          com.google.protobuf.UnknownFieldSet.newBuilder();
+      try {
+        boolean done = false;
+        while (!done) {
+          int tag = input.readTag();
+          switch (tag) {
+            case 0:
+              done = true;
+              break;
+            default: {
+              if (!parseUnknownField(input, unknownFields,
+                                     extensionRegistry, tag)) {
+                done = true;
+              }
+              break;
+            }
+            case 10: {
+              com.github.os72.protobuf.dynamic.PersonSchema.Person.Builder subBuilder = null;
+              if (((bitField0_ & 0x00000001) == 0x00000001)) {
+                subBuilder = person_.toBuilder();
+              }
+              person_ = input.readMessage(com.github.os72.protobuf.dynamic.PersonSchema.Person.PARSER, extensionRegistry);
+              if (subBuilder != null) {
+                subBuilder.mergeFrom(person_);
+                person_ = subBuilder.buildPartial();
+              }
+              bitField0_ |= 0x00000001;
+              break;
+            }
+            case 18: {
+              com.github.os72.protobuf.dynamic.Schema2.Msg2.Builder subBuilder = null;
+              if (((bitField0_ & 0x00000002) == 0x00000002)) {
+                subBuilder = msg2_.toBuilder();
+              }
+              msg2_ = input.readMessage(com.github.os72.protobuf.dynamic.Schema2.Msg2.PARSER, extensionRegistry);
+              if (subBuilder != null) {
+                subBuilder.mergeFrom(msg2_);
+                msg2_ = subBuilder.buildPartial();
+              }
+              bitField0_ |= 0x00000002;
+              break;
+            }
+          }
+        }
+      } catch (com.google.protobuf.InvalidProtocolBufferException e) {
+        throw e.setUnfinishedMessage(this);
+      } catch (java.io.IOException e) {
+        throw new com.google.protobuf.InvalidProtocolBufferException(
+            e.getMessage()).setUnfinishedMessage(this);
+      } finally {
+        this.unknownFields = unknownFields.build();
+        makeExtensionsImmutable();
+      }
+    }
+    public static final com.google.protobuf.Descriptors.Descriptor
+        getDescriptor() {
+      return com.github.os72.protobuf.dynamic.Schema1.internal_static_Msg1_descriptor;
+    }
+
+    protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+        internalGetFieldAccessorTable() {
+      return com.github.os72.protobuf.dynamic.Schema1.internal_static_Msg1_fieldAccessorTable
+          .ensureFieldAccessorsInitialized(
+              com.github.os72.protobuf.dynamic.Schema1.Msg1.class, com.github.os72.protobuf.dynamic.Schema1.Msg1.Builder.class);
+    }
+
+    public static com.google.protobuf.Parser<Msg1> PARSER =
+        new com.google.protobuf.AbstractParser<Msg1>() {
+      public Msg1 parsePartialFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws com.google.protobuf.InvalidProtocolBufferException {
+        return new Msg1(input, extensionRegistry);
+      }
+    };
+
+    @java.lang.Override
+    public com.google.protobuf.Parser<Msg1> getParserForType() {
+      return PARSER;
+    }
+
+    private int bitField0_;
+    public static final int PERSON_FIELD_NUMBER = 1;
+    private com.github.os72.protobuf.dynamic.PersonSchema.Person person_;
+    /**
+     * <code>optional .Person person = 1;</code>
+     */
+    public boolean hasPerson() {
+      return ((bitField0_ & 0x00000001) == 0x00000001);
+    }
+    /**
+     * <code>optional .Person person = 1;</code>
+     */
+    public com.github.os72.protobuf.dynamic.PersonSchema.Person getPerson() {
+      return person_;
+    }
+    /**
+     * <code>optional .Person person = 1;</code>
+     */
+    public com.github.os72.protobuf.dynamic.PersonSchema.PersonOrBuilder getPersonOrBuilder() {
+      return person_;
+    }
+
+    public static final int MSG2_FIELD_NUMBER = 2;
+    private com.github.os72.protobuf.dynamic.Schema2.Msg2 msg2_;
+    /**
+     * <code>optional .Msg2 msg2 = 2;</code>
+     */
+    public boolean hasMsg2() {
+      return ((bitField0_ & 0x00000002) == 0x00000002);
+    }
+    /**
+     * <code>optional .Msg2 msg2 = 2;</code>
+     */
+    public com.github.os72.protobuf.dynamic.Schema2.Msg2 getMsg2() {
+      return msg2_;
+    }
+    /**
+     * <code>optional .Msg2 msg2 = 2;</code>
+     */
+    public com.github.os72.protobuf.dynamic.Schema2.Msg2OrBuilder getMsg2OrBuilder() {
+      return msg2_;
+    }
+
+    private void initFields() {
+      person_ = com.github.os72.protobuf.dynamic.PersonSchema.Person.getDefaultInstance();
+      msg2_ = com.github.os72.protobuf.dynamic.Schema2.Msg2.getDefaultInstance();
+    }
+    private byte memoizedIsInitialized = -1;
+    public final boolean isInitialized() {
+      byte isInitialized = memoizedIsInitialized;
+      if (isInitialized == 1) return true;
+      if (isInitialized == 0) return false;
+
+      if (hasPerson()) {
+        if (!getPerson().isInitialized()) {
+          memoizedIsInitialized = 0;
+          return false;
+        }
+      }
+      if (hasMsg2()) {
+        if (!getMsg2().isInitialized()) {
+          memoizedIsInitialized = 0;
+          return false;
+        }
+      }
+      memoizedIsInitialized = 1;
+      return true;
+    }
+
+    public void writeTo(com.google.protobuf.CodedOutputStream output)
+                        throws java.io.IOException {
+      getSerializedSize();
+      if (((bitField0_ & 0x00000001) == 0x00000001)) {
+        output.writeMessage(1, person_);
+      }
+      if (((bitField0_ & 0x00000002) == 0x00000002)) {
+        output.writeMessage(2, msg2_);
+      }
+      getUnknownFields().writeTo(output);
+    }
+
+    private int memoizedSerializedSize = -1;
+    public int getSerializedSize() {
+      int size = memoizedSerializedSize;
+      if (size != -1) return size;
+
+      size = 0;
+      if (((bitField0_ & 0x00000001) == 0x00000001)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeMessageSize(1, person_);
+      }
+      if (((bitField0_ & 0x00000002) == 0x00000002)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeMessageSize(2, msg2_);
+      }
+      size += getUnknownFields().getSerializedSize();
+      memoizedSerializedSize = size;
+      return size;
+    }
+
+    private static final long serialVersionUID = 0L;
+    @java.lang.Override
+    protected java.lang.Object writeReplace()
+        throws java.io.ObjectStreamException {
+      return super.writeReplace();
+    }
+
+    public static com.github.os72.protobuf.dynamic.Schema1.Msg1 parseFrom(
+        com.google.protobuf.ByteString data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data);
+    }
+    public static com.github.os72.protobuf.dynamic.Schema1.Msg1 parseFrom(
+        com.google.protobuf.ByteString data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data, extensionRegistry);
+    }
+    public static com.github.os72.protobuf.dynamic.Schema1.Msg1 parseFrom(byte[] data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data);
+    }
+    public static com.github.os72.protobuf.dynamic.Schema1.Msg1 parseFrom(
+        byte[] data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data, extensionRegistry);
+    }
+    public static com.github.os72.protobuf.dynamic.Schema1.Msg1 parseFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input);
+    }
+    public static com.github.os72.protobuf.dynamic.Schema1.Msg1 parseFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input, extensionRegistry);
+    }
+    public static com.github.os72.protobuf.dynamic.Schema1.Msg1 parseDelimitedFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return PARSER.parseDelimitedFrom(input);
+    }
+    public static com.github.os72.protobuf.dynamic.Schema1.Msg1 parseDelimitedFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseDelimitedFrom(input, extensionRegistry);
+    }
+    public static com.github.os72.protobuf.dynamic.Schema1.Msg1 parseFrom(
+        com.google.protobuf.CodedInputStream input)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input);
+    }
+    public static com.github.os72.protobuf.dynamic.Schema1.Msg1 parseFrom(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input, extensionRegistry);
+    }
+
+    public static Builder newBuilder() { return Builder.create(); }
+    public Builder newBuilderForType() { return newBuilder(); }
+    public static Builder newBuilder(com.github.os72.protobuf.dynamic.Schema1.Msg1 prototype) {
+      return newBuilder().mergeFrom(prototype);
+    }
+    public Builder toBuilder() { return newBuilder(this); }
+
+    @java.lang.Override
+    protected Builder newBuilderForType(
+        com.google.protobuf.GeneratedMessage.BuilderParent parent) {
+      Builder builder = new Builder(parent);
+      return builder;
+    }
+    /**
+     * Protobuf type {@code Msg1}
+     */
+    public static final class Builder extends
+        com.google.protobuf.GeneratedMessage.Builder<Builder> implements
+        // @@protoc_insertion_point(builder_implements:Msg1)
+        com.github.os72.protobuf.dynamic.Schema1.Msg1OrBuilder {
+      public static final com.google.protobuf.Descriptors.Descriptor
+          getDescriptor() {
+        return com.github.os72.protobuf.dynamic.Schema1.internal_static_Msg1_descriptor;
+      }
+
+      protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+          internalGetFieldAccessorTable() {
+        return com.github.os72.protobuf.dynamic.Schema1.internal_static_Msg1_fieldAccessorTable
+            .ensureFieldAccessorsInitialized(
+                com.github.os72.protobuf.dynamic.Schema1.Msg1.class, com.github.os72.protobuf.dynamic.Schema1.Msg1.Builder.class);
+      }
+
+      // Construct using com.github.os72.protobuf.dynamic.Schema1.Msg1.newBuilder()
+      private Builder() {
+        maybeForceBuilderInitialization();
+      }
+
+      private Builder(
+          com.google.protobuf.GeneratedMessage.BuilderParent parent) {
+        super(parent);
+        maybeForceBuilderInitialization();
+      }
+      private void maybeForceBuilderInitialization() {
+        if (com.google.protobuf.GeneratedMessage.alwaysUseFieldBuilders) {
+          getPersonFieldBuilder();
+          getMsg2FieldBuilder();
+        }
+      }
+      private static Builder create() {
+        return new Builder();
+      }
+
+      public Builder clear() {
+        super.clear();
+        if (personBuilder_ == null) {
+          person_ = com.github.os72.protobuf.dynamic.PersonSchema.Person.getDefaultInstance();
+        } else {
+          personBuilder_.clear();
+        }
+        bitField0_ = (bitField0_ & ~0x00000001);
+        if (msg2Builder_ == null) {
+          msg2_ = com.github.os72.protobuf.dynamic.Schema2.Msg2.getDefaultInstance();
+        } else {
+          msg2Builder_.clear();
+        }
+        bitField0_ = (bitField0_ & ~0x00000002);
+        return this;
+      }
+
+      public Builder clone() {
+        return create().mergeFrom(buildPartial());
+      }
+
+      public com.google.protobuf.Descriptors.Descriptor
+          getDescriptorForType() {
+        return com.github.os72.protobuf.dynamic.Schema1.internal_static_Msg1_descriptor;
+      }
+
+      public com.github.os72.protobuf.dynamic.Schema1.Msg1 getDefaultInstanceForType() {
+        return com.github.os72.protobuf.dynamic.Schema1.Msg1.getDefaultInstance();
+      }
+
+      public com.github.os72.protobuf.dynamic.Schema1.Msg1 build() {
+        com.github.os72.protobuf.dynamic.Schema1.Msg1 result = buildPartial();
+        if (!result.isInitialized()) {
+          throw newUninitializedMessageException(result);
+        }
+        return result;
+      }
+
+      public com.github.os72.protobuf.dynamic.Schema1.Msg1 buildPartial() {
+        com.github.os72.protobuf.dynamic.Schema1.Msg1 result = new com.github.os72.protobuf.dynamic.Schema1.Msg1(this);
+        int from_bitField0_ = bitField0_;
+        int to_bitField0_ = 0;
+        if (((from_bitField0_ & 0x00000001) == 0x00000001)) {
+          to_bitField0_ |= 0x00000001;
+        }
+        if (personBuilder_ == null) {
+          result.person_ = person_;
+        } else {
+          result.person_ = personBuilder_.build();
+        }
+        if (((from_bitField0_ & 0x00000002) == 0x00000002)) {
+          to_bitField0_ |= 0x00000002;
+        }
+        if (msg2Builder_ == null) {
+          result.msg2_ = msg2_;
+        } else {
+          result.msg2_ = msg2Builder_.build();
+        }
+        result.bitField0_ = to_bitField0_;
+        onBuilt();
+        return result;
+      }
+
+      public Builder mergeFrom(com.google.protobuf.Message other) {
+        if (other instanceof com.github.os72.protobuf.dynamic.Schema1.Msg1) {
+          return mergeFrom((com.github.os72.protobuf.dynamic.Schema1.Msg1)other);
+        } else {
+          super.mergeFrom(other);
+          return this;
+        }
+      }
+
+      public Builder mergeFrom(com.github.os72.protobuf.dynamic.Schema1.Msg1 other) {
+        if (other == com.github.os72.protobuf.dynamic.Schema1.Msg1.getDefaultInstance()) return this;
+        if (other.hasPerson()) {
+          mergePerson(other.getPerson());
+        }
+        if (other.hasMsg2()) {
+          mergeMsg2(other.getMsg2());
+        }
+        this.mergeUnknownFields(other.getUnknownFields());
+        return this;
+      }
+
+      public final boolean isInitialized() {
+        if (hasPerson()) {
+          if (!getPerson().isInitialized()) {
+            
+            return false;
+          }
+        }
+        if (hasMsg2()) {
+          if (!getMsg2().isInitialized()) {
+            
+            return false;
+          }
+        }
+        return true;
+      }
+
+      public Builder mergeFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws java.io.IOException {
+        com.github.os72.protobuf.dynamic.Schema1.Msg1 parsedMessage = null;
+        try {
+          parsedMessage = PARSER.parsePartialFrom(input, extensionRegistry);
+        } catch (com.google.protobuf.InvalidProtocolBufferException e) {
+          parsedMessage = (com.github.os72.protobuf.dynamic.Schema1.Msg1) e.getUnfinishedMessage();
+          throw e;
+        } finally {
+          if (parsedMessage != null) {
+            mergeFrom(parsedMessage);
+          }
+        }
+        return this;
+      }
+      private int bitField0_;
+
+      private com.github.os72.protobuf.dynamic.PersonSchema.Person person_ = com.github.os72.protobuf.dynamic.PersonSchema.Person.getDefaultInstance();
+      private com.google.protobuf.SingleFieldBuilder<
+          com.github.os72.protobuf.dynamic.PersonSchema.Person, com.github.os72.protobuf.dynamic.PersonSchema.Person.Builder, com.github.os72.protobuf.dynamic.PersonSchema.PersonOrBuilder> personBuilder_;
+      /**
+       * <code>optional .Person person = 1;</code>
+       */
+      public boolean hasPerson() {
+        return ((bitField0_ & 0x00000001) == 0x00000001);
+      }
+      /**
+       * <code>optional .Person person = 1;</code>
+       */
+      public com.github.os72.protobuf.dynamic.PersonSchema.Person getPerson() {
+        if (personBuilder_ == null) {
+          return person_;
+        } else {
+          return personBuilder_.getMessage();
+        }
+      }
+      /**
+       * <code>optional .Person person = 1;</code>
+       */
+      public Builder setPerson(com.github.os72.protobuf.dynamic.PersonSchema.Person value) {
+        if (personBuilder_ == null) {
+          if (value == null) {
+            throw new NullPointerException();
+          }
+          person_ = value;
+          onChanged();
+        } else {
+          personBuilder_.setMessage(value);
+        }
+        bitField0_ |= 0x00000001;
+        return this;
+      }
+      /**
+       * <code>optional .Person person = 1;</code>
+       */
+      public Builder setPerson(
+          com.github.os72.protobuf.dynamic.PersonSchema.Person.Builder builderForValue) {
+        if (personBuilder_ == null) {
+          person_ = builderForValue.build();
+          onChanged();
+        } else {
+          personBuilder_.setMessage(builderForValue.build());
+        }
+        bitField0_ |= 0x00000001;
+        return this;
+      }
+      /**
+       * <code>optional .Person person = 1;</code>
+       */
+      public Builder mergePerson(com.github.os72.protobuf.dynamic.PersonSchema.Person value) {
+        if (personBuilder_ == null) {
+          if (((bitField0_ & 0x00000001) == 0x00000001) &&
+              person_ != com.github.os72.protobuf.dynamic.PersonSchema.Person.getDefaultInstance()) {
+            person_ =
+              com.github.os72.protobuf.dynamic.PersonSchema.Person.newBuilder(person_).mergeFrom(value).buildPartial();
+          } else {
+            person_ = value;
+          }
+          onChanged();
+        } else {
+          personBuilder_.mergeFrom(value);
+        }
+        bitField0_ |= 0x00000001;
+        return this;
+      }
+      /**
+       * <code>optional .Person person = 1;</code>
+       */
+      public Builder clearPerson() {
+        if (personBuilder_ == null) {
+          person_ = com.github.os72.protobuf.dynamic.PersonSchema.Person.getDefaultInstance();
+          onChanged();
+        } else {
+          personBuilder_.clear();
+        }
+        bitField0_ = (bitField0_ & ~0x00000001);
+        return this;
+      }
+      /**
+       * <code>optional .Person person = 1;</code>
+       */
+      public com.github.os72.protobuf.dynamic.PersonSchema.Person.Builder getPersonBuilder() {
+        bitField0_ |= 0x00000001;
+        onChanged();
+        return getPersonFieldBuilder().getBuilder();
+      }
+      /**
+       * <code>optional .Person person = 1;</code>
+       */
+      public com.github.os72.protobuf.dynamic.PersonSchema.PersonOrBuilder getPersonOrBuilder() {
+        if (personBuilder_ != null) {
+          return personBuilder_.getMessageOrBuilder();
+        } else {
+          return person_;
+        }
+      }
+      /**
+       * <code>optional .Person person = 1;</code>
+       */
+      private com.google.protobuf.SingleFieldBuilder<
+          com.github.os72.protobuf.dynamic.PersonSchema.Person, com.github.os72.protobuf.dynamic.PersonSchema.Person.Builder, com.github.os72.protobuf.dynamic.PersonSchema.PersonOrBuilder> 
+          getPersonFieldBuilder() {
+        if (personBuilder_ == null) {
+          personBuilder_ = new com.google.protobuf.SingleFieldBuilder<
+              com.github.os72.protobuf.dynamic.PersonSchema.Person, com.github.os72.protobuf.dynamic.PersonSchema.Person.Builder, com.github.os72.protobuf.dynamic.PersonSchema.PersonOrBuilder>(
+                  getPerson(),
+                  getParentForChildren(),
+                  isClean());
+          person_ = null;
+        }
+        return personBuilder_;
+      }
+
+      private com.github.os72.protobuf.dynamic.Schema2.Msg2 msg2_ = com.github.os72.protobuf.dynamic.Schema2.Msg2.getDefaultInstance();
+      private com.google.protobuf.SingleFieldBuilder<
+          com.github.os72.protobuf.dynamic.Schema2.Msg2, com.github.os72.protobuf.dynamic.Schema2.Msg2.Builder, com.github.os72.protobuf.dynamic.Schema2.Msg2OrBuilder> msg2Builder_;
+      /**
+       * <code>optional .Msg2 msg2 = 2;</code>
+       */
+      public boolean hasMsg2() {
+        return ((bitField0_ & 0x00000002) == 0x00000002);
+      }
+      /**
+       * <code>optional .Msg2 msg2 = 2;</code>
+       */
+      public com.github.os72.protobuf.dynamic.Schema2.Msg2 getMsg2() {
+        if (msg2Builder_ == null) {
+          return msg2_;
+        } else {
+          return msg2Builder_.getMessage();
+        }
+      }
+      /**
+       * <code>optional .Msg2 msg2 = 2;</code>
+       */
+      public Builder setMsg2(com.github.os72.protobuf.dynamic.Schema2.Msg2 value) {
+        if (msg2Builder_ == null) {
+          if (value == null) {
+            throw new NullPointerException();
+          }
+          msg2_ = value;
+          onChanged();
+        } else {
+          msg2Builder_.setMessage(value);
+        }
+        bitField0_ |= 0x00000002;
+        return this;
+      }
+      /**
+       * <code>optional .Msg2 msg2 = 2;</code>
+       */
+      public Builder setMsg2(
+          com.github.os72.protobuf.dynamic.Schema2.Msg2.Builder builderForValue) {
+        if (msg2Builder_ == null) {
+          msg2_ = builderForValue.build();
+          onChanged();
+        } else {
+          msg2Builder_.setMessage(builderForValue.build());
+        }
+        bitField0_ |= 0x00000002;
+        return this;
+      }
+      /**
+       * <code>optional .Msg2 msg2 = 2;</code>
+       */
+      public Builder mergeMsg2(com.github.os72.protobuf.dynamic.Schema2.Msg2 value) {
+        if (msg2Builder_ == null) {
+          if (((bitField0_ & 0x00000002) == 0x00000002) &&
+              msg2_ != com.github.os72.protobuf.dynamic.Schema2.Msg2.getDefaultInstance()) {
+            msg2_ =
+              com.github.os72.protobuf.dynamic.Schema2.Msg2.newBuilder(msg2_).mergeFrom(value).buildPartial();
+          } else {
+            msg2_ = value;
+          }
+          onChanged();
+        } else {
+          msg2Builder_.mergeFrom(value);
+        }
+        bitField0_ |= 0x00000002;
+        return this;
+      }
+      /**
+       * <code>optional .Msg2 msg2 = 2;</code>
+       */
+      public Builder clearMsg2() {
+        if (msg2Builder_ == null) {
+          msg2_ = com.github.os72.protobuf.dynamic.Schema2.Msg2.getDefaultInstance();
+          onChanged();
+        } else {
+          msg2Builder_.clear();
+        }
+        bitField0_ = (bitField0_ & ~0x00000002);
+        return this;
+      }
+      /**
+       * <code>optional .Msg2 msg2 = 2;</code>
+       */
+      public com.github.os72.protobuf.dynamic.Schema2.Msg2.Builder getMsg2Builder() {
+        bitField0_ |= 0x00000002;
+        onChanged();
+        return getMsg2FieldBuilder().getBuilder();
+      }
+      /**
+       * <code>optional .Msg2 msg2 = 2;</code>
+       */
+      public com.github.os72.protobuf.dynamic.Schema2.Msg2OrBuilder getMsg2OrBuilder() {
+        if (msg2Builder_ != null) {
+          return msg2Builder_.getMessageOrBuilder();
+        } else {
+          return msg2_;
+        }
+      }
+      /**
+       * <code>optional .Msg2 msg2 = 2;</code>
+       */
+      private com.google.protobuf.SingleFieldBuilder<
+          com.github.os72.protobuf.dynamic.Schema2.Msg2, com.github.os72.protobuf.dynamic.Schema2.Msg2.Builder, com.github.os72.protobuf.dynamic.Schema2.Msg2OrBuilder> 
+          getMsg2FieldBuilder() {
+        if (msg2Builder_ == null) {
+          msg2Builder_ = new com.google.protobuf.SingleFieldBuilder<
+              com.github.os72.protobuf.dynamic.Schema2.Msg2, com.github.os72.protobuf.dynamic.Schema2.Msg2.Builder, com.github.os72.protobuf.dynamic.Schema2.Msg2OrBuilder>(
+                  getMsg2(),
+                  getParentForChildren(),
+                  isClean());
+          msg2_ = null;
+        }
+        return msg2Builder_;
+      }
+
+      // @@protoc_insertion_point(builder_scope:Msg1)
+    }
+
+    static {
+      defaultInstance = new Msg1(true);
+      defaultInstance.initFields();
+    }
+
+    // @@protoc_insertion_point(class_scope:Msg1)
+  }
+
+  private static final com.google.protobuf.Descriptors.Descriptor
+    internal_static_Msg1_descriptor;
+  private static
+    com.google.protobuf.GeneratedMessage.FieldAccessorTable
+      internal_static_Msg1_fieldAccessorTable;
+
+  public static com.google.protobuf.Descriptors.FileDescriptor
+      getDescriptor() {
+    return descriptor;
+  }
+  private static com.google.protobuf.Descriptors.FileDescriptor
+      descriptor;
+  static {
+    java.lang.String[] descriptorData = {
+      "\n\rSchema1.proto\032\022PersonSchema.proto\032\rSch" +
+      "ema2.proto\"4\n\004Msg1\022\027\n\006person\030\001 \001(\0132\007.Per" +
+      "son\022\023\n\004msg2\030\002 \001(\0132\005.Msg2B+\n com.github.o" +
+      "s72.protobuf.dynamicB\007Schema1"
+    };
+    com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner assigner =
+        new com.google.protobuf.Descriptors.FileDescriptor.    InternalDescriptorAssigner() {
+          public com.google.protobuf.ExtensionRegistry assignDescriptors(
+              com.google.protobuf.Descriptors.FileDescriptor root) {
+            descriptor = root;
+            return null;
+          }
+        };
+    com.google.protobuf.Descriptors.FileDescriptor
+      .internalBuildGeneratedFileFrom(descriptorData,
+        new com.google.protobuf.Descriptors.FileDescriptor[] {
+          com.github.os72.protobuf.dynamic.PersonSchema.getDescriptor(),
+          com.github.os72.protobuf.dynamic.Schema2.getDescriptor(),
+        }, assigner);
+    internal_static_Msg1_descriptor =
+      getDescriptor().getMessageTypes().get(0);
+    internal_static_Msg1_fieldAccessorTable = new
+      com.google.protobuf.GeneratedMessage.FieldAccessorTable(
+        internal_static_Msg1_descriptor,
+        new java.lang.String[] { "Person", "Msg2", });
+    com.github.os72.protobuf.dynamic.PersonSchema.getDescriptor();
+    com.github.os72.protobuf.dynamic.Schema2.getDescriptor();
+  }
+
+  // @@protoc_insertion_point(outer_class_scope)
+}